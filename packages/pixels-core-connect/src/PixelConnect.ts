@@ -396,19 +396,8 @@ export abstract class PixelConnect<
     msgOrType: PixelMessage | MessageType,
     withoutAck = false
   ): Promise<void> {
-    // Serialize message
-    const data = this._serializer.serialize(msgOrType);
-    // Log about it
-    if (this._logMessages) {
-      const msgName = this._serializer.getMessageType(msgOrType);
-      this._log(
-        `Sending message ${msgName} (${this._serializer.getMessageTypeValue(msgName)})`
-      );
-    }
-    if (this._logData) {
-      this._logArray(data);
-    }
-    // And send it
+    // Serialize message and send it
+    const data = this._serializeForSending(msgOrType);
     await this._session.writeValue(data, withoutAck);
   }
 
@@ -424,6 +413,20 @@ export abstract class PixelConnect<
     responseType: MessageType,
     timeoutMs: number = Constants.ackMessageTimeout
   ): Promise<PixelMessage | MessageType> {
+    if (this._session.writeValueAndWaitForResponse) {
+      // Let the session wait for the response, the message listeners
+      // are still notified as the response goes through the subscription
+      const data = this._serializeForSending(msgOrTypeToSend);
+      const response = await this._session.writeValueAndWaitForResponse(
+        data,
+        this._serializer.getMessageTypeValue(responseType),
+        timeoutMs
+      );
+      if (!response) {
+        throw new WaitMsgTimeoutErr(this, timeoutMs, responseType);
+      }
+      return this._internalDeserializeMessage(response);
+    }
     // Gets the session object, throws an error if invalid
     const result = await Promise.all([
       this._internalWaitForMessage(responseType, timeoutMs), // TODO we should unsubscribe as soon the other promise rejects
@@ -453,6 +456,23 @@ export abstract class PixelConnect<
     )) as T;
   }
 
+  // Serializes the given message and logs about it
+  private _serializeForSending(
+    msgOrType: PixelMessage | MessageType
+  ): ArrayBuffer {
+    const data = this._serializer.serialize(msgOrType);
+    if (this._logMessages) {
+      const msgName = this._serializer.getMessageType(msgOrType);
+      this._log(
+        `Sending message ${msgName} (${this._serializer.getMessageTypeValue(msgName)})`
+      );
+    }
+    if (this._logData) {
+      this._logArray(data);
+    }
+    return data;
+  }
+
   private _updateStatus(
     status: PixelStatus,
     reason?: PixelSessionConnectionEventReason
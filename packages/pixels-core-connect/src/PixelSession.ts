@@ -116,6 +116,22 @@ export abstract class PixelSession {
     timeoutMs?: number // Default should be Constants.defaultRequestTimeout
   ): Promise<void>;
 
+  /**
+   * Sends data to Pixel using the "write" characteristic and waits for
+   * a notification which first byte is the given message type value.
+   * Only defined for sessions that can do it natively, otherwise the response
+   * is waited for with a message listener.
+   * @param data The raw data to send to the Pixel.
+   * @param responseType The message type value of the expected response.
+   * @param timeoutMs The timeout in milliseconds for sending the data and getting the response.
+   * @returns A promise resolving to the response data, or to undefined on timeout.
+   */
+  writeValueAndWaitForResponse?: (
+    data: ArrayBuffer,
+    responseType: number,
+    timeoutMs: number
+  ) => Promise<DataView | undefined>;
+
   protected _notifyConnectionEvent(
     status: PixelSessionConnectionStatus,
     reason: PixelSessionConnectionEventReason = "success"
@@ -0,0 +1,101 @@
+package com.systemic.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @brief Index of the characteristics of a peripheral, built once its services are discovered.
+ *
+ * Each characteristic is identified by an integer handle which is valid until
+ * the services are invalidated. The handles include the generation of the index
+ * so a handle from a previous connection doesn't resolve to another characteristic.
+ *
+ * Instances of this class are immutable.
+ */
+final class CharacteristicIndex
+{
+    static final int INVALID_HANDLE = -1;
+
+    // The lower bits of a handle are the characteristic index, the upper ones the generation
+    private static final int INDEX_BITS = 16;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = 0x7fff; // Keep handles positive
+
+    private final int _generation;
+    private final BluetoothGattCharacteristic[] _characteristics;
+    // Handles of the characteristic instances, per service UUID and characteristic UUID
+    private final HashMap<UUID, HashMap<UUID, int[]>> _handles = new HashMap<>();
+
+    CharacteristicIndex(final int generation, @NonNull final List<BluetoothGattService> services)
+    {
+        _generation = generation & GENERATION_MASK;
+
+        ArrayList<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+        for (BluetoothGattService service : services)
+        {
+            // Like BluetoothGatt.getService(), only keep the first service with a given UUID
+            if (_handles.containsKey(service.getUuid()))
+            {
+                continue;
+            }
+            HashMap<UUID, int[]> serviceHandles = new HashMap<>();
+            _handles.put(service.getUuid(), serviceHandles);
+            for (BluetoothGattCharacteristic charac : service.getCharacteristics())
+            {
+                if (characteristics.size() > INDEX_MASK)
+                {
+                    break;
+                }
+                final int handle = (_generation << INDEX_BITS) | characteristics.size();
+                characteristics.add(charac);
+                int[] instances = serviceHandles.get(charac.getUuid());
+                if (instances == null)
+                {
+                    instances = new int[] { handle };
+                }
+                else
+                {
+                    instances = Arrays.copyOf(instances, instances.length + 1);
+                    instances[instances.length - 1] = handle;
+                }
+                serviceHandles.put(charac.getUuid(), instances);
+            }
+        }
+        _characteristics = characteristics.toArray(new BluetoothGattCharacteristic[0]);
+    }
+
+    /**
+     * @brief Gets the handle of the specified service's characteristic.
+     *
+     * @return The handle, or INVALID_HANDLE if the characteristic was not discovered.
+     */
+    int getHandle(@NonNull final UUID serviceUuid, @NonNull final UUID characteristicUuid, final int instanceIndex)
+    {
+        HashMap<UUID, int[]> serviceHandles = _handles.get(serviceUuid);
+        int[] instances = serviceHandles != null ? serviceHandles.get(characteristicUuid) : null;
+        return (instances != null) && (instanceIndex >= 0) && (instanceIndex < instances.length)
+            ? instances[instanceIndex] : INVALID_HANDLE;
+    }
+
+    /**
+     * @brief Gets the characteristic for the given handle.
+     *
+     * @return The characteristic, or null if the handle is not valid for this index.
+     */
+    @Nullable
+    BluetoothGattCharacteristic getCharacteristic(final int handle)
+    {
+        final int index = handle & INDEX_MASK;
+        return (handle >= 0) && ((handle >>> INDEX_BITS) == _generation) && (index < _characteristics.length)
+            ? _characteristics[index] : null;
+    }
+}
@@ -0,0 +1,424 @@
+package com.systemic.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import no.nordicsemi.android.ble.callback.FailCallback;
+
+/**
+ * @brief Schedules the connection requests of peripherals.
+ *
+ * Android doesn't cope well with many simultaneous connection attempts,
+ * which tend to fail with the GATT_ERROR (133) status. This class limits
+ * the number of connection requests in progress and queues the others.
+ *
+ * A connection attempt failing with GATT_ERROR or a timeout is retried after
+ * an exponential backoff delay with jitter, up to the given number of retries.
+ * The slot is released while waiting so other peripherals may connect in the meantime.
+ * After repeated failures the GATT cache of the peripheral is cleared on the next failure.
+ *
+ * There is at most one request per peripheral, a connection request for a peripheral
+ * that already has one joins it.
+ *
+ * This class is thread safe.
+ */
+public final class ConnectionScheduler
+{
+    private static final String TAG = "SystemicGames";
+
+    // Status reported by Android on a connection failure, often the result of too many connections attempts
+    private static final int GATT_ERROR = 133;
+    // Connection statuses that are worth retrying
+    private static final int GATT_CONN_TIMEOUT = 8;
+    private static final int GATT_CONN_FAIL_ESTABLISH = 62;
+
+    public static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 2;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_RETRY_DELAY_MS = 8000;
+    public static final int DEFAULT_CACHE_REFRESH_FAILURES = 2;
+
+    private static final class ConnectRequest
+    {
+        final Peripheral peripheral;
+        final String requiredServicesUuids;
+        final int timeoutMs;
+        // Callbacks of the connection requests that joined this one, accessed under the scheduler lock
+        final ArrayList<Peripheral.RequestCallback> callbacks = new ArrayList<>();
+        final long requestTime; // Milliseconds since boot
+        int failures;
+        Runnable retryRunnable;
+
+        ConnectRequest(final Peripheral peripheral, final String requiredServicesUuids, final int timeoutMs, final Peripheral.RequestCallback callback)
+        {
+            this.peripheral = peripheral;
+            this.requiredServicesUuids = requiredServicesUuids;
+            this.timeoutMs = timeoutMs;
+            this.callbacks.add(callback);
+            this.requestTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final class DeviceStatistics
+    {
+        int attempts;
+        int successes;
+        int failures;
+        int cacheRefreshes;
+        int lastStatus;
+        long lastConnectionTime;
+    }
+
+    private final Handler _handler;
+    private final Random _random = new Random();
+    private final ArrayDeque<ConnectRequest> _waiting = new ArrayDeque<>();
+    // Requests with a connection attempt in progress or waiting for a retry, per peripheral
+    private final HashMap<Peripheral, ConnectRequest> _active = new HashMap<>();
+    private final HashMap<String, DeviceStatistics> _statistics = new HashMap<>();
+    private int _inProgress;
+    private int _maxConcurrentConnects = DEFAULT_MAX_CONCURRENT_CONNECTS;
+    private int _maxRetries = DEFAULT_MAX_RETRIES;
+    private long _retryDelayMs = DEFAULT_RETRY_DELAY_MS;
+    private long _maxRetryDelayMs = DEFAULT_MAX_RETRY_DELAY_MS;
+    private int _cacheRefreshFailures = DEFAULT_CACHE_REFRESH_FAILURES;
+
+    /**
+     * @brief Initializes a scheduler.
+     *
+     * @param handler The handler for running the retry timers.
+     */
+    public ConnectionScheduler(@NonNull final Handler handler)
+    {
+        _handler = handler;
+    }
+
+    /**
+     * @brief Sets the maximum number of connection attempts in progress at the same time.
+     */
+    public synchronized void setMaxConcurrentConnects(final int maxConcurrentConnects)
+    {
+        if (maxConcurrentConnects < 1)
+        {
+            throw new IllegalArgumentException("maxConcurrentConnects must be at least 1");
+        }
+        _maxConcurrentConnects = maxConcurrentConnects;
+    }
+
+    /**
+     * @brief Sets the retry policy for connection attempts failing with GATT_ERROR or a timeout.
+     *
+     * @param maxRetries The maximum number of retries, zero to never retry.
+     * @param retryDelayMs The delay before the first retry, it's doubled for each following retry.
+     * @param maxRetryDelayMs The maximum delay before a retry.
+     * @param cacheRefreshFailures The number of failures after which the GATT cache is refreshed,
+     *                             zero to never refresh it.
+     */
+    public synchronized void setRetryPolicy(final int maxRetries, final long retryDelayMs, final long maxRetryDelayMs, final int cacheRefreshFailures)
+    {
+        if ((maxRetries < 0) || (retryDelayMs < 0) || (maxRetryDelayMs < retryDelayMs) || (cacheRefreshFailures < 0))
+        {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        _maxRetries = maxRetries;
+        _retryDelayMs = retryDelayMs;
+        _maxRetryDelayMs = maxRetryDelayMs;
+        _cacheRefreshFailures = cacheRefreshFailures;
+    }
+
+    /**
+     * @brief Queues a request to connect to the peripheral, see Peripheral.connect().
+     *
+     * The request callback is notified once connected, or when the last attempt has failed.
+     * A request for a peripheral that is already being connected, or waiting for its turn
+     * or for a retry, joins the previous request and its callback is notified with the
+     * result of that request. The required services and timeout of the previous request apply.
+     *
+     * @param peripheral The peripheral to connect to.
+     * @param requiredServicesUuids Comma separated list of services UUIDs that the peripheral
+     *                              should support, may be null or empty.
+     * @param timeoutMs The timeout of each connection attempt in milliseconds.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void connect(@NonNull final Peripheral peripheral, @Nullable final String requiredServicesUuids, final int timeoutMs, @NonNull final Peripheral.RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> ConnectionScheduler::connect " + peripheral.getAddress());
+
+        synchronized (this)
+        {
+            ConnectRequest request = _active.get(peripheral);
+            if (request != null)
+            {
+                request.callbacks.add(requestCallback);
+                return;
+            }
+            request = new ConnectRequest(peripheral, requiredServicesUuids, timeoutMs, requestCallback);
+            _active.put(peripheral, request);
+            _waiting.add(request);
+        }
+        pump();
+    }
+
+    /**
+     * @brief Cancels the connection request of the peripheral if it's waiting for its turn
+     *        or for a retry.
+     *
+     * A connection attempt in progress is not cancelled, disconnect the peripheral to cancel it.
+     * But it won't be retried if it fails and a later connection request doesn't join it.
+     *
+     * @return Whether a request was cancelled.
+     */
+    public boolean cancel(@NonNull final Peripheral peripheral)
+    {
+        ArrayList<Peripheral.RequestCallback> callbacks = null;
+        synchronized (this)
+        {
+            final ConnectRequest request = _active.remove(peripheral);
+            if ((request != null) && removeRequest(request))
+            {
+                callbacks = request.callbacks;
+            }
+        }
+        if (callbacks != null)
+        {
+            for (Peripheral.RequestCallback callback : callbacks)
+            {
+                callback.onRequestFailed(peripheral.getDevice(), FailCallback.REASON_CANCELLED);
+            }
+        }
+        return callbacks != null;
+    }
+
+    /**
+     * @brief Cancels all the connection requests, see cancel().
+     */
+    public void cancelAll()
+    {
+        final ArrayList<ConnectRequest> cancelled = new ArrayList<>();
+        synchronized (this)
+        {
+            for (ConnectRequest request : _active.values())
+            {
+                if (removeRequest(request))
+                {
+                    cancelled.add(request);
+                }
+            }
+            _active.clear();
+        }
+        for (ConnectRequest request : cancelled)
+        {
+            for (Peripheral.RequestCallback callback : request.callbacks)
+            {
+                callback.onRequestFailed(request.peripheral.getDevice(), FailCallback.REASON_CANCELLED);
+            }
+        }
+    }
+
+    /**
+     * @brief Gets the connection statistics of the given peripheral.
+     *
+     * @param address The peripheral Bluetooth address.
+     * @return The statistics, or null if no connection was requested for this peripheral.
+     */
+    @Nullable
+    public synchronized ConnectionStatistics getStatistics(@NonNull final String address)
+    {
+        DeviceStatistics stats = _statistics.get(address);
+        return stats == null ? null : new ConnectionStatistics(
+            stats.attempts, stats.successes, stats.failures, stats.cacheRefreshes, stats.lastStatus, stats.lastConnectionTime);
+    }
+
+    // Removes the given request if it's waiting for its turn or a retry,
+    // must be called with the lock held
+    private boolean removeRequest(@NonNull final ConnectRequest request)
+    {
+        if (request.retryRunnable != null)
+        {
+            _handler.removeCallbacks(request.retryRunnable);
+            request.retryRunnable = null;
+            return true;
+        }
+        return _waiting.remove(request);
+    }
+
+    // Stops tracking the request once its last attempt is over and returns the callbacks to notify,
+    // must be called with the lock held
+    private ArrayList<Peripheral.RequestCallback> finishRequest(@NonNull final ConnectRequest request)
+    {
+        if (_active.get(request.peripheral) == request)
+        {
+            _active.remove(request.peripheral);
+        }
+        // Copy the callbacks as the request may still be joined until removed from the active ones
+        return new ArrayList<>(request.callbacks);
+    }
+
+    // Starts the waiting requests while there are free slots
+    private void pump()
+    {
+        while (true)
+        {
+            ConnectRequest request;
+            synchronized (this)
+            {
+                if ((_inProgress >= _maxConcurrentConnects) || _waiting.isEmpty())
+                {
+                    return;
+                }
+                request = _waiting.poll();
+                ++_inProgress;
+                ++getDeviceStatistics(request.peripheral).attempts;
+            }
+            attempt(request);
+        }
+    }
+
+    private void attempt(@NonNull final ConnectRequest request)
+    {
+        final Peripheral peripheral = request.peripheral;
+        Peripheral.RequestCallback callback = new Peripheral.RequestCallback()
+        {
+            @Override
+            public void onRequestCompleted(@NonNull final BluetoothDevice device)
+            {
+                final ArrayList<Peripheral.RequestCallback> callbacks;
+                synchronized (ConnectionScheduler.this)
+                {
+                    --_inProgress;
+                    callbacks = finishRequest(request);
+                    DeviceStatistics stats = getDeviceStatistics(peripheral);
+                    ++stats.successes;
+                    stats.lastConnectionTime = SystemClock.elapsedRealtime() - request.requestTime;
+                }
+                pump();
+                for (Peripheral.RequestCallback callback : callbacks)
+                {
+                    callback.onRequestCompleted(device);
+                }
+            }
+
+            @Override
+            public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+            {
+                final long delay;
+                ArrayList<Peripheral.RequestCallback> callbacks = null;
+                synchronized (ConnectionScheduler.this)
+                {
+                    --_inProgress;
+                    ++request.failures;
+                    DeviceStatistics stats = getDeviceStatistics(peripheral);
+                    ++stats.failures;
+                    stats.lastStatus = status;
+                    final boolean retry = isRetryable(status) && (request.failures <= _maxRetries)
+                        && (_active.get(peripheral) == request);
+                    if (retry)
+                    {
+                        delay = getRetryDelay(request.failures);
+                        if ((_cacheRefreshFailures > 0) && (request.failures % _cacheRefreshFailures == 0))
+                        {
+                            // The cache is cleared when the next attempt fails
+                            ++stats.cacheRefreshes;
+                            peripheral.refreshGattCacheOnDisconnect();
+                        }
+                        request.retryRunnable = () -> retry(request);
+                        _handler.postDelayed(request.retryRunnable, delay);
+                    }
+                    else
+                    {
+                        delay = -1;
+                        callbacks = finishRequest(request);
+                    }
+                }
+                pump();
+                if (delay >= 0)
+                {
+                    Log.w(TAG, "Connection to " + peripheral.getAddress() + " failed with status " + status
+                        + ", retrying in " + delay + "ms");
+                }
+                else
+                {
+                    for (Peripheral.RequestCallback callback : callbacks)
+                    {
+                        callback.onRequestFailed(device, status);
+                    }
+                }
+            }
+
+            @Override
+            public void onInvalidRequest()
+            {
+                final ArrayList<Peripheral.RequestCallback> callbacks;
+                synchronized (ConnectionScheduler.this)
+                {
+                    --_inProgress;
+                    callbacks = finishRequest(request);
+                }
+                pump();
+                for (Peripheral.RequestCallback callback : callbacks)
+                {
+                    callback.onInvalidRequest();
+                }
+            }
+        };
+        try
+        {
+            peripheral.connect(request.requiredServicesUuids, request.timeoutMs, callback);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Report it to the request callback as this may run from a retry timer
+            Log.e(TAG, "Invalid connection request for " + peripheral.getAddress() + ": " + e.getMessage());
+            callback.onInvalidRequest();
+        }
+    }
+
+    private void retry(@NonNull final ConnectRequest request)
+    {
+        synchronized (this)
+        {
+            if (request.retryRunnable == null)
+            {
+                // Cancelled
+                return;
+            }
+            request.retryRunnable = null;
+            // Retries go first
+            _waiting.addFirst(request);
+        }
+        pump();
+    }
+
+    private static boolean isRetryable(final int status)
+    {
+        return (status == GATT_ERROR) || (status == GATT_CONN_TIMEOUT) || (status == GATT_CONN_FAIL_ESTABLISH)
+            || (status == FailCallback.REASON_TIMEOUT);
+    }
+
+    // Exponential backoff with jitter, between half and the full delay
+    private long getRetryDelay(final int failures)
+    {
+        final long delay = Math.min(_maxRetryDelayMs, _retryDelayMs << Math.min(failures - 1, 16));
+        return delay / 2 + (long)(_random.nextDouble() * (delay - delay / 2));
+    }
+
+    private DeviceStatistics getDeviceStatistics(@NonNull final Peripheral peripheral)
+    {
+        DeviceStatistics stats = _statistics.get(peripheral.getAddress());
+        if (stats == null)
+        {
+            stats = new DeviceStatistics();
+            _statistics.put(peripheral.getAddress(), stats);
+        }
+        return stats;
+    }
+}
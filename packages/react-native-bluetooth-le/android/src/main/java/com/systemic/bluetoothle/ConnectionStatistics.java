@@ -0,0 +1,73 @@
+package com.systemic.bluetoothle;
+
+/**
+ * @brief Snapshot of the connection attempts made by a ConnectionScheduler for a peripheral.
+ */
+public final class ConnectionStatistics
+{
+    private final int _attempts;
+    private final int _successes;
+    private final int _failures;
+    private final int _cacheRefreshes;
+    private final int _lastStatus;
+    private final long _lastConnectionTime;
+
+    ConnectionStatistics(final int attempts, final int successes, final int failures, final int cacheRefreshes, final int lastStatus, final long lastConnectionTime)
+    {
+        _attempts = attempts;
+        _successes = successes;
+        _failures = failures;
+        _cacheRefreshes = cacheRefreshes;
+        _lastStatus = lastStatus;
+        _lastConnectionTime = lastConnectionTime;
+    }
+
+    /**
+     * @brief Gets the number of connection attempts, including retries.
+     */
+    public int getAttemptsCount()
+    {
+        return _attempts;
+    }
+
+    /**
+     * @brief Gets the number of successful connection attempts.
+     */
+    public int getSuccessesCount()
+    {
+        return _successes;
+    }
+
+    /**
+     * @brief Gets the number of failed connection attempts.
+     */
+    public int getFailuresCount()
+    {
+        return _failures;
+    }
+
+    /**
+     * @brief Gets the number of times the GATT cache was refreshed after repeated failures.
+     */
+    public int getCacheRefreshesCount()
+    {
+        return _cacheRefreshes;
+    }
+
+    /**
+     * @brief Gets the status of the last failed attempt, zero if none failed.
+     */
+    public int getLastFailureStatus()
+    {
+        return _lastStatus;
+    }
+
+    /**
+     * @brief Gets the time it took for the last successful connection, from the connection request
+     *        to the peripheral being connected, including queuing and retries, in milliseconds.
+     */
+    public long getLastConnectionTime()
+    {
+        return _lastConnectionTime;
+    }
+}
@@ -0,0 +1,103 @@
+package com.systemic.bluetoothle;
+
+import androidx.annotation.NonNull;
+
+import no.nordicsemi.android.ble.data.DataMerger;
+import no.nordicsemi.android.ble.data.DataStream;
+
+/**
+ * @brief Rules for reassembling messages sent over several notifications.
+ *
+ * The returned objects may be given to Peripheral.subscribeCharacteristic()
+ * so the value changed callback is only notified of complete messages.
+ * A merger keeps the state of the message being reassembled and must
+ * not be shared between subscriptions.
+ */
+public final class NotificationMergers
+{
+    // Protects against a corrupted length field
+    private static final int MAX_MESSAGE_SIZE = 0x10000;
+
+    private NotificationMergers()
+    {
+    }
+
+    /**
+     * @brief Gets a merger for messages starting with a header that includes their length.
+     *
+     * The message is complete once the number of received bytes reaches the length
+     * read in the first packet plus the given header size.
+     *
+     * @param lengthOffset The offset of the length field in the first packet.
+     * @param lengthSize The size of the length field, 1, 2 or 4 bytes.
+     * @param littleEndian Whether the length field is little endian.
+     * @param headerSize The number of bytes to add to the length field value,
+     *                   zero if the length counts the whole message.
+     * @return The data merger.
+     */
+    @NonNull
+    public static DataMerger lengthPrefixed(final int lengthOffset, final int lengthSize, final boolean littleEndian, final int headerSize)
+    {
+        if ((lengthSize != 1) && (lengthSize != 2) && (lengthSize != 4))
+        {
+            throw new IllegalArgumentException("lengthSize must be 1, 2 or 4");
+        }
+        if ((lengthOffset < 0) || (headerSize < 0))
+        {
+            throw new IllegalArgumentException("lengthOffset and headerSize must be positive");
+        }
+        return new DataMerger()
+        {
+            private int _messageSize;
+
+            @Override
+            public boolean merge(@NonNull final DataStream output, final byte[] lastPacket, final int index)
+            {
+                if (lastPacket == null)
+                {
+                    return false;
+                }
+                output.write(lastPacket);
+                if (index == 0)
+                {
+                    if (lastPacket.length < lengthOffset + lengthSize)
+                    {
+                        // Not a valid header, pass the packet as is
+                        return true;
+                    }
+                    long length = 0;
+                    for (int i = 0; i < lengthSize; ++i)
+                    {
+                        final int b = lastPacket[lengthOffset + (littleEndian ? lengthSize - 1 - i : i)] & 0xff;
+                        length = (length << 8) | b;
+                    }
+                    _messageSize = (int)Math.min(MAX_MESSAGE_SIZE, length + headerSize);
+                }
+                return output.size() >= _messageSize;
+            }
+        };
+    }
+
+    /**
+     * @brief Gets a merger for messages ending with the given byte value.
+     *
+     * The message is complete once a packet ends with the terminator,
+     * which is kept in the message.
+     *
+     * @param terminator The value of the last byte of a message.
+     * @return The data merger.
+     */
+    @NonNull
+    public static DataMerger terminated(final byte terminator)
+    {
+        return (output, lastPacket, index) ->
+        {
+            if ((lastPacket == null) || (lastPacket.length == 0))
+            {
+                return false;
+            }
+            output.write(lastPacket);
+            return (lastPacket[lastPacket.length - 1] == terminator) || (output.size() >= MAX_MESSAGE_SIZE);
+        };
+    }
+}
@@ -31,20 +31,26 @@ package com.systemic.bluetoothle;
 //! @see com.systemic.bluetoothle namespace.
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import android.os.ParcelUuid;
 import android.util.Log;
 import android.bluetooth.*;
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import no.nordicsemi.android.ble.*;
 import no.nordicsemi.android.ble.callback.*;
 import no.nordicsemi.android.ble.data.Data;
+import no.nordicsemi.android.ble.data.DataMerger;
 import no.nordicsemi.android.ble.observer.ConnectionObserver;
 import no.nordicsemi.android.ble.annotation.WriteType;
 
@@ -77,6 +83,18 @@ import no.nordicsemi.android.ble.annotation.WriteType;
 public final class Peripheral
 {
     private static final String TAG = "SystemicGames";
+    // Maximum number of parsed UUID strings kept
+    private static final int MAX_PARSED_UUIDS = 64;
+
+    /**
+     * @brief Value returned by getCharacteristicHandle() for an unknown characteristic.
+     */
+    public static final int INVALID_HANDLE = CharacteristicIndex.INVALID_HANDLE;
+
+    /**
+     * @brief The maximum MTU allowed by the BLE specifications.
+     */
+    public static final int MAX_MTU = 517;
 
     /**
      * @brief Interface for most BLE request callbacks.
@@ -98,6 +116,57 @@ public final class Peripheral
      */
 	public interface ReadValueRequestCallback extends DataReceivedCallback, FailCallback, InvalidRequestCallback {}
 
+    /**
+     * @brief Connection parameters obtained for a high throughput session.
+     */
+    public static final class ThroughputParameters
+    {
+        /** @brief The MTU. */
+        public final int mtu;
+        /** @brief The transmitter PHY, one of PhyCallback.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED. */
+        public final int txPhy;
+        /** @brief The receiver PHY, one of PhyCallback.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED. */
+        public final int rxPhy;
+        /** @brief The connection interval in units of 1.25ms, or zero if unknown (before Android 8). */
+        public final int connectionInterval;
+
+        ThroughputParameters(final int mtu, final int txPhy, final int rxPhy, final int connectionInterval)
+        {
+            this.mtu = mtu;
+            this.txPhy = txPhy;
+            this.rxPhy = rxPhy;
+            this.connectionInterval = connectionInterval;
+        }
+    }
+
+    /**
+     * @brief Interface for high throughput session request callbacks.
+     */
+    public interface ThroughputRequestCallback extends FailCallback, InvalidRequestCallback
+    {
+        /**
+         * @brief Called once the connection parameters have been negotiated.
+         *
+         * @param device The Android Bluetooth device object.
+         * @param parameters The connection parameters obtained.
+         */
+        void onThroughputParametersObtained(@NonNull BluetoothDevice device, @NonNull ThroughputParameters parameters);
+    }
+
+    /**
+     * @brief Interface for the progress of bulk write requests.
+     */
+    public interface BulkWriteProgressCallback
+    {
+        /**
+         * @brief Called each time a packet of a bulk write has been sent.
+         *
+         * @param bytesSent The number of bytes sent so far.
+         * @param totalBytes The total number of bytes to send.
+         */
+        void onBulkWriteProgress(int bytesSent, int totalBytes);
+    }
+
     //public enum ConnectionStatus
     //{
     //    Disconnected(0), Connected(1);
@@ -116,7 +185,10 @@ public final class Peripheral
          */
         private final class GattCallback extends BleManagerGattCallback
         {
-            private BluetoothGatt _gatt;
+            // Set on the callbacks thread and read from any thread
+            private volatile BluetoothGatt _gatt;
+            private volatile CharacteristicIndex _characteristicIndex;
+            private int _indexGeneration;
 
             public GattCallback()
             {
@@ -132,6 +204,11 @@ public final class Peripheral
                 return _gatt == null ? null : _gatt.getServices();
             }
 
+            public CharacteristicIndex getCharacteristicIndex()
+            {
+                return _characteristicIndex;
+            }
+
             @Override
             protected boolean isRequiredServiceSupported(final BluetoothGatt gatt)
             {
@@ -160,6 +237,7 @@ public final class Peripheral
                 }
 
                 _gatt = gatt;
+                _characteristicIndex = new CharacteristicIndex(++_indexGeneration, gatt.getServices());
                 return true;
             }
 
@@ -169,10 +247,54 @@ public final class Peripheral
                 Log.v(TAG, "==> GattCallback::onServicesInvalidated");
 
                 _gatt = null;
+                _characteristicIndex = null;
+                _readCoalescer.clear();
+                _uuids.clear();
+                if (_autoReconnect && _resumeConnection)
+                {
+                    // Keep the listeners to subscribe them again once reconnected
+                    _subscriptions.suspend();
+                }
+                else
+                {
+                    _subscriptions.clear();
+                }
+            }
+
+            @Override
+            protected void initialize()
+            {
+                Log.v(TAG, "==> GattCallback::initialize");
+
+                // Restore the connection state when reconnecting after the connection was lost,
+                // those requests are run before the peripheral is reported as ready
+                if (_autoReconnect && _resumeConnection)
+                {
+                    final int mtu = _requestedMtu;
+                    if (mtu > 0)
+                    {
+                        requestMtu(mtu)
+                            .fail((device, status) -> Log.w(TAG, "Failed to restore MTU with status " + status))
+                            .enqueue();
+                    }
+                    _subscriptions.restore(_device, (serviceUuid, characteristicUuid, instanceIndex) ->
+                    {
+                        CharacteristicIndex index = _characteristicIndex;
+                        return index == null ? null : index.getCharacteristic(index.getHandle(serviceUuid, characteristicUuid, instanceIndex));
+                    });
+                }
+            }
+
+            @Override
+            protected void onDeviceReady()
+            {
+                // Reconnect if the connection is lost until disconnect() is called
+                _resumeConnection = true;
             }
         }
 
         private GattCallback _callback;
+        private volatile boolean _clearCacheOnDisconnect;
 
         public ClientManager(@NonNull final Context context, @Nullable final ConnectionObserver connectionObserver)
         {
@@ -181,6 +303,13 @@ public final class Peripheral
             setConnectionObserver(connectionObserver);
         }
 
+        public ClientManager(@NonNull final Context context, @NonNull final Handler handler, @Nullable final ConnectionObserver connectionObserver)
+        {
+            // Use the given handler for all callbacks
+            super(context, handler);
+            setConnectionObserver(connectionObserver);
+        }
+
         public BluetoothGattService getService(final UUID serviceUuid)
         {
             return _callback.getService(serviceUuid);
@@ -191,6 +320,11 @@ public final class Peripheral
             return _callback.getServices();
         }
 
+        public CharacteristicIndex getCharacteristicIndex()
+        {
+            return _callback.getCharacteristicIndex();
+        }
+
         public MtuRequest requestMtu(final int mtu)
         {
             return super.requestMtu(mtu);
@@ -206,6 +340,21 @@ public final class Peripheral
 		    return super.readRssi();
         }
 
+        public ConnectionPriorityRequest requestConnectionPriority(final int priority)
+        {
+            return super.requestConnectionPriority(priority);
+        }
+
+        public PhyRequest setPreferredPhy(final int txPhy, final int rxPhy, final int phyOptions)
+        {
+            return super.setPreferredPhy(txPhy, rxPhy, phyOptions);
+        }
+
+        public PhyRequest readPhy()
+        {
+            return super.readPhy();
+        }
+
         public ReadRequest readCharacteristic(final BluetoothGattCharacteristic characteristic)
         {   
 		    return super.readCharacteristic(characteristic);
@@ -216,6 +365,11 @@ public final class Peripheral
 		    return super.writeCharacteristic(characteristic, data, writeType);
         }
 
+        public WaitForValueChangedRequest waitForNotification(final BluetoothGattCharacteristic characteristic)
+        {
+            return super.waitForNotification(characteristic);
+        }
+
 	    public ValueChangedCallback setNotificationCallback(final BluetoothGattCharacteristic characteristic)
         {
 		    return super.setNotificationCallback(characteristic);
@@ -241,6 +395,20 @@ public final class Peripheral
             super.cancelQueue();
         }
 
+        public void setClearCacheOnDisconnect(final boolean clearCache)
+        {
+            _clearCacheOnDisconnect = clearCache;
+        }
+
+        @Override
+        protected boolean shouldClearCacheWhenDisconnected()
+        {
+            // Only clear the cache once per request
+            final boolean clearCache = _clearCacheOnDisconnect;
+            _clearCacheOnDisconnect = false;
+            return clearCache;
+        }
+
         @Override
         public void log(final int priority, final String message)
         {
@@ -254,9 +422,145 @@ public final class Peripheral
         }
     }
 
+    /**
+     * @brief Waits for the response to a write, see writeCharacteristicAndWaitForResponse().
+     *
+     * It's a listener of the notifying characteristic, the callback of the write request
+     * and the timeout runnable. The response callback is notified only once, with
+     * the first of the response, the write failure or the timeout.
+     */
+    private final class ResponseWaiter implements DataReceivedCallback, RequestCallback, Runnable
+    {
+        private final BluetoothGattCharacteristic _notifyCharacteristic;
+        private final int _responseType;
+        private final ReadValueRequestCallback _responseCallback;
+        private final AtomicBoolean _done = new AtomicBoolean();
+
+        ResponseWaiter(final BluetoothGattCharacteristic notifyCharacteristic, final int responseType, final ReadValueRequestCallback responseCallback)
+        {
+            _notifyCharacteristic = notifyCharacteristic;
+            _responseType = responseType;
+            _responseCallback = responseCallback;
+        }
+
+        @Override
+        public void onDataReceived(@NonNull final BluetoothDevice device, @NonNull final Data data)
+        {
+            final byte[] value = data.getValue();
+            final boolean isResponse = (_responseType < 0)
+                || ((value != null) && (value.length > 0) && ((value[0] & 0xff) == _responseType));
+            if (isResponse && finish())
+            {
+                _responseCallback.onDataReceived(device, data);
+            }
+        }
+
+        @Override
+        public void onRequestCompleted(@NonNull final BluetoothDevice device)
+        {
+            // The write was sent, keep waiting for the response
+        }
+
+        @Override
+        public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+        {
+            if (finish())
+            {
+                _responseCallback.onRequestFailed(device, status);
+            }
+        }
+
+        @Override
+        public void onInvalidRequest()
+        {
+            if (finish())
+            {
+                _responseCallback.onInvalidRequest();
+            }
+        }
+
+        // Timeout
+        @Override
+        public void run()
+        {
+            if (finish())
+            {
+                Log.w(TAG, "Timeout waiting for response on characteristic " + _notifyCharacteristic.getUuid());
+                _responseCallback.onRequestFailed(_device, FailCallback.REASON_TIMEOUT);
+            }
+        }
+
+        private boolean finish()
+        {
+            if (!_done.compareAndSet(false, true))
+            {
+                return false;
+            }
+            _handler.removeCallbacks(this);
+            _subscriptions.removeResponseListener(_notifyCharacteristic, this);
+            return true;
+        }
+    }
+
     private BluetoothDevice _device;
     private ClientManager _client;
-    private UUID[] _requiredServices;
+    // Runs the callbacks and the timeouts of the requests waiting for a response
+    private final Handler _handler;
+    private final boolean _le2MPhySupported;
+    private volatile UUID[] _requiredServices;
+    private volatile boolean _autoReconnect;
+    // Whether the peripheral was ready and disconnect() wasn't called since
+    private volatile boolean _resumeConnection;
+    // Last MTU requested, restored when reconnecting automatically
+    private volatile int _requestedMtu;
+    private final WritePacer _writePacer = new WritePacer((characteristic, data, writeType, callback) ->
+        _client.writeCharacteristic(characteristic, data, writeType)
+            .done(callback).fail(callback).invalid(callback)
+            .enqueue());
+    // Reads are queued after the writes issued before them
+    private final ReadCoalescer _readCoalescer = new ReadCoalescer((characteristic, callback) ->
+        _writePacer.runInOrder(() -> _client.readCharacteristic(characteristic)
+            .with(callback).fail(callback).invalid(callback)
+            .enqueue()));
+    private final SubscriptionRegistry _subscriptions = new SubscriptionRegistry(new SubscriptionRegistry.Notifications()
+    {
+        @Override
+        public void setCallback(final BluetoothGattCharacteristic characteristic, @Nullable final DataMerger merger, final DataReceivedCallback callback)
+        {
+            ValueChangedCallback valueChangedCallback = _client.setNotificationCallback(characteristic);
+            if (merger != null)
+            {
+                // Packets are buffered until the merger reports a complete message
+                valueChangedCallback.merge(merger);
+            }
+            valueChangedCallback.with(callback);
+        }
+
+        @Override
+        public void removeCallback(final BluetoothGattCharacteristic characteristic)
+        {
+            _client.removeNotificationCallback(characteristic);
+        }
+
+        @Override
+        public void enable(final BluetoothGattCharacteristic characteristic, final RequestCallback callback)
+        {
+            _writePacer.runInOrder(() -> _client.enableNotifications(characteristic)
+                .done(callback).fail(callback).invalid(callback)
+                .enqueue());
+        }
+
+        @Override
+        public void disable(final BluetoothGattCharacteristic characteristic, final RequestCallback callback)
+        {
+            _writePacer.runInOrder(() -> _client.disableNotifications(characteristic)
+                .done(callback).fail(callback).invalid(callback)
+                .enqueue());
+        }
+    });
+    // Parsed services and characteristics UUIDs, so strings are parsed only once,
+    // cleared when the services are invalidated or when it gets too big
+    private final ConcurrentHashMap<String, UUID> _uuids = new ConcurrentHashMap<>();
 
     /**
      * @brief Initializes a peripheral for the given Android BluetoothDevice object
@@ -269,6 +573,23 @@ public final class Peripheral
      * @param connectionObserver The callback for notifying of changes of the connection status of the peripheral.
      */
     public Peripheral(@NonNull final Context context, @Nullable final BluetoothDevice device, @NonNull final ConnectionObserver connectionObserver)
+    {
+        this(context, device, connectionObserver, null);
+    }
+
+    /**
+     * @brief Initializes a peripheral for the given Android BluetoothDevice object
+     *        and with a connection observer, with the callbacks run by the given handler.
+     *
+     * The connection observer and all the request and notification callbacks are invoked
+     * on the handler's thread. Using a background thread, shared between peripherals or not,
+     * keeps the BLE traffic from competing with the UI rendering on the main thread.
+     *
+     * @param device The Android Bluetooth device object for the BLE peripheral.
+     * @param connectionObserver The callback for notifying of changes of the connection status of the peripheral.
+     * @param handler The handler for running the callbacks, or null to use the main thread.
+     */
+    public Peripheral(@NonNull final Context context, @Nullable final BluetoothDevice device, @NonNull final ConnectionObserver connectionObserver, @Nullable final Handler handler)
     {
         Log.v(TAG, "==> createPeripheral");
 
@@ -279,8 +600,16 @@ public final class Peripheral
         // Store device
         _device = device;
 
+        // Check for 2M PHY support
+        BluetoothManager bluetoothManager = (BluetoothManager)context.getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothAdapter adapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
+        _le2MPhySupported = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) && (adapter != null) && adapter.isLe2MPhySupported();
+
         // Create client manager
-        _client = new ClientManager(context, connectionObserver);
+        _handler = handler != null ? handler : new Handler(Looper.getMainLooper());
+        _client = handler != null
+            ? new ClientManager(context, handler, connectionObserver)
+            : new ClientManager(context, connectionObserver);
     }
 
     //! @}
@@ -328,13 +657,96 @@ public final class Peripheral
         _requiredServices = requiredServices;
 
         // Connect
+        // With auto-connect, the first attempt is still a direct connection
+        // and the BLE manager reconnects in the background after a link loss
         _client.connect(_device)
-            // .useAutoConnect(autoReconnect)
+            .useAutoConnect(_autoReconnect)
             .timeout(timeoutMs)
             .done(requestCallback).fail(requestCallback).invalid(requestCallback)
             .enqueue();
     }
 
+    /**
+     * @brief Sets whether the peripheral should be automatically reconnected when
+     *        the connection is lost, defaults to false.
+     *
+     * Once the peripheral has been ready, connection requests are made with Android's
+     * auto-connect so the peripheral is reconnected in the background after a link loss,
+     * until disconnect() is called. Connecting again after the Bluetooth adapter was
+     * turned off is left to the caller, see shouldReconnect().
+     *
+     * On reconnection, the last requested MTU is requested again and the subscribed
+     * characteristics are subscribed again with the same listeners, before the
+     * peripheral is reported as ready.
+     *
+     * The change applies to the next connection request.
+     *
+     * @param autoReconnect Whether to automatically reconnect.
+     */
+    public void setAutoReconnect(final boolean autoReconnect)
+    {
+        Log.v(TAG, "==> setAutoReconnect " + autoReconnect);
+
+        _autoReconnect = autoReconnect;
+    }
+
+    /**
+     * @brief Indicates whether the peripheral is automatically reconnected, see setAutoReconnect().
+     */
+    public boolean isAutoReconnectEnabled()
+    {
+        return _autoReconnect;
+    }
+
+    /**
+     * @brief Indicates whether the peripheral has auto-reconnect enabled and lost
+     *        its connection without disconnect() being called.
+     *
+     * Such a peripheral should be connected again when the Bluetooth adapter is turned on.
+     */
+    public boolean shouldReconnect()
+    {
+        return _autoReconnect && _resumeConnection && !_client.isConnected();
+    }
+
+    /**
+     * @brief Gets the comma separated list of required services UUIDs given to the last
+     *        connection request, or null if there wasn't any.
+     */
+    @Nullable
+    public String getRequiredServicesUuids()
+    {
+        UUID[] services = _requiredServices;
+        if (services == null)
+        {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (UUID uuid : services)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(',');
+            }
+            sb.append(uuid);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @brief Requests the Android GATT cache of the peripheral to be cleared the next time
+     *        it's disconnected, including when a connection attempt fails.
+     *
+     * This may help with peripherals that repeatedly fail to connect
+     * because of stale cached services.
+     */
+    public void refreshGattCacheOnDisconnect()
+    {
+        Log.v(TAG, "==> refreshGattCacheOnDisconnect");
+
+        _client.setClearCacheOnDisconnect(true);
+    }
+
     /**
      * @brief Immediately disconnects the peripheral.
      *
@@ -347,6 +759,9 @@ public final class Peripheral
     {
         Log.v(TAG, "==> disconnect");
 
+        // Don't reconnect automatically and drop the subscriptions
+        _resumeConnection = false;
+
         // Cancel all on-going operations so the disconnect can happen immediately
         _client.cancelOperations();
 
@@ -369,6 +784,14 @@ public final class Peripheral
     //! \name Getters valid even when not connected
     //! @{
 
+    /**
+     * @brief Gets the Android Bluetooth device of the peripheral.
+     */
+    public BluetoothDevice getDevice()
+    {
+        return _device;
+    }
+
     /**
      * @brief Gets the Bluetooth MAC address of the peripheral.
      *
@@ -441,9 +864,11 @@ public final class Peripheral
     {
         Log.v(TAG, "==> requestMtu " + mtu);
 
-        _client.requestMtu(mtu)
+        _requestedMtu = mtu;
+
+        _writePacer.runInOrder(() -> _client.requestMtu(mtu)
             .with(mtuChangedCallback).fail(mtuChangedCallback).invalid(mtuChangedCallback)
-            .enqueue();
+            .enqueue());
     }
 
     /**
@@ -455,9 +880,97 @@ public final class Peripheral
     {
         Log.v(TAG, "==> readRssi");
 
-        _client.readRssi()
+        _writePacer.runInOrder(() -> _client.readRssi()
             .with(rssiReadCallback).fail(rssiReadCallback).invalid(rssiReadCallback)
+            .enqueue());
+    }
+
+    /**
+     * @brief Queues requests to maximize the connection throughput.
+     *
+     * Requests a high priority connection (short connection interval), the 2M PHY
+     * when supported by the phone and the maximum MTU. The peripheral may not
+     * accept all the changes, the callback is notified with the parameters actually
+     * obtained. Failing to change one of the parameters doesn't fail the request,
+     * the callback is notified only once after the last request.
+     *
+     * Call stopHighThroughputSession() once done to save power.
+     *
+     * @param throughputCallback The callback for notifying of the connection parameters and the request status.
+     */
+    public void startHighThroughputSession(final ThroughputRequestCallback throughputCallback)
+    {
+        Log.v(TAG, "==> startHighThroughputSession");
+
+        _requestedMtu = MAX_MTU;
+        _writePacer.runInOrder(() -> enqueueHighThroughputRequests(throughputCallback));
+    }
+
+    private void enqueueHighThroughputRequests(final ThroughputRequestCallback throughputCallback)
+    {
+        // Values updated by the requests callbacks, on the BLE manager thread
+        final int[] phy = { PhyCallback.PHY_LE_1M, PhyCallback.PHY_LE_1M };
+        final int[] interval = { 0 };
+
+        _client.requestConnectionPriority(ConnectionPriorityRequest.CONNECTION_PRIORITY_HIGH)
+            .with((device, connInterval, latency, timeout) -> interval[0] = connInterval)
+            .fail((device, status) -> Log.w(TAG, "Failed to change connection priority with status " + status))
             .enqueue();
+
+        if (_le2MPhySupported)
+        {
+            _client.setPreferredPhy(PhyRequest.PHY_LE_2M_MASK, PhyRequest.PHY_LE_2M_MASK, PhyRequest.PHY_OPTION_NO_PREFERRED)
+                .with((device, txPhy, rxPhy) -> { phy[0] = txPhy; phy[1] = rxPhy; })
+                .fail((device, status) -> Log.w(TAG, "Failed to set 2M PHY with status " + status))
+                .enqueue();
+        }
+        else
+        {
+            // Read the current PHY to report it
+            _client.readPhy()
+                .with((device, txPhy, rxPhy) -> { phy[0] = txPhy; phy[1] = rxPhy; })
+                .enqueue();
+        }
+
+        // The MTU may only be changed once on some devices, skip request if already at max
+        SuccessCallback onDone = device -> throughputCallback.onThroughputParametersObtained(
+            device, new ThroughputParameters(_client.getMtu(), phy[0], phy[1], interval[0]));
+        if (_client.getMtu() < MAX_MTU)
+        {
+            _client.requestMtu(MAX_MTU)
+                .fail((device, status) ->
+                {
+                    Log.w(TAG, "Failed to change MTU with status " + status);
+                    onDone.onRequestCompleted(device);
+                })
+                .done(onDone).invalid(throughputCallback)
+                .enqueue();
+        }
+        else
+        {
+            _client.readPhy()
+                .done(onDone).fail(throughputCallback).invalid(throughputCallback)
+                .enqueue();
+        }
+    }
+
+    /**
+     * @brief Queues a request to revert the connection priority changed by startHighThroughputSession().
+     *
+     * The PHY is left unchanged as the 2M PHY doesn't use more power, and the MTU can't be reduced.
+     *
+     * @param lowPower Whether to request a low power connection rather than a balanced one.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void stopHighThroughputSession(final boolean lowPower, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> stopHighThroughputSession");
+
+        _writePacer.runInOrder(() -> _client.requestConnectionPriority(lowPower
+                ? ConnectionPriorityRequest.CONNECTION_PRIORITY_LOW_POWER
+                : ConnectionPriorityRequest.CONNECTION_PRIORITY_BALANCED)
+            .done(requestCallback).fail(requestCallback).invalid(requestCallback)
+            .enqueue());
     }
 
     //! @}
@@ -532,56 +1045,122 @@ public final class Peripheral
     //! @{
 
     /**
-     * @brief Gets the standard BLE properties of the specified service's characteristic.
+     * @brief Sets for how long a read characteristic value is returned by later reads
+     *        without reading the characteristic again.
      *
-     * @see https://developer.android.com/reference/android/bluetooth/BluetoothGattCharacteristic#PROPERTY_BROADCAST,
-     * PROPERTY_READ, PROPERTY_NOTIFY, etc.
+     * Caching is disabled by default. A cached value is dropped when its characteristic is written.
      *
-     * @param serviceUuid The service UUID.
-     * @param characteristicUuid The characteristic UUID.
-     * @param instanceIndex The instance index of the characteristic if listed more than once
-     *                      for the service, otherwise zero.
-     * @return The standard BLE properties of a service's characteristic, or zero if the call failed.
+     * @param durationMs The cache duration in milliseconds, zero to disable caching.
      */
-    public int getCharacteristicProperties(final String serviceUuid, final String characteristicUuid, final int instanceIndex)
+    public void setReadCacheDuration(final long durationMs)
     {
-        Log.v(TAG, "==> getCharacteristicProperties " + characteristicUuid);
-
-        BluetoothGattCharacteristic characteristic
-            = getCharacteristic(serviceUuid, characteristicUuid, instanceIndex);
+        _readCoalescer.setCacheDuration(durationMs);
+    }
 
-        return characteristic == null ? 0 : characteristic.getProperties();
+    /**
+     * @brief Gets the number of writes waiting to be sent and their wait times, per priority.
+     */
+    @NonNull
+    public RequestQueueStatistics getRequestQueueStatistics()
+    {
+        return _writePacer.getStatistics();
     }
 
     /**
-     * @brief Queues a request to read the value of the specified service's characteristic.
+     * @brief Gets the handle of the specified service's characteristic.
      *
-     * The call fails if the characteristic is not readable.
+     * The handle may be used to access the characteristic without looking it up
+     * by its UUIDs. It stays valid until the peripheral is disconnected or its
+     * services are invalidated.
      *
      * @param serviceUuid The service UUID.
      * @param characteristicUuid The characteristic UUID.
      * @param instanceIndex The instance index of the characteristic if listed more than once
      *                      for the service, otherwise zero.
-     * @param valueReadCallback The callback for notifying of the read value and the request status.
+     * @return The characteristic handle, or INVALID_HANDLE if the call failed.
      */
-    public void readCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final ReadValueRequestCallback valueReadCallback)
+    public int getCharacteristicHandle(final String serviceUuid, final String characteristicUuid, final int instanceIndex)
     {
-        Log.v(TAG, "==> readCharacteristic " + characteristicUuid);
+        Log.v(TAG, "==> getCharacteristicHandle " + characteristicUuid);
 
-        // Get the characteristic
-        BluetoothGattCharacteristic characteristic
-            = getCharacteristic(serviceUuid, characteristicUuid, instanceIndex);
+        CharacteristicIndex index = _client.getCharacteristicIndex();
+        return index == null ? INVALID_HANDLE
+            : index.getHandle(getUuid(serviceUuid), getUuid(characteristicUuid), instanceIndex);
+    }
 
-        // Send the read request
-        _client.readCharacteristic(characteristic)
-            .with(valueReadCallback).fail(valueReadCallback).invalid(valueReadCallback)
-            .enqueue();
+    /**
+     * @brief Gets the standard BLE properties of the specified service's characteristic.
+     *
+     * @see https://developer.android.com/reference/android/bluetooth/BluetoothGattCharacteristic#PROPERTY_BROADCAST,
+     * PROPERTY_READ, PROPERTY_NOTIFY, etc.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @return The standard BLE properties of a service's characteristic, or zero if the call failed.
+     */
+    public int getCharacteristicProperties(final String serviceUuid, final String characteristicUuid, final int instanceIndex)
+    {
+        Log.v(TAG, "==> getCharacteristicProperties " + characteristicUuid);
+
+        return getCharacteristicProperties(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex));
+    }
+
+    /**
+     * @brief Gets the standard BLE properties of the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @return The standard BLE properties of the characteristic, or zero if the call failed.
+     */
+    public int getCharacteristicProperties(final int handle)
+    {
+        Log.v(TAG, "==> getCharacteristicProperties " + handle);
+
+        return getCharacteristicProperties(getCharacteristic(handle));
+    }
+
+    /**
+     * @brief Queues a request to read the value of the specified service's characteristic.
+     *
+     * The call fails if the characteristic is not readable.
+     * A read of a characteristic which is already being read gets the result of the pending read,
+     * see also setReadCacheDuration().
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @param valueReadCallback The callback for notifying of the read value and the request status.
+     */
+    public void readCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final ReadValueRequestCallback valueReadCallback)
+    {
+        Log.v(TAG, "==> readCharacteristic " + characteristicUuid);
+
+        readCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), valueReadCallback);
+    }
+
+    /**
+     * @brief Queues a request to read the value of the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param valueReadCallback The callback for notifying of the read value and the request status.
+     */
+    public void readCharacteristic(final int handle, final ReadValueRequestCallback valueReadCallback)
+    {
+        Log.v(TAG, "==> readCharacteristic " + handle);
+
+        readCharacteristic(getCharacteristic(handle), valueReadCallback);
     }
 
     /**
      * @brief Queues a request to write the value of specified service's characteristic.
      *
      * The call fails if the characteristic is not writable.
+     * Writes without response are paced to not congest the connection, a write failing
+     * because of congestion is retried once the in-flight writes have completed, unless
+     * later requests were already sent in which case it fails to keep the write order.
+     * Requests issued after the write are sent after it.
      *
      * @param serviceUuid The service UUID.
      * @param characteristicUuid The characteristic UUID.
@@ -595,23 +1174,175 @@ public final class Peripheral
     {
         Log.v(TAG, "==> writeCharacteristic " + characteristicUuid);
 
-        // Get the characteristic
-        BluetoothGattCharacteristic characteristic
-            = getCharacteristic(serviceUuid, characteristicUuid, instanceIndex);
-        int writeType = withoutResponse
-            ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
-            : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        writeCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), data, withoutResponse, null, RequestPriority.NORMAL, requestCallback);
+    }
 
-        // Send the write request
-        _client.writeCharacteristic(characteristic, data, writeType)
-            .done(requestCallback).fail(requestCallback).invalid(requestCallback)
-            .enqueue();
+    /**
+     * @brief Queues a request to write the value of the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to respond.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void writeCharacteristic(final int handle, final byte[] data, boolean withoutResponse, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristic " + handle);
+
+        writeCharacteristic(getCharacteristic(handle), data, withoutResponse, null, RequestPriority.NORMAL, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to write the value of specified service's characteristic
+     *        with the given priority, replacing the waiting write of the characteristic
+     *        with the same coalescing key.
+     *
+     * Writes waiting for room in the window of in-flight writes are sent in order of priority,
+     * see RequestPriority.
+     * They may also be replaced by a later write with the same key, so only the latest value
+     * is sent. The replaced write fails with FailCallback.REASON_CANCELLED.
+     * The new write is queued after the other waiting writes.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to respond.
+     * @param coalescingKey The key identifying writes that supersede each other, may be null.
+     * @param priority The priority of the write.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void writeCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final byte[] data, boolean withoutResponse, @Nullable final String coalescingKey, @NonNull final RequestPriority priority, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristic " + characteristicUuid + " with key " + coalescingKey + " and priority " + priority);
+
+        writeCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), data, withoutResponse, coalescingKey, priority, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to write the value of the characteristic with the given handle
+     *        and priority, replacing the waiting write of the characteristic with the same coalescing key.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to respond.
+     * @param coalescingKey The key identifying writes that supersede each other, may be null.
+     * @param priority The priority of the write.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void writeCharacteristic(final int handle, final byte[] data, boolean withoutResponse, @Nullable final String coalescingKey, @NonNull final RequestPriority priority, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristic " + handle + " with key " + coalescingKey + " and priority " + priority);
+
+        writeCharacteristic(getCharacteristic(handle), data, withoutResponse, coalescingKey, priority, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to write a buffer of any size to the specified service's characteristic.
+     *
+     * The data is split in packets that fit the current MTU (MTU - 3 bytes) and
+     * the packets are written in order with the bulk priority, see RequestPriority.
+     * Other writes may be sent in between the packets, a write with a higher priority
+     * doesn't wait for the whole transfer.
+     * The request callback is notified once for the whole transfer, the transfer stops
+     * on the first packet that fails to be written.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to respond to each packet.
+     * @param progressCallback The callback for notifying of the transfer progress, may be null.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void writeCharacteristicBulk(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final byte[] data, boolean withoutResponse, @Nullable final BulkWriteProgressCallback progressCallback, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristicBulk " + characteristicUuid + " with " + data.length + " bytes");
+
+        writeCharacteristicBulk(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), data, withoutResponse, progressCallback, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to write a buffer of any size to the characteristic with the given handle.
+     *
+     * @see writeCharacteristicBulk(String, String, int, byte[], boolean, BulkWriteProgressCallback, RequestCallback)
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to respond to each packet.
+     * @param progressCallback The callback for notifying of the transfer progress, may be null.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void writeCharacteristicBulk(final int handle, final byte[] data, boolean withoutResponse, @Nullable final BulkWriteProgressCallback progressCallback, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristicBulk " + handle + " with " + data.length + " bytes");
+
+        writeCharacteristicBulk(getCharacteristic(handle), data, withoutResponse, progressCallback, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to write the value of the specified service's characteristic
+     *        and then wait for a response notified by another characteristic of the same service.
+     *
+     * The response is the first notification which first byte is the given response type.
+     * The notifying characteristic must have been subscribed to, and the response is also
+     * given to its value changed callback. The request fails with REASON_NOT_ENABLED
+     * if the characteristic isn't subscribed.
+     * The write is queued like with writeCharacteristic() and other requests are processed
+     * while waiting for the response. The request fails with REASON_TIMEOUT if the response
+     * isn't received in time.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The UUID of the characteristic to write.
+     * @param instanceIndex The instance index of the characteristic to write if listed more than once
+     *                      for the service, otherwise zero.
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to acknowledge the write.
+     * @param notifyCharacteristicUuid The UUID of the characteristic notifying the response.
+     * @param notifyInstanceIndex The instance index of the notifying characteristic, usually zero.
+     * @param responseType The expected value of the response first byte, or a negative value
+     *                     to accept any notification.
+     * @param timeoutMs The time allowed for the write and the response, in milliseconds.
+     * @param responseCallback The callback for notifying of the response and the request status.
+     */
+    public void writeCharacteristicAndWaitForResponse(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final byte[] data, boolean withoutResponse, final String notifyCharacteristicUuid, final int notifyInstanceIndex, final int responseType, final long timeoutMs, final ReadValueRequestCallback responseCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristicAndWaitForResponse " + characteristicUuid + " for type " + responseType);
+
+        writeCharacteristicAndWaitForResponse(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), data, withoutResponse,
+            getCharacteristic(serviceUuid, notifyCharacteristicUuid, notifyInstanceIndex), responseType, timeoutMs, responseCallback);
+    }
+
+    /**
+     * @brief Queues a request to write the value of the characteristic with the given handle
+     *        and then wait for a response notified by another characteristic.
+     *
+     * @param handle The handle of the characteristic to write, see getCharacteristicHandle().
+     * @param data The data to write to the characteristic (may be empty but not null).
+     * @param withoutResponse Whether to wait for the peripheral to acknowledge the write.
+     * @param notifyHandle The handle of the characteristic notifying the response.
+     * @param responseType The expected value of the response first byte, or a negative value
+     *                     to accept any notification.
+     * @param timeoutMs The time allowed for the write and the response, in milliseconds.
+     * @param responseCallback The callback for notifying of the response and the request status.
+     */
+    public void writeCharacteristicAndWaitForResponse(final int handle, final byte[] data, boolean withoutResponse, final int notifyHandle, final int responseType, final long timeoutMs, final ReadValueRequestCallback responseCallback)
+    {
+        Log.v(TAG, "==> writeCharacteristicAndWaitForResponse " + handle + " for type " + responseType);
+
+        writeCharacteristicAndWaitForResponse(getCharacteristic(handle), data, withoutResponse,
+            getCharacteristic(notifyHandle), responseType, timeoutMs, responseCallback);
     }
 
     /**
      * @brief Queues a request to subscribe for value changes of the specified service's characteristic.
      *
-     * Replaces a previously registered value change callback for the same characteristic.
+     * The value changed callback is added to the listeners of the characteristic,
+     * each notification being given to all of them. Notifications are enabled
+     * when the first listener is added, the request completes right away for the others
+     * unless notifications are still being enabled.
      * The call fails if the characteristic doesn't support notifications.
      *
      * @param serviceUuid The service UUID.
@@ -622,26 +1353,66 @@ public final class Peripheral
      * @param requestCallback The callback for notifying of the request result.
      */
     public void subscribeCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        subscribeCharacteristic(serviceUuid, characteristicUuid, instanceIndex, null, valueChangedCallback, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to subscribe for value changes of the specified service's characteristic,
+     *        with the notifications being reassembled into messages.
+     *
+     * The value changed callback is invoked once per complete message, see NotificationMergers.
+     * The merger applies to all the listeners of the characteristic and is ignored
+     * if the characteristic already has listeners.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @param merger The merger for reassembling the messages, may be null to get each notification.
+     * @param valueChangedCallback The callback for notifying of the characteristic's value changes.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void subscribeCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, @Nullable final DataMerger merger, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
     {
         Log.v(TAG, "==> subscribeCharacteristic" + characteristicUuid);
 
-        // Get the characteristic
-        BluetoothGattCharacteristic characteristic
-            = getCharacteristic(serviceUuid, characteristicUuid, instanceIndex);
+        subscribeCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), merger, valueChangedCallback, requestCallback);
+    }
+
+    /**
+     * @brief Queues a request to subscribe for value changes of the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param valueChangedCallback The callback for notifying of the characteristic's value changes.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void subscribeCharacteristic(final int handle, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        subscribeCharacteristic(handle, null, valueChangedCallback, requestCallback);
+    }
 
-        // Subscribe to notifications
-        _client.setNotificationCallback(characteristic)
-            .with(valueChangedCallback);
+    /**
+     * @brief Queues a request to subscribe for value changes of the characteristic with the given handle,
+     *        with the notifications being reassembled into messages.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param merger The merger for reassembling the messages, may be null to get each notification.
+     * @param valueChangedCallback The callback for notifying of the characteristic's value changes.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void subscribeCharacteristic(final int handle, @Nullable final DataMerger merger, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> subscribeCharacteristic " + handle);
 
-        // And turn them on
-        _client.enableNotifications(characteristic)
-            .done(requestCallback).fail(requestCallback).invalid(requestCallback)
-            .enqueue();
+        subscribeCharacteristic(getCharacteristic(handle), merger, valueChangedCallback, requestCallback);
     }
 
     /**
      * @brief Queues a request to unsubscribe from the specified service's characteristic.
      *
+     * All the listeners of the characteristic are removed.
+     *
      * @param serviceUuid The service UUID.
      * @param characteristicUuid The characteristic UUID.
      * @param instanceIndex The instance index of the characteristic if listed more than once
@@ -652,17 +1423,54 @@ public final class Peripheral
     {
         Log.v(TAG, "==> unsubscribeCharacteristic" + characteristicUuid);
 
-        // Get the characteristic
-        BluetoothGattCharacteristic characteristic
-            = getCharacteristic(serviceUuid, characteristicUuid, instanceIndex);
+        unsubscribeCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), requestCallback);
+    }
 
-        // Unsubscribe from notifications
-        _client.removeNotificationCallback(characteristic);
+    /**
+     * @brief Queues a request to unsubscribe from the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void unsubscribeCharacteristic(final int handle, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> unsubscribeCharacteristic " + handle);
 
-        // And turn them of
-        _client.disableNotifications(characteristic)
-            .done(requestCallback).fail(requestCallback).invalid(requestCallback)
-            .enqueue();
+        unsubscribeCharacteristic(getCharacteristic(handle), requestCallback);
+    }
+
+    /**
+     * @brief Removes a value changed callback from the listeners of the specified service's characteristic.
+     *
+     * Notifications are disabled when the last listener is removed,
+     * otherwise the request completes right away.
+     *
+     * @param serviceUuid The service UUID.
+     * @param characteristicUuid The characteristic UUID.
+     * @param instanceIndex The instance index of the characteristic if listed more than once
+     *                      for the service, otherwise zero.
+     * @param valueChangedCallback The callback given when subscribing.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void unsubscribeCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> unsubscribeCharacteristic" + characteristicUuid);
+
+        unsubscribeCharacteristic(getCharacteristic(serviceUuid, characteristicUuid, instanceIndex), valueChangedCallback, requestCallback);
+    }
+
+    /**
+     * @brief Removes a value changed callback from the listeners of the characteristic with the given handle.
+     *
+     * @param handle The characteristic handle, see getCharacteristicHandle().
+     * @param valueChangedCallback The callback given when subscribing.
+     * @param requestCallback The callback for notifying of the request result.
+     */
+    public void unsubscribeCharacteristic(final int handle, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        Log.v(TAG, "==> unsubscribeCharacteristic " + handle);
+
+        unsubscribeCharacteristic(getCharacteristic(handle), valueChangedCallback, requestCallback);
     }
 
     //! @}
@@ -672,41 +1480,168 @@ public final class Peripheral
      */
     private BluetoothGattService getService(final String serviceUuid)
     {
-        return _client.getService(UUID.fromString(serviceUuid));
+        return _client.getService(getUuid(serviceUuid));
     }
 
     /**
-     * @brief Gets the Android gatt characteristic object for the given characteristic UUID.
+     * @brief Gets the UUID object for the given string, parsed only once.
      */
-    private BluetoothGattCharacteristic getCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex)
+    private UUID getUuid(final String uuid)
     {
-        // Get the service
-        BluetoothGattService service = getService(serviceUuid);
-        if (service != null)
+        UUID result = _uuids.get(uuid);
+        if (result == null)
         {
-            // Get the list of characteristics
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            if (characteristics != null)
+            result = UUID.fromString(uuid);
+            if (_uuids.size() >= MAX_PARSED_UUIDS)
             {
-                // Look-up for the characteristic with the specified index
-                UUID uuid = UUID.fromString(characteristicUuid);
-                int counter = 0;
-                for (BluetoothGattCharacteristic charac : characteristics)
-                {
-                    if (charac.getUuid().equals(uuid))
-                    {
-                        if (counter == instanceIndex)
-                        {
-                            return charac;
-                        }
-                        else
-                        {
-                            ++counter;
-                        }
-                    }
-                }
+                // Unknown strings shouldn't grow the map forever
+                _uuids.clear();
             }
+            _uuids.put(uuid, result);
+        }
+        return result;
+    }
+
+    /**
+     * @brief Gets the Android gatt characteristic object for the given characteristic UUID.
+     */
+    private BluetoothGattCharacteristic getCharacteristic(final String serviceUuid, final String characteristicUuid, final int instanceIndex)
+    {
+        return getCharacteristic(getCharacteristicHandle(serviceUuid, characteristicUuid, instanceIndex));
+    }
+
+    /**
+     * @brief Gets the Android gatt characteristic object for the given handle.
+     */
+    private BluetoothGattCharacteristic getCharacteristic(final int handle)
+    {
+        CharacteristicIndex index = _client.getCharacteristicIndex();
+        return index == null ? null : index.getCharacteristic(handle);
+    }
+
+    private static int getCharacteristicProperties(final BluetoothGattCharacteristic characteristic)
+    {
+        return characteristic == null ? 0 : characteristic.getProperties();
+    }
+
+    private void readCharacteristic(final BluetoothGattCharacteristic characteristic, final ReadValueRequestCallback valueReadCallback)
+    {
+        if (characteristic == null)
+        {
+            // Let the BLE manager report the error
+            _client.readCharacteristic(null)
+                .with(valueReadCallback).fail(valueReadCallback).invalid(valueReadCallback)
+                .enqueue();
+        }
+        else
+        {
+            // Send the read request, or attach to the pending one
+            _readCoalescer.read(characteristic, valueReadCallback);
+        }
+    }
+
+    private void writeCharacteristic(final BluetoothGattCharacteristic characteristic, final byte[] data, boolean withoutResponse, @Nullable final String coalescingKey, @NonNull final RequestPriority priority, final RequestCallback requestCallback)
+    {
+        int writeType = withoutResponse
+            ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+            : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+
+        _readCoalescer.invalidate(characteristic);
+
+        // Queue the write request, it's sent once there is room in the window of in-flight writes
+        RequestCallback replaced = _writePacer.write(characteristic, data, writeType, coalescingKey, priority, requestCallback);
+        if (replaced != null)
+        {
+            replaced.onRequestFailed(_device, FailCallback.REASON_CANCELLED);
+        }
+    }
+
+    private void writeCharacteristicBulk(final BluetoothGattCharacteristic characteristic, final byte[] data, boolean withoutResponse, final BulkWriteProgressCallback progressCallback, final RequestCallback requestCallback)
+    {
+        int writeType = withoutResponse
+            ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+            : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+
+        _readCoalescer.invalidate(characteristic);
+
+        // Split the data in packets that fit the current MTU, an empty buffer is sent as one empty packet
+        final int packetSize = Math.max(1, _client.getMtu() - 3);
+        final int count = Math.max(1, (data.length + packetSize - 1) / packetSize);
+        final byte[][] packets = new byte[count][];
+        for (int i = 0; i < count; ++i)
+        {
+            final int offset = i * packetSize;
+            packets[i] = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + packetSize));
+        }
+
+        // Queue the packets with the bulk priority so other writes don't wait for the whole transfer
+        _writePacer.writeBulk(characteristic, packets, writeType, RequestPriority.BULK, progressCallback, requestCallback);
+    }
+
+    private void writeCharacteristicAndWaitForResponse(final BluetoothGattCharacteristic characteristic, final byte[] data, boolean withoutResponse, final BluetoothGattCharacteristic notifyCharacteristic, final int responseType, final long timeoutMs, final ReadValueRequestCallback responseCallback)
+    {
+        if (notifyCharacteristic == null)
+        {
+            responseCallback.onInvalidRequest();
+            return;
+        }
+
+        // Listen for the response before queuing the write so a response notified right away isn't missed
+        final ResponseWaiter waiter = new ResponseWaiter(notifyCharacteristic, responseType, responseCallback);
+        if (!_subscriptions.addResponseListener(notifyCharacteristic, waiter))
+        {
+            responseCallback.onRequestFailed(_device, FailCallback.REASON_NOT_ENABLED);
+            return;
+        }
+        _handler.postDelayed(waiter, timeoutMs);
+        writeCharacteristic(characteristic, data, withoutResponse, null, RequestPriority.NORMAL, waiter);
+    }
+
+    private void subscribeCharacteristic(final BluetoothGattCharacteristic characteristic, @Nullable final DataMerger merger, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        if (characteristic == null)
+        {
+            // Let the BLE manager report the error
+            _client.enableNotifications(null)
+                .done(requestCallback).fail(requestCallback).invalid(requestCallback)
+                .enqueue();
+        }
+        else
+        {
+            // Add the listener, notifications are turned on for the first one
+            _subscriptions.add(_device, characteristic, merger, valueChangedCallback, requestCallback);
+        }
+    }
+
+    private void unsubscribeCharacteristic(final BluetoothGattCharacteristic characteristic, final RequestCallback requestCallback)
+    {
+        if (characteristic == null)
+        {
+            _client.disableNotifications(null)
+                .done(requestCallback).fail(requestCallback).invalid(requestCallback)
+                .enqueue();
+        }
+        else
+        {
+            // Remove all the listeners and turn off notifications
+            _subscriptions.removeAll(characteristic, requestCallback);
+        }
+    }
+
+    private void unsubscribeCharacteristic(final BluetoothGattCharacteristic characteristic, final DataReceivedCallback valueChangedCallback, final RequestCallback requestCallback)
+    {
+        if (characteristic == null)
+        {
+            // Not connected, don't restore the listener on reconnection
+            _subscriptions.removeSuspended(valueChangedCallback);
+            _client.disableNotifications(null)
+                .done(requestCallback).fail(requestCallback).invalid(requestCallback)
+                .enqueue();
+        }
+        else
+        {
+            // Remove the listener, notifications are turned off with the last one
+            _subscriptions.remove(_device, characteristic, valueChangedCallback, requestCallback);
         }
-        return null;
     }
 }
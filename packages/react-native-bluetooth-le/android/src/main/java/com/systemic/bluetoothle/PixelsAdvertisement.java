@@ -0,0 +1,293 @@
+package com.systemic.bluetoothle;
+
+import java.util.List;
+import java.util.Map;
+
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * @brief Decoded advertisement data of a Pixels device (die, charger, MPC or bootloader).
+ *
+ * The advertisement layouts are the same as the ones decoded in JavaScript by the
+ * react-native-pixels-connect package. Multi-bytes values are little endian.
+ *
+ * Use decode() to get an instance from a scan result.
+ */
+public final class PixelsAdvertisement
+{
+    /**
+     * @brief The type of Pixels device that sent the advertisement.
+     */
+    public enum DeviceType
+    {
+        Die("die"), LegacyDie("legacyDie"), Charger("charger"), MPC("mpc"), Bootloader("bootloader");
+
+        private final String _name;
+
+        DeviceType(@NonNull final String name)
+        {
+            _name = name;
+        }
+
+        @NonNull
+        public String getName()
+        {
+            return _name;
+        }
+    }
+
+    private static final ParcelUuid DIE_SERVICE = ParcelUuid.fromString("a6b90001-7a5a-43f2-a962-350c8edc9b5b");
+    private static final ParcelUuid LEGACY_DIE_SERVICE = ParcelUuid.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final ParcelUuid CHARGER_SERVICE = ParcelUuid.fromString("a8b90001-8d5e-4411-bd7a-cb49359d1f05");
+    private static final ParcelUuid MPC_SERVICE = ParcelUuid.fromString("20700001-eb78-4002-80ca-388a6c7f4620");
+    private static final ParcelUuid DFU_SERVICE = ParcelUuid.fromString("0000fe59-0000-1000-8000-00805f9b34fb");
+
+    // Firmware date of dice advertising with the layout from before July 2022
+    private static final long LEGACY_FIRMWARE_TIME = 1656633600L; // 2022-07-01 UTC
+
+    private final DeviceType _type;
+    private long _pixelId;
+    private int _ledCount;
+    private int _colorway;
+    private int _dieType;
+    private int _rollState;
+    private int _faceIndex;
+    private int _batteryLevel;
+    private boolean _isCharging;
+    private long _firmwareTime;
+
+    private PixelsAdvertisement(@NonNull final DeviceType type)
+    {
+        _type = type;
+    }
+
+    /**
+     * @brief Decodes the advertisement data of the given scan result.
+     *
+     * @param scanResult The scan result to decode.
+     * @return The decoded data, or null if the advertisement is not from a Pixels device
+     *         or if its data is not valid.
+     */
+    @Nullable
+    public static PixelsAdvertisement decode(@NonNull final ScanResult scanResult)
+    {
+        ScanRecord scanRecord = scanResult.getScanRecord();
+        List<ParcelUuid> services = scanRecord != null ? scanRecord.getServiceUuids() : null;
+        if (services == null)
+        {
+            return null;
+        }
+
+        // Get the first manufacturer and service data
+        int companyId = 0;
+        byte[] manufData = null;
+        SparseArray<byte[]> allManufData = scanRecord.getManufacturerSpecificData();
+        if ((allManufData != null) && (allManufData.size() > 0))
+        {
+            companyId = allManufData.keyAt(0);
+            manufData = allManufData.valueAt(0);
+        }
+        byte[] servData = null;
+        Map<ParcelUuid, byte[]> allServData = scanRecord.getServiceData();
+        if ((allServData != null) && !allServData.isEmpty())
+        {
+            servData = allServData.values().iterator().next();
+        }
+
+        PixelsAdvertisement adv = null;
+        if (services.contains(DIE_SERVICE) || services.contains(LEGACY_DIE_SERVICE))
+        {
+            adv = decodeDie(services.contains(DIE_SERVICE), companyId, manufData, servData);
+        }
+        else if (services.contains(CHARGER_SERVICE))
+        {
+            adv = decodeCharger(manufData, servData);
+        }
+        else if (services.contains(MPC_SERVICE))
+        {
+            adv = decodeMPC(servData);
+        }
+        else if (services.contains(DFU_SERVICE))
+        {
+            // The Pixel id is only available from the device name
+            adv = new PixelsAdvertisement(DeviceType.Bootloader);
+        }
+        return adv;
+    }
+
+    @Nullable
+    private static PixelsAdvertisement decodeDie(final boolean customService, final int companyId, final byte[] manufData, final byte[] servData)
+    {
+        final boolean hasServiceData = (servData != null) && (servData.length >= 8);
+        final boolean isOldAdv = (servData == null) && (manufData != null) && (manufData.length == 7);
+        if (!(isOldAdv || hasServiceData) || (manufData == null) || (manufData.length < 5))
+        {
+            return null;
+        }
+
+        PixelsAdvertisement adv = new PixelsAdvertisement(customService ? DeviceType.Die : DeviceType.LegacyDie);
+        if (hasServiceData)
+        {
+            // Pixels share some information in the scan response packet
+            adv._pixelId = readU32(servData, 0);
+            adv._firmwareTime = readU32(servData, 4);
+
+            adv._ledCount = readU8(manufData, 0);
+            final int designAndColor = readU8(manufData, 1);
+            adv._colorway = designAndColor & 0xf;
+            adv._dieType = (designAndColor >> 4) & 0xf;
+            adv._rollState = readU8(manufData, 2);
+            adv._faceIndex = readU8(manufData, 3);
+            // MSB is battery charging
+            final int battery = readU8(manufData, 4);
+            adv._batteryLevel = battery & 0x7f;
+            adv._isCharging = (battery & 0x80) != 0;
+        }
+        else
+        {
+            // Advertised values from before July 2022
+            adv._ledCount = (companyId >> 8) & 0xff;
+            adv._pixelId = readU32(manufData, 0);
+            adv._rollState = readU8(manufData, 4);
+            adv._faceIndex = readU8(manufData, 5);
+            adv._batteryLevel = Math.round(readU8(manufData, 6) * 100 / 255f);
+            adv._firmwareTime = LEGACY_FIRMWARE_TIME;
+        }
+        return adv._pixelId != 0 ? adv : null;
+    }
+
+    @Nullable
+    private static PixelsAdvertisement decodeCharger(final byte[] manufData, final byte[] servData)
+    {
+        if ((manufData == null) || (servData == null) || (servData.length < 8))
+        {
+            return null;
+        }
+
+        PixelsAdvertisement adv = new PixelsAdvertisement(DeviceType.Charger);
+        adv._pixelId = readU32(servData, 0);
+        adv._firmwareTime = readU32(servData, 4);
+        adv._ledCount = 3;
+        // Manufacturer data is sometimes empty, MSB is battery charging
+        final int battery = manufData.length > 0 ? readU8(manufData, 0) : 0;
+        adv._batteryLevel = battery & 0x7f;
+        adv._isCharging = (battery & 0x80) != 0;
+        return adv._pixelId != 0 ? adv : null;
+    }
+
+    @Nullable
+    private static PixelsAdvertisement decodeMPC(final byte[] servData)
+    {
+        if ((servData == null) || (servData.length < 8))
+        {
+            return null;
+        }
+
+        PixelsAdvertisement adv = new PixelsAdvertisement(DeviceType.MPC);
+        adv._pixelId = readU32(servData, 0);
+        adv._firmwareTime = readU32(servData, 4);
+        adv._ledCount = 32;
+        return adv._pixelId != 0 ? adv : null;
+    }
+
+    private static int readU8(@NonNull final byte[] data, final int offset)
+    {
+        return data[offset] & 0xff;
+    }
+
+    private static long readU32(@NonNull final byte[] data, final int offset)
+    {
+        return (data[offset] & 0xffL)
+            | ((data[offset + 1] & 0xffL) << 8)
+            | ((data[offset + 2] & 0xffL) << 16)
+            | ((data[offset + 3] & 0xffL) << 24);
+    }
+
+    /**
+     * @brief Gets the type of Pixels device.
+     */
+    @NonNull
+    public DeviceType getDeviceType()
+    {
+        return _type;
+    }
+
+    /**
+     * @brief Gets the unique Pixel id, zero for a bootloader.
+     */
+    public long getPixelId()
+    {
+        return _pixelId;
+    }
+
+    /**
+     * @brief Gets the number of LEDs.
+     */
+    public int getLedCount()
+    {
+        return _ledCount;
+    }
+
+    /**
+     * @brief Gets the colorway value of a die (low nibble of the design byte).
+     */
+    public int getColorway()
+    {
+        return _colorway;
+    }
+
+    /**
+     * @brief Gets the die type value of a die (high nibble of the design byte).
+     */
+    public int getDieType()
+    {
+        return _dieType;
+    }
+
+    /**
+     * @brief Gets the roll state value of a die.
+     */
+    public int getRollState()
+    {
+        return _rollState;
+    }
+
+    /**
+     * @brief Gets the index of the face that is up for a die.
+     */
+    public int getFaceIndex()
+    {
+        return _faceIndex;
+    }
+
+    /**
+     * @brief Gets the battery level in percent.
+     */
+    public int getBatteryLevel()
+    {
+        return _batteryLevel;
+    }
+
+    /**
+     * @brief Indicates whether the battery is charging.
+     */
+    public boolean isCharging()
+    {
+        return _isCharging;
+    }
+
+    /**
+     * @brief Gets the firmware build date, in seconds since the Unix epoch.
+     */
+    public long getFirmwareTime()
+    {
+        return _firmwareTime;
+    }
+}
@@ -0,0 +1,157 @@
+package com.systemic.bluetoothle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * @brief Keeps track of the devices that are advertising and reports the ones
+ *        that stopped advertising for longer than a given timeout.
+ *
+ * Devices are stored in a timer wheel: the timeout is divided in a fixed number
+ * of slots and a device is placed in the current slot each time it is seen.
+ * Every tick the wheel moves to the next slot and the devices in that slot,
+ * which were last seen about one timeout ago, are reported lost.
+ * Both operations are done in constant time regardless of the number of devices.
+ *
+ * The wheel only ticks while there are tracked devices.
+ * This class is not thread safe, it must be used from the handler's thread.
+ */
+final class PresenceTracker
+{
+    /**
+     * @brief Interface for presence change callbacks.
+     */
+    interface LostCallback
+    {
+        void onDeviceLost(@NonNull BluetoothDevice device);
+    }
+
+    private static final int SLOTS_COUNT = 8;
+
+    private static final class Entry
+    {
+        final BluetoothDevice device;
+        int slot;
+
+        Entry(@NonNull final BluetoothDevice device, final int slot)
+        {
+            this.device = device;
+            this.slot = slot;
+        }
+    }
+
+    private final Handler _handler;
+    private final LostCallback _callback;
+    private final long _tickMs;
+    private final HashMap<Long, Entry> _entries = new HashMap<>();
+    private final ArrayList<HashSet<Long>> _slots = new ArrayList<>(SLOTS_COUNT);
+    private final Runnable _tickRunnable = this::tick;
+    private int _currentSlot;
+    private boolean _ticking;
+
+    PresenceTracker(@NonNull final Handler handler, final int timeoutMs, @NonNull final LostCallback callback)
+    {
+        _handler = handler;
+        _callback = callback;
+        _tickMs = Math.max(1, timeoutMs / SLOTS_COUNT);
+        for (int i = 0; i < SLOTS_COUNT; ++i)
+        {
+            _slots.add(new HashSet<>());
+        }
+    }
+
+    /**
+     * @brief Records that the device was just seen.
+     *
+     * @return Whether the device was not tracked before.
+     */
+    boolean touch(final long address, @NonNull final BluetoothDevice device)
+    {
+        Entry entry = _entries.get(address);
+        if (entry == null)
+        {
+            _entries.put(address, new Entry(device, _currentSlot));
+            _slots.get(_currentSlot).add(address);
+            if (!_ticking)
+            {
+                _ticking = true;
+                _handler.postDelayed(_tickRunnable, _tickMs);
+            }
+            return true;
+        }
+        else if (entry.slot != _currentSlot)
+        {
+            _slots.get(entry.slot).remove(address);
+            _slots.get(_currentSlot).add(address);
+            entry.slot = _currentSlot;
+        }
+        return false;
+    }
+
+    /**
+     * @brief Stops tracking the device.
+     *
+     * @return Whether the device was tracked.
+     */
+    boolean remove(final long address)
+    {
+        Entry entry = _entries.remove(address);
+        if (entry != null)
+        {
+            _slots.get(entry.slot).remove(address);
+        }
+        return entry != null;
+    }
+
+    /**
+     * @brief Stops tracking all devices, without reporting them.
+     */
+    void clear()
+    {
+        _handler.removeCallbacks(_tickRunnable);
+        _ticking = false;
+        _entries.clear();
+        for (HashSet<Long> slot : _slots)
+        {
+            slot.clear();
+        }
+    }
+
+    private void tick()
+    {
+        // Move to the next slot, its devices haven't been seen since a full turn of the wheel
+        _currentSlot = (_currentSlot + 1) % SLOTS_COUNT;
+        HashSet<Long> expired = _slots.get(_currentSlot);
+        ArrayList<BluetoothDevice> lost = null;
+        if (!expired.isEmpty())
+        {
+            lost = new ArrayList<>(expired.size());
+            for (Long address : expired)
+            {
+                lost.add(_entries.remove(address).device);
+            }
+            expired.clear();
+        }
+
+        // Keep ticking only if there are devices left
+        _ticking = !_entries.isEmpty();
+        if (_ticking)
+        {
+            _handler.postDelayed(_tickRunnable, _tickMs);
+        }
+
+        if (lost != null)
+        {
+            for (BluetoothDevice device : lost)
+            {
+                _callback.onDeviceLost(device);
+            }
+        }
+    }
+}
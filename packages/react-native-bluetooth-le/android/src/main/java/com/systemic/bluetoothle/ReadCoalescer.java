@@ -0,0 +1,195 @@
+package com.systemic.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import no.nordicsemi.android.ble.data.Data;
+
+/**
+ * @brief Coalesces the concurrent reads of a characteristic into a single GATT read.
+ *
+ * While a read of a characteristic is pending, later reads of the same characteristic
+ * wait for its result rather than queuing another request.
+ * Optionally, read values are cached for a short duration so back-to-back reads
+ * are served without a GATT request.
+ *
+ * A write to a characteristic drops its cached value, and later reads don't
+ * attach to a read queued before the write. A value read before the write
+ * of its characteristic isn't cached, writes of other characteristics don't
+ * affect it. The reader is expected to queue a read after the writes issued
+ * before it.
+ *
+ * This class is thread safe.
+ */
+final class ReadCoalescer
+{
+    /**
+     * @brief Interface for queuing a read with the BLE manager.
+     */
+    interface Reader
+    {
+        void read(BluetoothGattCharacteristic characteristic, Peripheral.ReadValueRequestCallback callback);
+    }
+
+    private static final class CachedValue
+    {
+        final BluetoothDevice device;
+        final Data data;
+        final long time; // Milliseconds since boot
+
+        CachedValue(final BluetoothDevice device, final Data data, final long time)
+        {
+            this.device = device;
+            this.data = data;
+            this.time = time;
+        }
+    }
+
+    private final Reader _reader;
+    // Callbacks waiting on the pending read of each characteristic
+    private final HashMap<BluetoothGattCharacteristic, ArrayList<Peripheral.ReadValueRequestCallback>> _pending = new HashMap<>();
+    private final HashMap<BluetoothGattCharacteristic, CachedValue> _cache = new HashMap<>();
+    private long _cacheDurationMs;
+    // Generation of each characteristic, replaced on invalidation so a value read before a write isn't cached
+    private final HashMap<BluetoothGattCharacteristic, Object> _generations = new HashMap<>();
+
+    ReadCoalescer(@NonNull final Reader reader)
+    {
+        _reader = reader;
+    }
+
+    /**
+     * @brief Sets for how long a read value is returned without reading the characteristic again,
+     *        zero to disable caching.
+     */
+    synchronized void setCacheDuration(final long durationMs)
+    {
+        _cacheDurationMs = Math.max(0, durationMs);
+        if (_cacheDurationMs == 0)
+        {
+            _cache.clear();
+        }
+    }
+
+    /**
+     * @brief Reads the characteristic, or attaches to its pending read.
+     */
+    void read(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final Peripheral.ReadValueRequestCallback callback)
+    {
+        CachedValue cached = null;
+        ArrayList<Peripheral.ReadValueRequestCallback> callbacks = null;
+        Object generation;
+        synchronized (this)
+        {
+            generation = _generations.get(characteristic);
+            if (generation == null)
+            {
+                generation = new Object();
+                _generations.put(characteristic, generation);
+            }
+            CachedValue value = _cache.get(characteristic);
+            if ((value != null) && (SystemClock.elapsedRealtime() - value.time < _cacheDurationMs))
+            {
+                cached = value;
+            }
+            else
+            {
+                ArrayList<Peripheral.ReadValueRequestCallback> pending = _pending.get(characteristic);
+                if (pending != null)
+                {
+                    pending.add(callback);
+                }
+                else
+                {
+                    callbacks = new ArrayList<>();
+                    callbacks.add(callback);
+                    _pending.put(characteristic, callbacks);
+                }
+            }
+        }
+        if (cached != null)
+        {
+            callback.onDataReceived(cached.device, cached.data);
+        }
+        else if (callbacks != null)
+        {
+            send(characteristic, callbacks, generation);
+        }
+    }
+
+    /**
+     * @brief Drops the cached value of the characteristic, to be called when it is written.
+     */
+    synchronized void invalidate(final BluetoothGattCharacteristic characteristic)
+    {
+        _generations.remove(characteristic);
+        _cache.remove(characteristic);
+        _pending.remove(characteristic);
+    }
+
+    /**
+     * @brief Drops all cached values, to be called when the services are invalidated.
+     */
+    synchronized void clear()
+    {
+        _generations.clear();
+        _cache.clear();
+        _pending.clear();
+    }
+
+    private void send(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final ArrayList<Peripheral.ReadValueRequestCallback> callbacks, @NonNull final Object generation)
+    {
+        _reader.read(characteristic, new Peripheral.ReadValueRequestCallback()
+        {
+            @Override
+            public void onDataReceived(@NonNull final BluetoothDevice device, @NonNull final Data data)
+            {
+                synchronized (ReadCoalescer.this)
+                {
+                    if ((_cacheDurationMs > 0) && (_generations.get(characteristic) == generation))
+                    {
+                        _cache.put(characteristic, new CachedValue(device, data, SystemClock.elapsedRealtime()));
+                    }
+                }
+                for (Peripheral.ReadValueRequestCallback cb : complete(characteristic, callbacks))
+                {
+                    cb.onDataReceived(device, data);
+                }
+            }
+
+            @Override
+            public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+            {
+                for (Peripheral.ReadValueRequestCallback cb : complete(characteristic, callbacks))
+                {
+                    cb.onRequestFailed(device, status);
+                }
+            }
+
+            @Override
+            public void onInvalidRequest()
+            {
+                for (Peripheral.ReadValueRequestCallback cb : complete(characteristic, callbacks))
+                {
+                    cb.onInvalidRequest();
+                }
+            }
+        });
+    }
+
+    // Stops attaching callbacks to the read and returns a copy of its callbacks
+    private synchronized ArrayList<Peripheral.ReadValueRequestCallback> complete(final BluetoothGattCharacteristic characteristic, final ArrayList<Peripheral.ReadValueRequestCallback> callbacks)
+    {
+        if (_pending.get(characteristic) == callbacks)
+        {
+            _pending.remove(characteristic);
+        }
+        return new ArrayList<>(callbacks);
+    }
+}
@@ -0,0 +1,17 @@
+package com.systemic.bluetoothle;
+
+/**
+ * @brief Priority classes of the characteristic writes of a peripheral.
+ *
+ * Waiting writes are sent in order of priority, with lower priority writes
+ * being regularly interleaved so they are not starved.
+ */
+public enum RequestPriority
+{
+    /** @brief Commands that should be sent at the next opportunity, such as user actions. */
+    INTERACTIVE,
+    /** @brief The default priority. */
+    NORMAL,
+    /** @brief Large transfers, they never take the last slot of the window of in-flight writes. */
+    BULK,
+}
@@ -0,0 +1,58 @@
+package com.systemic.bluetoothle;
+
+import androidx.annotation.NonNull;
+
+/**
+ * @brief Snapshot of the writes queued by a peripheral for each priority class.
+ *
+ * The wait time of a write is the time from it being queued until it's sent
+ * to the BLE manager, see RequestPriority.
+ */
+public final class RequestQueueStatistics
+{
+    private final int[] _depth;
+    private final long[] _sentCount;
+    private final long[] _totalWaitTime;
+    private final long[] _maxWaitTime;
+
+    RequestQueueStatistics(@NonNull final int[] depth, @NonNull final long[] sentCount, @NonNull final long[] totalWaitTime, @NonNull final long[] maxWaitTime)
+    {
+        _depth = depth;
+        _sentCount = sentCount;
+        _totalWaitTime = totalWaitTime;
+        _maxWaitTime = maxWaitTime;
+    }
+
+    /**
+     * @brief Gets the number of writes waiting with the given priority.
+     */
+    public int getDepth(@NonNull final RequestPriority priority)
+    {
+        return _depth[priority.ordinal()];
+    }
+
+    /**
+     * @brief Gets the number of writes sent with the given priority.
+     */
+    public long getSentCount(@NonNull final RequestPriority priority)
+    {
+        return _sentCount[priority.ordinal()];
+    }
+
+    /**
+     * @brief Gets the average wait time of the writes sent with the given priority, in milliseconds.
+     */
+    public float getAverageWaitTime(@NonNull final RequestPriority priority)
+    {
+        final long count = getSentCount(priority);
+        return count > 0 ? (float)_totalWaitTime[priority.ordinal()] / count : 0;
+    }
+
+    /**
+     * @brief Gets the longest wait time of the writes sent with the given priority, in milliseconds.
+     */
+    public long getMaxWaitTime(@NonNull final RequestPriority priority)
+    {
+        return _maxWaitTime[priority.ordinal()];
+    }
+}
@@ -0,0 +1,125 @@
+package com.systemic.bluetoothle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * @brief Monitors the scan activity to adapt the scan mode.
+ *
+ * There is activity when a new device is discovered or when a device advertises
+ * a payload different from its previous one. The time spent in each scan mode
+ * and the activity observed in each mode are also recorded.
+ *
+ * This class is thread safe.
+ */
+final class ScanActivityMonitor
+{
+    // Maximum number of devices for which the last payload is remembered
+    private static final int MAX_DEVICES = 1024;
+
+    // Last payload hash per device address, in order of access
+    private final LinkedHashMap<Long, Integer> _payloadHashes = new LinkedHashMap<Long, Integer>(64, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Integer> eldest)
+        {
+            return size() > MAX_DEVICES;
+        }
+    };
+    private final long[] _timeInMode = new long[ScanModeStatistics.MODES_COUNT];
+    private final int[] _newDevices = new int[ScanModeStatistics.MODES_COUNT];
+    private final int[] _changes = new int[ScanModeStatistics.MODES_COUNT];
+    private int _scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private long _modeStartTime;
+    private long _lastActivityTime;
+
+    /**
+     * @brief Records an advertisement.
+     *
+     * @param now The current time in milliseconds, from SystemClock.elapsedRealtime().
+     * @return Whether the advertisement is a new activity.
+     */
+    synchronized boolean onAdvertisement(final long address, final int payloadHash, final long now)
+    {
+        Integer previousHash = _payloadHashes.put(address, payloadHash);
+        if (previousHash == null)
+        {
+            ++_newDevices[_scanMode];
+        }
+        else if (previousHash != payloadHash)
+        {
+            ++_changes[_scanMode];
+        }
+        else
+        {
+            return false;
+        }
+        _lastActivityTime = now;
+        return true;
+    }
+
+    /**
+     * @brief Records that the scan was (re)started by user code, which counts as activity.
+     */
+    synchronized void onScanRequested(final long now)
+    {
+        _lastActivityTime = now;
+    }
+
+    /**
+     * @brief Gets the time elapsed since the last activity, in milliseconds.
+     */
+    synchronized long getIdleTime(final long now)
+    {
+        return now - _lastActivityTime;
+    }
+
+    synchronized int getScanMode()
+    {
+        return _scanMode;
+    }
+
+    /**
+     * @brief Gets the time elapsed since the scan mode was last changed, in milliseconds.
+     */
+    synchronized long getTimeInScanMode(final long now)
+    {
+        return now - _modeStartTime;
+    }
+
+    synchronized void setScanMode(final int scanMode, final long now)
+    {
+        _timeInMode[_scanMode] += now - _modeStartTime;
+        _scanMode = scanMode;
+        _modeStartTime = now;
+    }
+
+    @NonNull
+    synchronized ScanModeStatistics getStatistics(final long now)
+    {
+        long[] timeInMode = _timeInMode.clone();
+        timeInMode[_scanMode] += now - _modeStartTime;
+        return new ScanModeStatistics(_scanMode, timeInMode, _newDevices.clone(), _changes.clone());
+    }
+
+    /**
+     * @brief Forgets about the devices and clears the statistics.
+     */
+    synchronized void reset(final long now)
+    {
+        _payloadHashes.clear();
+        for (int i = 0; i < ScanModeStatistics.MODES_COUNT; ++i)
+        {
+            _timeInMode[i] = 0;
+            _newDevices[i] = 0;
+            _changes[i] = 0;
+        }
+        _scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+        _modeStartTime = now;
+        _lastActivityTime = now;
+    }
+}
@@ -0,0 +1,171 @@
+package com.systemic.bluetoothle;
+
+import android.os.ParcelUuid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * @brief Describes which advertisements to report during a Bluetooth Low Energy (BLE) scan.
+ *
+ * An advertisement matches the filter if it matches all the criteria that were set.
+ * Except for the name prefix, the criteria are given to the Bluetooth controller
+ * which may discard non matching advertisements without waking up the app.
+ * The name prefix is checked once the advertisement is received by the app.
+ *
+ * When bytes must match, a mask may be given to only compare some of the bits:
+ * a bit set to 1 in the mask means the corresponding bit must match the data.
+ */
+public final class ScanFilterSpec
+{
+    private ParcelUuid _serviceUuid;
+    private int _manufacturerId = -1;
+    private byte[] _manufacturerData;
+    private byte[] _manufacturerDataMask;
+    private ParcelUuid _serviceDataUuid;
+    private byte[] _serviceData;
+    private byte[] _serviceDataMask;
+    private String _namePrefix;
+
+    /**
+     * @brief Sets the service that the advertisement must include.
+     *
+     * @param serviceUuid The service UUID, null to accept any service.
+     * @return This instance.
+     */
+    public ScanFilterSpec setServiceUuid(@Nullable final String serviceUuid)
+    {
+        _serviceUuid = serviceUuid != null ? parseUuid(serviceUuid) : null;
+        return this;
+    }
+
+    /**
+     * @brief Sets the manufacturer data that the advertisement must include.
+     *
+     * @param manufacturerId The company identifier of the manufacturer data.
+     * @param data The first bytes of the manufacturer data to match, may be null
+     *             to only check the company identifier.
+     * @param mask The mask for the data bytes, may be null to match all the bits.
+     *             Must be the same length as the data.
+     * @return This instance.
+     */
+    public ScanFilterSpec setManufacturerData(final int manufacturerId, @Nullable final byte[] data, @Nullable final byte[] mask)
+    {
+        if ((manufacturerId < 0) || (manufacturerId > 0xffff))
+        {
+            throw new IllegalArgumentException("manufacturerId must be a 16 bits unsigned value");
+        }
+        checkMask(data, mask);
+        _manufacturerId = manufacturerId;
+        _manufacturerData = data != null ? data : new byte[0];
+        _manufacturerDataMask = mask;
+        return this;
+    }
+
+    /**
+     * @brief Sets the service data that the advertisement must include.
+     *
+     * @param serviceUuid The UUID of the service data.
+     * @param data The first bytes of the service data to match, may be null
+     *             to only check the service data UUID.
+     * @param mask The mask for the data bytes, may be null to match all the bits.
+     *             Must be the same length as the data.
+     * @return This instance.
+     */
+    public ScanFilterSpec setServiceData(@NonNull final String serviceUuid, @Nullable final byte[] data, @Nullable final byte[] mask)
+    {
+        checkMask(data, mask);
+        _serviceDataUuid = parseUuid(serviceUuid);
+        _serviceData = data != null ? data : new byte[0];
+        _serviceDataMask = mask;
+        return this;
+    }
+
+    /**
+     * @brief Sets the text that the advertised device name must start with.
+     *
+     * @param namePrefix The name prefix, null or empty to accept any name.
+     * @return This instance.
+     */
+    public ScanFilterSpec setNamePrefix(@Nullable final String namePrefix)
+    {
+        _namePrefix = (namePrefix != null) && (namePrefix.length() > 0) ? namePrefix : null;
+        return this;
+    }
+
+    /**
+     * @brief Indicates whether a name prefix was set.
+     */
+    public boolean hasNamePrefix()
+    {
+        return _namePrefix != null;
+    }
+
+    /**
+     * @brief Builds the filter to be given to the Bluetooth controller.
+     *
+     * The name prefix can't be checked by the controller and is not included.
+     */
+    @NonNull
+    ScanFilter toScanFilter()
+    {
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (_serviceUuid != null)
+        {
+            builder.setServiceUuid(_serviceUuid);
+        }
+        if (_manufacturerId >= 0)
+        {
+            builder.setManufacturerData(_manufacturerId, _manufacturerData, _manufacturerDataMask);
+        }
+        if (_serviceDataUuid != null)
+        {
+            builder.setServiceData(_serviceDataUuid, _serviceData, _serviceDataMask);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @brief Checks that the scan result matches the name prefix.
+     *
+     * The other criteria are checked by the given scan filter, as returned by toScanFilter().
+     */
+    boolean matches(@NonNull final ScanFilter scanFilter, @NonNull final ScanResult scanResult)
+    {
+        if (!scanFilter.matches(scanResult))
+        {
+            return false;
+        }
+        if (_namePrefix != null)
+        {
+            ScanRecord scanRecord = scanResult.getScanRecord();
+            String name = scanRecord != null ? scanRecord.getDeviceName() : null;
+            return (name != null) && name.startsWith(_namePrefix);
+        }
+        return true;
+    }
+
+    private static ParcelUuid parseUuid(@NonNull final String uuid)
+    {
+        try
+        {
+            return ParcelUuid.fromString(uuid);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid UUID: " + uuid);
+        }
+    }
+
+    private static void checkMask(@Nullable final byte[] data, @Nullable final byte[] mask)
+    {
+        if ((mask != null) && ((data == null) || (data.length != mask.length)))
+        {
+            throw new IllegalArgumentException("mask must have the same length as data");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.systemic.bluetoothle;
+
+import androidx.annotation.NonNull;
+
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * @brief Snapshot of the time spent by an adaptive scan in each scan mode
+ *        and of the activity observed in those modes.
+ *
+ * Scan modes are the ScanSettings constants SCAN_MODE_LOW_POWER,
+ * SCAN_MODE_BALANCED and SCAN_MODE_LOW_LATENCY.
+ * The activity is the number of newly discovered devices and the number
+ * of advertisements with a payload different from the device's previous one.
+ */
+public final class ScanModeStatistics
+{
+    // Indexed by scan mode
+    static final int MODES_COUNT = 3;
+
+    private final int _scanMode;
+    private final long[] _timeInMode;
+    private final int[] _newDevices;
+    private final int[] _changes;
+
+    ScanModeStatistics(final int scanMode, @NonNull final long[] timeInMode, @NonNull final int[] newDevices, @NonNull final int[] changes)
+    {
+        _scanMode = scanMode;
+        _timeInMode = timeInMode;
+        _newDevices = newDevices;
+        _changes = changes;
+    }
+
+    /**
+     * @brief Gets the current scan mode.
+     */
+    public int getScanMode()
+    {
+        return _scanMode;
+    }
+
+    /**
+     * @brief Gets the time spent in the given scan mode, in milliseconds.
+     */
+    public long getTimeInMode(final int scanMode)
+    {
+        return isValid(scanMode) ? _timeInMode[scanMode] : 0;
+    }
+
+    /**
+     * @brief Gets the number of devices discovered in the given scan mode.
+     */
+    public int getNewDevicesCount(final int scanMode)
+    {
+        return isValid(scanMode) ? _newDevices[scanMode] : 0;
+    }
+
+    /**
+     * @brief Gets the number of advertisement payload changes observed in the given scan mode.
+     */
+    public int getChangesCount(final int scanMode)
+    {
+        return isValid(scanMode) ? _changes[scanMode] : 0;
+    }
+
+    /**
+     * @brief Gets the number of new devices and payload changes per minute in the given scan mode.
+     */
+    public float getDiscoveryRate(final int scanMode)
+    {
+        final long time = getTimeInMode(scanMode);
+        return time > 0 ? (getNewDevicesCount(scanMode) + getChangesCount(scanMode)) * 60000f / time : 0;
+    }
+
+    /**
+     * @brief Gets a name for the given scan mode.
+     */
+    @NonNull
+    public static String getScanModeName(final int scanMode)
+    {
+        switch (scanMode)
+        {
+            case ScanSettings.SCAN_MODE_LOW_POWER:
+                return "lowPower";
+            case ScanSettings.SCAN_MODE_BALANCED:
+                return "balanced";
+            case ScanSettings.SCAN_MODE_LOW_LATENCY:
+                return "lowLatency";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static boolean isValid(final int scanMode)
+    {
+        return (scanMode >= 0) && (scanMode < MODES_COUNT);
+    }
+}
@@ -0,0 +1,346 @@
+package com.systemic.bluetoothle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * @brief Optional settings for a Bluetooth Low Energy (BLE) scan started with the Scanner class.
+ *
+ * The default values reproduce the behavior of a scan started without options:
+ * each advertisement packet is immediately notified.
+ */
+public final class ScanOptions
+{
+    private int _coalescingIntervalMs;
+    private long _reportDelayMs;
+    private boolean _filterUnchanged;
+    private int _rssiThreshold = 5;
+    private int _heartbeatIntervalMs = 2000;
+    private int _presenceTimeoutMs;
+    private boolean _presenceOnly;
+    private List<ScanFilterSpec> _filters = Collections.emptyList();
+    private boolean _adaptiveScanMode;
+    private int _balancedModeDelayMs = 10000;
+    private int _lowPowerModeDelayMs = 60000;
+
+    /**
+     * @brief Gets the minimum time interval between two notifications for the same device.
+     *
+     * @return The interval in milliseconds, zero when coalescing is disabled.
+     */
+    public int getCoalescingInterval()
+    {
+        return _coalescingIntervalMs;
+    }
+
+    /**
+     * @brief Sets the minimum time interval between two notifications for the same device.
+     *
+     * When greater than zero, only the latest advertisement of each device is kept
+     * and the devices that advertised since the last notification are reported
+     * together once per interval.
+     *
+     * @param intervalMs The interval in milliseconds, zero to notify each advertisement packet.
+     * @return This instance.
+     */
+    public ScanOptions setCoalescingInterval(final int intervalMs)
+    {
+        if (intervalMs < 0)
+        {
+            throw new IllegalArgumentException("intervalMs must be positive or zero");
+        }
+        _coalescingIntervalMs = intervalMs;
+        return this;
+    }
+
+    /**
+     * @brief Gets the delay for batching scan results in the Bluetooth controller.
+     *
+     * @return The delay in milliseconds, zero when results are reported immediately.
+     */
+    public long getReportDelay()
+    {
+        return _reportDelayMs;
+    }
+
+    /**
+     * @brief Sets the delay for batching scan results in the Bluetooth controller.
+     *
+     * When greater than zero and if the controller supports it, scan results are queued
+     * by the controller and reported together after the delay, see
+     * ScannerCallback.onBatchScanResults().
+     *
+     * @param delayMs The delay in milliseconds, zero to report results immediately.
+     * @return This instance.
+     */
+    public ScanOptions setReportDelay(final long delayMs)
+    {
+        if (delayMs < 0)
+        {
+            throw new IllegalArgumentException("delayMs must be positive or zero");
+        }
+        _reportDelayMs = delayMs;
+        return this;
+    }
+
+    /**
+     * @brief Indicates whether unchanged advertisements are dropped.
+     *
+     * @return Whether unchanged advertisements are dropped.
+     */
+    public boolean getFilterUnchanged()
+    {
+        return _filterUnchanged;
+    }
+
+    /**
+     * @brief Sets whether to drop advertisements that didn't change since the last
+     *        notification for the same device.
+     *
+     * An advertisement is notified if its payload is different from the last notified one,
+     * if the RSSI moved by more than the RSSI threshold, or if the last notification
+     * is older than the heartbeat interval.
+     *
+     * @param filterUnchanged Whether to drop unchanged advertisements.
+     * @return This instance.
+     */
+    public ScanOptions setFilterUnchanged(final boolean filterUnchanged)
+    {
+        _filterUnchanged = filterUnchanged;
+        return this;
+    }
+
+    /**
+     * @brief Gets the RSSI variation above which an unchanged advertisement is notified.
+     *
+     * @return The RSSI threshold in dBm.
+     */
+    public int getRssiThreshold()
+    {
+        return _rssiThreshold;
+    }
+
+    /**
+     * @brief Sets the RSSI variation above which an unchanged advertisement is notified.
+     *
+     * Only used when dropping unchanged advertisements, see setFilterUnchanged().
+     *
+     * @param threshold The RSSI threshold in dBm, defaults to 5.
+     * @return This instance.
+     */
+    public ScanOptions setRssiThreshold(final int threshold)
+    {
+        if (threshold < 0)
+        {
+            throw new IllegalArgumentException("threshold must be positive or zero");
+        }
+        _rssiThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * @brief Gets the maximum time interval without notifying a device that keeps advertising.
+     *
+     * @return The interval in milliseconds.
+     */
+    public int getHeartbeatInterval()
+    {
+        return _heartbeatIntervalMs;
+    }
+
+    /**
+     * @brief Sets the maximum time interval without notifying a device that keeps advertising.
+     *
+     * Only used when dropping unchanged advertisements, see setFilterUnchanged().
+     *
+     * @param intervalMs The interval in milliseconds, defaults to 2 seconds.
+     * @return This instance.
+     */
+    public ScanOptions setHeartbeatInterval(final int intervalMs)
+    {
+        if (intervalMs <= 0)
+        {
+            throw new IllegalArgumentException("intervalMs must be strictly positive");
+        }
+        _heartbeatIntervalMs = intervalMs;
+        return this;
+    }
+
+    /**
+     * @brief Gets the duration after which a device that stopped advertising is reported lost.
+     *
+     * @return The timeout in milliseconds, zero when presence tracking is disabled.
+     */
+    public int getPresenceTimeout()
+    {
+        return _presenceTimeoutMs;
+    }
+
+    /**
+     * @brief Sets the duration after which a device that stopped advertising is reported lost.
+     *
+     * When greater than zero, devices are reported with ScannerCallback.onDeviceFound()
+     * on their first advertisement and with ScannerCallback.onDeviceLost() once they
+     * haven't advertised for the given duration.
+     *
+     * @param timeoutMs The timeout in milliseconds, zero to disable presence tracking.
+     * @return This instance.
+     */
+    public ScanOptions setPresenceTimeout(final int timeoutMs)
+    {
+        if (timeoutMs < 0)
+        {
+            throw new IllegalArgumentException("timeoutMs must be positive or zero");
+        }
+        _presenceTimeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * @brief Indicates whether only presence changes are notified.
+     *
+     * @return Whether only presence changes are notified.
+     */
+    public boolean getPresenceOnly()
+    {
+        return _presenceOnly;
+    }
+
+    /**
+     * @brief Sets whether only presence changes are notified, rather than each advertisement.
+     *
+     * Only used with presence tracking, see setPresenceTimeout().
+     * When the scan has filters and the Bluetooth controller supports offloaded filtering,
+     * presence is tracked by the controller (in which case it decides of the timeout).
+     *
+     * @param presenceOnly Whether to only notify presence changes.
+     * @return This instance.
+     */
+    public ScanOptions setPresenceOnly(final boolean presenceOnly)
+    {
+        _presenceOnly = presenceOnly;
+        return this;
+    }
+
+    /**
+     * @brief Gets the filters for the advertisements to report.
+     *
+     * @return The list of filters, empty when filtering only by services.
+     */
+    @NonNull
+    public List<ScanFilterSpec> getFilters()
+    {
+        return _filters;
+    }
+
+    /**
+     * @brief Sets the filters for the advertisements to report.
+     *
+     * When not empty, the filters replace the ones built from the list of services
+     * given to Scanner.startScan(). An advertisement is reported if it matches
+     * at least one of the filters.
+     *
+     * @param filters The list of filters, may be null.
+     * @return This instance.
+     */
+    public ScanOptions setFilters(@Nullable final List<ScanFilterSpec> filters)
+    {
+        _filters = filters != null ? new ArrayList<>(filters) : Collections.emptyList();
+        return this;
+    }
+
+    /**
+     * @brief Indicates whether the scan mode adapts to the scan activity.
+     *
+     * @return Whether the scan mode is adaptive.
+     */
+    public boolean getAdaptiveScanMode()
+    {
+        return _adaptiveScanMode;
+    }
+
+    /**
+     * @brief Sets whether the scan mode adapts to the scan activity, to save battery on long scans.
+     *
+     * The scan starts in low latency mode and steps down to the balanced and then
+     * to the low power mode when no new device is discovered and no advertisement
+     * payload changes for the configured durations. It steps back up to low latency
+     * on the next activity. Changes of scan mode are notified with
+     * ScannerCallback.onScanModeChanged().
+     *
+     * Each change of scan mode restarts the scan, which counts toward Android's limit
+     * of scan starts. So the scan stays at least a few seconds in a mode, and only
+     * steps down when there are enough scan starts left to step back up right away.
+     *
+     * When several scan sessions are running, the scan mode only adapts if all
+     * the sessions have an adaptive scan mode.
+     *
+     * @param adaptiveScanMode Whether the scan mode is adaptive.
+     * @return This instance.
+     */
+    public ScanOptions setAdaptiveScanMode(final boolean adaptiveScanMode)
+    {
+        _adaptiveScanMode = adaptiveScanMode;
+        return this;
+    }
+
+    /**
+     * @brief Gets the duration without activity after which an adaptive scan
+     *        switches to the balanced mode.
+     *
+     * @return The duration in milliseconds.
+     */
+    public int getBalancedModeDelay()
+    {
+        return _balancedModeDelayMs;
+    }
+
+    /**
+     * @brief Sets the duration without activity after which an adaptive scan
+     *        switches to the balanced mode.
+     *
+     * @param delayMs The duration in milliseconds, defaults to 10 seconds.
+     * @return This instance.
+     */
+    public ScanOptions setBalancedModeDelay(final int delayMs)
+    {
+        if (delayMs <= 0)
+        {
+            throw new IllegalArgumentException("delayMs must be strictly positive");
+        }
+        _balancedModeDelayMs = delayMs;
+        return this;
+    }
+
+    /**
+     * @brief Gets the duration without activity after which an adaptive scan
+     *        switches to the low power mode.
+     *
+     * @return The duration in milliseconds.
+     */
+    public int getLowPowerModeDelay()
+    {
+        return _lowPowerModeDelayMs;
+    }
+
+    /**
+     * @brief Sets the duration without activity after which an adaptive scan
+     *        switches to the low power mode.
+     *
+     * @param delayMs The duration in milliseconds, defaults to 60 seconds.
+     * @return This instance.
+     */
+    public ScanOptions setLowPowerModeDelay(final int delayMs)
+    {
+        if (delayMs <= 0)
+        {
+            throw new IllegalArgumentException("delayMs must be strictly positive");
+        }
+        _lowPowerModeDelayMs = delayMs;
+        return this;
+    }
+}
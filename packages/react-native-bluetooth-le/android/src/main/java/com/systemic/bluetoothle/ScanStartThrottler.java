@@ -0,0 +1,85 @@
+package com.systemic.bluetoothle;
+
+import java.util.Arrays;
+
+/**
+ * @brief Keeps track of the recent scan starts to stay under Android's limit.
+ *
+ * Android silently ignores the scans of an app that starts more than 5 scans
+ * over the last 30 seconds. This class remembers the time of the last starts
+ * so a new start may be delayed until it is allowed again.
+ *
+ * This class is not thread safe.
+ */
+final class ScanStartThrottler
+{
+    // Android's limit is 5 starts over the last 30 seconds, we add a small margin
+    static final int MAX_STARTS = 5;
+    static final long WINDOW_MS = 30000 + 500;
+
+    // Circular buffer with the time of the last starts, the oldest one is at _next
+    private final long[] _startTimes = new long[MAX_STARTS];
+    private int _next;
+
+    ScanStartThrottler()
+    {
+        Arrays.fill(_startTimes, -WINDOW_MS);
+    }
+
+    /**
+     * @brief Gets the delay before a scan may be started.
+     *
+     * @param now The current time in milliseconds, from SystemClock.elapsedRealtime().
+     * @return The delay in milliseconds, zero if a scan may be started right away.
+     */
+    long getStartDelay(final long now)
+    {
+        return getStartDelay(now, 1);
+    }
+
+    /**
+     * @brief Gets the delay before the given number of scans may be started in a row.
+     *
+     * @param now The current time in milliseconds, from SystemClock.elapsedRealtime().
+     * @param startsCount The number of scan starts, between 1 and MAX_STARTS.
+     * @return The delay in milliseconds, zero if the scans may be started right away.
+     */
+    long getStartDelay(final long now, final int startsCount)
+    {
+        if ((startsCount < 1) || (startsCount > MAX_STARTS))
+        {
+            throw new IllegalArgumentException("startsCount must be between 1 and " + MAX_STARTS);
+        }
+        // The oldest starts must be out of the time window
+        return Math.max(0, _startTimes[(_next + startsCount - 1) % MAX_STARTS] + WINDOW_MS - now);
+    }
+
+    /**
+     * @brief Gets the number of scans started during the last time window.
+     *
+     * @param now The current time in milliseconds, from SystemClock.elapsedRealtime().
+     */
+    int getStartsCount(final long now)
+    {
+        int count = 0;
+        for (long time : _startTimes)
+        {
+            if (now - time < WINDOW_MS)
+            {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @brief Records a scan start.
+     *
+     * @param now The current time in milliseconds, from SystemClock.elapsedRealtime().
+     */
+    void onScanStarted(final long now)
+    {
+        _startTimes[_next] = now;
+        _next = (_next + 1) % MAX_STARTS;
+    }
+}
@@ -1,16 +1,28 @@
 package com.systemic.bluetoothle;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import no.nordicsemi.android.support.v18.scanner.*;
 
@@ -39,6 +51,69 @@ public final class Scanner
          */
         public void onScanResult(ScanResult scanResult);
 
+        /**
+         * @brief A callback invoked when several advertisement packets are reported together,
+         *        either by the Bluetooth controller (see ScanOptions.setReportDelay())
+         *        or at the end of a coalescing interval (see ScanOptions.setCoalescingInterval()).
+         *
+         * The default implementation invokes onScanResult() for each scan result.
+         *
+         * @param scanResults The list of ScanResult, never empty.
+         */
+        public default void onBatchScanResults(List<ScanResult> scanResults)
+        {
+            for (ScanResult scanResult : scanResults)
+            {
+                onScanResult(scanResult);
+            }
+        }
+
+        /**
+         * @brief A callback invoked when a device is seen for the first time,
+         *        or again after having been lost.
+         *
+         * Only invoked with presence tracking, see ScanOptions.setPresenceTimeout().
+         *
+         * @param scanResult The first ScanResult received from the device.
+         */
+        public default void onDeviceFound(ScanResult scanResult)
+        {
+        }
+
+        /**
+         * @brief A callback invoked when a device hasn't been seen for longer
+         *        than the presence timeout.
+         *
+         * Only invoked with presence tracking, see ScanOptions.setPresenceTimeout().
+         *
+         * @param device The device that was lost.
+         */
+        public default void onDeviceLost(BluetoothDevice device)
+        {
+        }
+
+        /**
+         * @brief A callback invoked when the scan start is delayed to not exceed
+         *        Android's limit of scan starts, and again once the scan is started.
+         *
+         * @param throttled Whether the scan start is delayed.
+         * @param resumeDelayMs The delay in milliseconds before the scan is started,
+         *                      zero when not throttled.
+         */
+        public default void onThrottleStateChanged(boolean throttled, long resumeDelayMs)
+        {
+        }
+
+        /**
+         * @brief A callback invoked when the scan mode of an adaptive scan changes,
+         *        see ScanOptions.setAdaptiveScanMode().
+         *
+         * @param statistics The new scan mode and the statistics of the scan modes.
+         */
+        public default void onScanModeChanged(ScanModeStatistics statistics)
+        {
+        }
+
         /**
          * @brief A callback invoked when the scan fails.
          *
@@ -48,9 +123,37 @@ public final class Scanner
     }
 
     private static String TAG = "SystemicGames";
-    private static ScanCallback _scanCallback;
     private static Object _scanSync = new Object();
 
+    // Delay before actually stopping the scan, so a scan restarted right away
+    // with the same settings reuses the running one
+    private static final long STOP_DELAY_MS = 1000;
+    // Minimum time in a scan mode before changing it, so scan mode changes alone
+    // don't exceed Android's limit of scan starts (5 starts over 30 seconds)
+    private static final long MIN_SCAN_MODE_DURATION_MS = 6000;
+    private static final Handler _handler = new Handler(Looper.getMainLooper());
+    private static final ScanStartThrottler _throttler = new ScanStartThrottler();
+    private static final Runnable _deferredStartRunnable = Scanner::startDeferredScan;
+    private static final Runnable _delayedStopRunnable = Scanner::stopUnusedScan;
+    // Scan sessions by id, they all share the same scan
+    private static final LinkedHashMap<Integer, NotifyingScanCallback> _sessions = new LinkedHashMap<>();
+    private static int _lastSessionId;
+    // Session started with startScan()
+    private static int _defaultSessionId;
+    // Callback given to the OS for the running scan, and the scan parameters
+    private static ForwardingScanCallback _osScanCallback;
+    private static ScanParameters _scanParameters;
+    // Adaptive scan mode, the flag and mode are read from the scan callbacks
+    private static final ScanActivityMonitor _activityMonitor = new ScanActivityMonitor();
+    private static final Runnable _scanModeRunnable = Scanner::updateScanMode;
+    private static volatile boolean _adaptiveScanMode;
+    private static volatile int _runningScanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private static int _balancedModeDelayMs;
+    private static int _lowPowerModeDelayMs;
+    // Whether a deferred scan start or a postponed scan mode change is scheduled,
+    // in which case activity doesn't trigger an update of the scan
+    private static volatile boolean _scanUpdatePending;
+
     /**
      * @brief Starts scanning for BLE peripherals advertising the given list of services.
      *
@@ -61,19 +164,183 @@ public final class Scanner
      * @param callback The callback for notifying of the scan results (called for each advertisement packet).
      */
     public static void startScan(final String servicesUuids, final ScannerCallback callback)
+    {
+        startScan(servicesUuids, null, callback);
+    }
+
+    /**
+     * @brief Starts scanning for BLE peripherals advertising the given list of services.
+     *
+     * If a scan is already running, it is stopped before starting the new one.
+     * Scan sessions are not affected, see startSession().
+     *
+     * @param servicesUuids Comma separated list of services UUIDs. Peripherals advertising at least one of
+     *                      the services will be reported. Notify for all peripherals if the list is null or empty.
+     * @param options The scan options, may be null.
+     * @param callback The callback for notifying of the scan results.
+     */
+    public static void startScan(final String servicesUuids, final ScanOptions options, final ScannerCallback callback)
     {
         Log.v(TAG, "==> startScan");
 
+        NotifyingScanCallback session = createSession(servicesUuids, options, callback);
+        synchronized (_scanSync)
+        {
+            // Only one scan at a time
+            removeSession(_defaultSessionId);
+            _defaultSessionId = addSession(session);
+            updateOsScan();
+        }
+    }
+
+    /**
+     * @brief Stops an on-going BLE scan.
+     *
+     * The scan is stopped with a short delay so it may be reused if a new scan
+     * with the same parameters is started right away, but no more results are notified.
+     * Scan sessions are not affected, see stopSession().
+     */
+	public static void stopScan()
+    {
+        Log.v(TAG, "==> stopScan");
+
+        synchronized (_scanSync)
+        {
+            removeSession(_defaultSessionId);
+            _defaultSessionId = 0;
+            updateOsScan();
+        }
+    }
+
+    /**
+     * @brief Starts a scan session for BLE peripherals advertising the given list of services.
+     *
+     * Scan sessions run concurrently with their own filters, options and callback.
+     * They share a single BLE scan for the union of their filters, each session being
+     * notified only of the advertisements matching its own filters. This BLE scan is
+     * only restarted when the union of the filters changes.
+     *
+     * @param servicesUuids Comma separated list of services UUIDs. Peripherals advertising at least one of
+     *                      the services will be reported. Notify for all peripherals if the list is null or empty.
+     * @param options The scan options, may be null.
+     * @param callback The callback for notifying of the scan results.
+     * @return The session id, to be passed to stopSession().
+     */
+    public static int startSession(final String servicesUuids, final ScanOptions options, final ScannerCallback callback)
+    {
+        Log.v(TAG, "==> startSession");
+
+        NotifyingScanCallback session = createSession(servicesUuids, options, callback);
+        synchronized (_scanSync)
+        {
+            final int sessionId = addSession(session);
+            updateOsScan();
+            return sessionId;
+        }
+    }
+
+    /**
+     * @brief Stops a scan session.
+     *
+     * @param sessionId The id returned by startSession().
+     * @return Whether the session was running.
+     */
+    public static boolean stopSession(final int sessionId)
+    {
+        Log.v(TAG, "==> stopSession " + sessionId);
+
+        synchronized (_scanSync)
+        {
+            if ((sessionId == _defaultSessionId) || !removeSession(sessionId))
+            {
+                return false;
+            }
+            updateOsScan();
+            return true;
+        }
+    }
+
+    /**
+     * @brief Gets the number of scans started over the last 30 seconds.
+     *
+     * Android doesn't allow more than 5 scan starts during that period,
+     * additional scan starts are delayed.
+     */
+    public static int getRecentScanStartsCount()
+    {
+        synchronized (_scanSync)
+        {
+            return _throttler.getStartsCount(SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * @brief Forgets about the running scan, to be called when Bluetooth is turned off.
+     *
+     * The OS stops all scans when Bluetooth is turned off, so the running scan
+     * must not be reused once Bluetooth is turned back on.
+     * The scan started with startScan() is stopped while scan sessions are resumed
+     * by onBluetoothEnabled().
+     */
+    public static void onBluetoothDisabled()
+    {
+        Log.v(TAG, "==> onBluetoothDisabled");
+
+        synchronized (_scanSync)
+        {
+            removeSession(_defaultSessionId);
+            _defaultSessionId = 0;
+            try
+            {
+                stopOsScan();
+            }
+            catch (RuntimeException e)
+            {
+                // The scanner may refuse to stop a scan while Bluetooth is off
+                Log.w(TAG, "Failed to stop scan: " + e);
+            }
+        }
+    }
+
+    /**
+     * @brief Resumes the scan sessions, to be called when Bluetooth is turned on.
+     */
+    public static void onBluetoothEnabled()
+    {
+        Log.v(TAG, "==> onBluetoothEnabled");
+
+        synchronized (_scanSync)
+        {
+            if ((_osScanCallback == null) && !_sessions.isEmpty())
+            {
+                try
+                {
+                    updateOsScan();
+                }
+                catch (RuntimeException e)
+                {
+                    Log.e(TAG, "Failed to resume scan: " + e);
+                    for (NotifyingScanCallback session : _sessions.values())
+                    {
+                        session.onScanFailed(ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+                    }
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static NotifyingScanCallback createSession(final String servicesUuids, ScanOptions options, final ScannerCallback callback)
+    {
         if (callback == null)
         {
             throw new IllegalArgumentException("callback is null");
         }
 
-        // Build scan settings
-        ScanSettings settings = new ScanSettings.Builder()
-            .setLegacy(false) // Default is true for compatibility with older apps, but we all type of advertisements, not just legacy
-            .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY) // Default is low power which is good for long scans, in our use case we do short scans and we prefer having quick results
-            .build(); // Other defaults are great for us
+        if (options == null)
+        {
+            options = new ScanOptions();
+        }
 
         // Convert the comma separated list of UUIDs
         List<ScanFilter> filters = null;
@@ -98,112 +365,993 @@ public final class Scanner
             }
         }
 
-        synchronized (_scanSync)
+        // Replace services filters by the ones given in the options
+        List<ScanFilterSpec> filterSpecs = null;
+        if (!options.getFilters().isEmpty())
         {
-            // Only one scan at a time
-            if (_scanCallback != null)
+            filterSpecs = options.getFilters();
+            filters = new ArrayList<>();
+            for (ScanFilterSpec spec : filterSpecs)
             {
-    	        BluetoothLeScannerCompat.getScanner().stopScan(_scanCallback);
+                filters.add(spec.toScanFilter());
             }
-
-            // Start scanning
-            _scanCallback = createCallback(callback);
-            BluetoothLeScannerCompat.getScanner().startScan(filters, settings, _scanCallback);
         }
+        if ((filters != null) && filters.isEmpty())
+        {
+            filters = null;
+        }
+
+        // Let the controller track presence if it can filter advertisements
+        final boolean hardwarePresence = (options.getPresenceTimeout() > 0)
+            && options.getPresenceOnly() && (filters != null)
+            && isOffloadedFilteringSupported();
+
+        return new NotifyingScanCallback(callback, options, filters, filterSpecs, hardwarePresence);
     }
 
-    /**
-     * @brief Stops an on-going BLE scan.
-     */
-	public static void stopScan()
+    // Must be called while holding _scanSync
+    private static int addSession(@NonNull final NotifyingScanCallback session)
     {
-        Log.v(TAG, "==> stopScan");
+        do
+        {
+            _lastSessionId = Math.max(1, _lastSessionId + 1);
+        }
+        while (_sessions.containsKey(_lastSessionId));
+        _sessions.put(_lastSessionId, session);
+        // Starting a scan counts as activity for the adaptive scan mode
+        _activityMonitor.onScanRequested(SystemClock.elapsedRealtime());
+        return _lastSessionId;
+    }
 
-        synchronized (_scanSync)
+    // Must be called while holding _scanSync
+    private static boolean removeSession(final int sessionId)
+    {
+        NotifyingScanCallback session = _sessions.remove(sessionId);
+        if (session != null)
         {
-            if (_scanCallback != null)
-            {
-    	        BluetoothLeScannerCompat.getScanner().stopScan(_scanCallback);
-                _scanCallback = null;
-            }
+            session.cancel();
         }
+        return session != null;
     }
 
-    /**
-     * @brief Gets the BluetoothDevice object for the given Bluetooth address.
-     *
-     * @param context The application context.
-     * @param bluetoothAddress The address of a Bluetooth device.
-     * @return A BluetoothDevice or null if there is none for the given address.
-     */
-    public static BluetoothDevice getDeviceFromAddress(final @NonNull Context context, final long bluetoothAddress)
+    // Must be called while holding _scanSync, after the sessions have changed
+    private static void updateOsScan()
     {
-        // Get the Bluetooth Manager and default adapter
-        BluetoothManager bluetoothManager
-            = (BluetoothManager)context.getSystemService(Context.BLUETOOTH_SERVICE);
-        if (bluetoothManager == null)
+        // Any scheduled update is either dropped or scheduled again below
+        _scanUpdatePending = false;
+        if (_osScanCallback != null)
         {
-            return null;
+            _osScanCallback.setTargets(_sessions.values());
         }
-        BluetoothAdapter adapter = bluetoothManager.getAdapter();
-        if (adapter == null)
+
+        if (_sessions.isEmpty())
         {
-            return null;
+            _handler.removeCallbacks(_deferredStartRunnable);
+            _handler.removeCallbacks(_scanModeRunnable);
+            _adaptiveScanMode = false;
+            if ((_osScanCallback != null) && _scanParameters.isReusable())
+            {
+                _handler.postDelayed(_delayedStopRunnable, STOP_DELAY_MS);
+            }
+            else
+            {
+                stopOsScan();
+                _activityMonitor.reset(SystemClock.elapsedRealtime());
+            }
+            return;
         }
 
-        // Convert the Bluetooth address to a string
-        StringBuilder sb = new StringBuilder();
-        for (int shift = 40; shift >= 0; shift -= 8)
+        // Keep the running scan if the union of the sessions parameters didn't change
+        _handler.removeCallbacks(_delayedStopRunnable);
+        ScanParameters parameters = getSessionsScanParameters();
+        final long scanModeDelay = getScanModeChangeDelay(parameters);
+        if (scanModeDelay > 0)
         {
-            if (sb.length() > 0) sb.append(":");
-            sb.append(String.format("%02X", (bluetoothAddress >> shift) & 0xFF));
+            // Keep the running scan mode for now
+            parameters = parameters.withScanMode(_scanParameters.scanMode);
+        }
+        if ((_osScanCallback != null) && _scanParameters.canBeReusedFor(parameters))
+        {
+            Log.v(TAG, "==> reusing running scan");
+            applySessionsScanParameters(parameters);
+            _handler.removeCallbacks(_deferredStartRunnable);
+            notifyThrottleState(false, 0);
+            if (scanModeDelay > 0)
+            {
+                Log.v(TAG, "==> postponing scan mode change by " + scanModeDelay + "ms");
+                _handler.removeCallbacks(_scanModeRunnable);
+                _handler.postDelayed(_scanModeRunnable, scanModeDelay);
+                _scanUpdatePending = true;
+            }
+            else
+            {
+                scheduleScanModeUpdate();
+            }
+            return;
         }
 
-        // Returns the Bluetooth device
-        return adapter.getRemoteDevice(sb.toString());
+        final long delay = _throttler.getStartDelay(SystemClock.elapsedRealtime());
+        if (delay == 0)
+        {
+            restartOsScan(parameters);
+        }
+        else
+        {
+            // Start later with the sessions parameters at that time and keep the
+            // running scan in the mean time, sessions filter the scan results anyways
+            Log.w(TAG, "Delaying scan start by " + delay + "ms to not exceed the limit of "
+                + ScanStartThrottler.MAX_STARTS + " starts over 30 seconds");
+            _handler.removeCallbacks(_deferredStartRunnable);
+            _handler.postDelayed(_deferredStartRunnable, delay);
+            _scanUpdatePending = true;
+            notifyThrottleState(true, delay);
+        }
+        scheduleScanModeUpdate();
     }
 
-    /**
-     * @brief Gets a ScanCallback instance that notify scan results to user code.
-     */
+    // Must be called while holding _scanSync, doesn't change the state of the scan or of the sessions
     @NonNull
-    private static ScanCallback createCallback(final ScannerCallback callback)
+    private static ScanParameters getSessionsScanParameters()
     {
-        return new ScanCallback()
+        // Build the union of the filters, no filter means all devices
+        LinkedHashSet<ScanFilter> filters = new LinkedHashSet<>();
+        boolean allDevices = false;
+        long reportDelay = Long.MAX_VALUE;
+        for (NotifyingScanCallback session : _sessions.values())
         {
-            @Override
-            public void onScanResult(final int callbackType, final ScanResult result)
+            if (session.getScanFilters() == null)
+            {
+                allDevices = true;
+            }
+            else
             {
-                NotifyScanResult(result);
+                filters.addAll(session.getScanFilters());
             }
+            reportDelay = Math.min(reportDelay, session.getReportDelay());
+        }
 
-            @Override
-            public void onBatchScanResults(final List<ScanResult> results)
+        // Presence may only be tracked by the controller for a single session
+        NotifyingScanCallback first = _sessions.values().iterator().next();
+        final boolean hardwarePresence = (_sessions.size() == 1) && first.isHardwarePresence();
+
+        // Adapt the scan mode only if all sessions allow it
+        boolean adaptiveScanMode = true;
+        int balancedModeDelayMs = Integer.MAX_VALUE;
+        int lowPowerModeDelayMs = Integer.MAX_VALUE;
+        for (NotifyingScanCallback session : _sessions.values())
+        {
+            adaptiveScanMode &= session.isAdaptiveScanMode();
+            balancedModeDelayMs = Math.min(balancedModeDelayMs, session.getBalancedModeDelay());
+            lowPowerModeDelayMs = Math.min(lowPowerModeDelayMs, session.getLowPowerModeDelay());
+        }
+        int scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+        if (adaptiveScanMode)
+        {
+            final long idleTime = _activityMonitor.getIdleTime(SystemClock.elapsedRealtime());
+            if (idleTime >= lowPowerModeDelayMs)
             {
-                for (ScanResult scan : results)
-                {
-                    NotifyScanResult(scan);
-                }
+                scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+            }
+            else if (idleTime >= balancedModeDelayMs)
+            {
+                scanMode = ScanSettings.SCAN_MODE_BALANCED;
             }
+        }
 
-            @Override
-        	public void onScanFailed(final int errorCode)
+        return new ScanParameters(allDevices ? null : new ArrayList<>(filters),
+            reportDelay, scanMode, hardwarePresence, first.getPresenceTimeout(),
+            adaptiveScanMode, balancedModeDelayMs, lowPowerModeDelayMs);
+    }
+
+    // Must be called while holding _scanSync, once the sessions are served by a scan
+    // started or reused with the given parameters
+    private static void applySessionsScanParameters(@NonNull final ScanParameters parameters)
+    {
+        if (!parameters.hardwarePresence)
+        {
+            for (NotifyingScanCallback session : _sessions.values())
+            {
+                session.useSoftwarePresence();
+            }
+        }
+        _adaptiveScanMode = parameters.adaptiveScanMode;
+        _balancedModeDelayMs = parameters.balancedModeDelayMs;
+        _lowPowerModeDelayMs = parameters.lowPowerModeDelayMs;
+    }
+
+    // Must be called while holding _scanSync, gets the delay before the running scan may be
+    // restarted with the scan mode of the given parameters, zero if it's not only a scan mode change
+    private static long getScanModeChangeDelay(@NonNull final ScanParameters parameters)
+    {
+        if ((_osScanCallback == null) || (parameters.scanMode == _scanParameters.scanMode)
+            || !_scanParameters.canBeReusedFor(parameters.withScanMode(_scanParameters.scanMode)))
+        {
+            return 0;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        long delay = MIN_SCAN_MODE_DURATION_MS - _activityMonitor.getTimeInScanMode(now);
+        // Scan modes values increase with the duty cycle
+        if (parameters.scanMode < _scanParameters.scanMode)
+        {
+            // Step down only if there is a scan start left to step back up
+            delay = Math.max(delay, _throttler.getStartDelay(now, 2));
+        }
+        return Math.max(0, delay);
+    }
+
+    // Must be called while holding _scanSync, schedules the next step down of the scan mode
+    private static void scheduleScanModeUpdate()
+    {
+        _handler.removeCallbacks(_scanModeRunnable);
+        if (_adaptiveScanMode && (_scanParameters != null))
+        {
+            long delay = -1;
+            if (_scanParameters.scanMode == ScanSettings.SCAN_MODE_LOW_LATENCY)
+            {
+                delay = _balancedModeDelayMs;
+            }
+            else if (_scanParameters.scanMode == ScanSettings.SCAN_MODE_BALANCED)
+            {
+                delay = _lowPowerModeDelayMs;
+            }
+            if (delay >= 0)
             {
-                Log.e(TAG, "Scan failed with error " + errorCode);
-                callback.onScanFailed(errorCode);
+                delay -= _activityMonitor.getIdleTime(SystemClock.elapsedRealtime());
+                _handler.postDelayed(_scanModeRunnable, Math.max(0, delay));
             }
+        }
+    }
 
-            private void NotifyScanResult(@NonNull final ScanResult scanResult)
+    private static void updateScanMode()
+    {
+        synchronized (_scanSync)
+        {
+            if (!_sessions.isEmpty())
             {
-                BluetoothDevice device = scanResult.getDevice();
-                // We should get only BLE devices
-                if ((device != null)
-                        && ((device.getType() == BluetoothDevice.DEVICE_TYPE_LE)
-                        || (device.getType() == BluetoothDevice.DEVICE_TYPE_DUAL)))
+                try
+                {
+                    updateOsScan();
+                }
+                catch (RuntimeException e)
                 {
-                    callback.onScanResult(scanResult);
+                    Log.e(TAG, "Failed to change scan mode: " + e);
                 }
             }
-        };
+        }
+    }
+
+    /**
+     * @brief Records the advertisements for the adaptive scan mode,
+     *        and switches back to the low latency mode on activity.
+     */
+    private static void onAdvertisements(@NonNull final List<ScanResult> results)
+    {
+        boolean activity = false;
+        final long now = SystemClock.elapsedRealtime();
+        for (ScanResult result : results)
+        {
+            BluetoothDevice device = result.getDevice();
+            ScanRecord scanRecord = result.getScanRecord();
+            if (device != null)
+            {
+                final int payloadHash = scanRecord != null ? Arrays.hashCode(scanRecord.getBytes()) : 0;
+                activity |= _activityMonitor.onAdvertisement(addressToNumber(device.getAddress()), payloadHash, now);
+            }
+        }
+        // A scheduled update of the scan will use the latest activity
+        if (activity && (_runningScanMode != ScanSettings.SCAN_MODE_LOW_LATENCY) && !_scanUpdatePending)
+        {
+            updateScanMode();
+        }
+    }
+
+    // Must be called while holding _scanSync
+    private static void restartOsScan(@NonNull final ScanParameters parameters)
+    {
+        // Stopping a scan doesn't count toward Android's limit, only starting does
+        stopOsScan();
+        _scanParameters = parameters;
+        _osScanCallback = new ForwardingScanCallback(_sessions.values());
+        try
+        {
+            BluetoothLeScannerCompat.getScanner().startScan(parameters.filters, parameters.settings, _osScanCallback);
+            _throttler.onScanStarted(SystemClock.elapsedRealtime());
+        }
+        catch (RuntimeException e)
+        {
+            _osScanCallback = null;
+            _scanParameters = null;
+            throw e;
+        }
+        applySessionsScanParameters(parameters);
+        notifyThrottleState(false, 0);
+
+        // Update scan mode
+        _runningScanMode = parameters.scanMode;
+        if (_activityMonitor.getScanMode() != parameters.scanMode)
+        {
+            final long now = SystemClock.elapsedRealtime();
+            _activityMonitor.setScanMode(parameters.scanMode, now);
+            Log.v(TAG, "==> scan mode changed to " + ScanModeStatistics.getScanModeName(parameters.scanMode));
+            ScanModeStatistics statistics = _activityMonitor.getStatistics(now);
+            for (NotifyingScanCallback session : _sessions.values())
+            {
+                session.notifyScanModeChanged(statistics);
+            }
+        }
+    }
+
+    // Must be called while holding _scanSync
+    private static void stopOsScan()
+    {
+        _handler.removeCallbacks(_deferredStartRunnable);
+        _handler.removeCallbacks(_delayedStopRunnable);
+        _handler.removeCallbacks(_scanModeRunnable);
+        _scanUpdatePending = false;
+        _scanParameters = null;
+        if (_osScanCallback != null)
+        {
+            ForwardingScanCallback osScanCallback = _osScanCallback;
+            _osScanCallback = null;
+            BluetoothLeScannerCompat.getScanner().stopScan(osScanCallback);
+        }
+    }
+
+    // Must be called while holding _scanSync
+    private static void notifyThrottleState(final boolean throttled, final long resumeDelayMs)
+    {
+        for (NotifyingScanCallback session : _sessions.values())
+        {
+            session.notifyThrottleState(throttled, resumeDelayMs);
+        }
+    }
+
+    private static void startDeferredScan()
+    {
+        synchronized (_scanSync)
+        {
+            _scanUpdatePending = false;
+            if (!_sessions.isEmpty())
+            {
+                Log.v(TAG, "==> starting delayed scan");
+                try
+                {
+                    restartOsScan(getSessionsScanParameters());
+                    scheduleScanModeUpdate();
+                }
+                catch (RuntimeException e)
+                {
+                    Log.e(TAG, "Failed to start delayed scan: " + e);
+                    for (NotifyingScanCallback session : _sessions.values())
+                    {
+                        session.onScanFailed(ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void stopUnusedScan()
+    {
+        synchronized (_scanSync)
+        {
+            if (_sessions.isEmpty())
+            {
+                try
+                {
+                    stopOsScan();
+                    _activityMonitor.reset(SystemClock.elapsedRealtime());
+                }
+                catch (RuntimeException e)
+                {
+                    Log.e(TAG, "Failed to stop scan: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Gets the BluetoothDevice object for the given Bluetooth address.
+     *
+     * @param context The application context.
+     * @param bluetoothAddress The address of a Bluetooth device.
+     * @return A BluetoothDevice or null if there is none for the given address.
+     */
+    public static BluetoothDevice getDeviceFromAddress(final @NonNull Context context, final long bluetoothAddress)
+    {
+        // Get the Bluetooth Manager and default adapter
+        BluetoothManager bluetoothManager
+            = (BluetoothManager)context.getSystemService(Context.BLUETOOTH_SERVICE);
+        if (bluetoothManager == null)
+        {
+            return null;
+        }
+        BluetoothAdapter adapter = bluetoothManager.getAdapter();
+        if (adapter == null)
+        {
+            return null;
+        }
+
+        // Convert the Bluetooth address to a string
+        StringBuilder sb = new StringBuilder();
+        for (int shift = 40; shift >= 0; shift -= 8)
+        {
+            if (sb.length() > 0) sb.append(":");
+            sb.append(String.format("%02X", (bluetoothAddress >> shift) & 0xFF));
+        }
+
+        // Returns the Bluetooth device
+        return adapter.getRemoteDevice(sb.toString());
+    }
+
+    /**
+     * @brief Indicates whether the Bluetooth controller supports offloaded filtering.
+     */
+    private static boolean isOffloadedFilteringSupported()
+    {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        return (adapter != null) && adapter.isOffloadedFilteringSupported();
+    }
+
+    /**
+     * @brief Converts a Bluetooth address string to a 48 bits number.
+     */
+    private static long addressToNumber(final String address)
+    {
+        try
+        {
+            return Long.parseLong(address.replace(":", ""), 16);
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * @brief The parameters given to the OS to start a scan.
+     */
+    private static final class ScanParameters
+    {
+        final List<ScanFilter> filters; // Null for all devices
+        final ScanSettings settings;
+        final long reportDelay;
+        final int scanMode;
+        final boolean hardwarePresence;
+        final int presenceTimeoutMs;
+        // Adaptive scan mode state of the sessions, not given to the OS
+        final boolean adaptiveScanMode;
+        final int balancedModeDelayMs;
+        final int lowPowerModeDelayMs;
+
+        ScanParameters(@Nullable final List<ScanFilter> filters, final long reportDelay, final int scanMode, final boolean hardwarePresence, final int presenceTimeoutMs,
+                       final boolean adaptiveScanMode, final int balancedModeDelayMs, final int lowPowerModeDelayMs)
+        {
+            this.filters = filters;
+            this.reportDelay = reportDelay;
+            this.scanMode = scanMode;
+            this.hardwarePresence = hardwarePresence;
+            this.presenceTimeoutMs = presenceTimeoutMs;
+            this.adaptiveScanMode = adaptiveScanMode;
+            this.balancedModeDelayMs = balancedModeDelayMs;
+            this.lowPowerModeDelayMs = lowPowerModeDelayMs;
+
+            // Build scan settings
+            ScanSettings.Builder settingsBuilder = new ScanSettings.Builder()
+                .setLegacy(false) // Default is true for compatibility with older apps, but we all type of advertisements, not just legacy
+                .setScanMode(scanMode); // Low latency unless adaptive, in most of our use cases we do short scans and we prefer having quick results
+            if (hardwarePresence)
+            {
+                // Report delay must be zero with those callback types,
+                // match options are only used if the library has to emulate them
+                settingsBuilder
+                    .setCallbackType(ScanSettings.CALLBACK_TYPE_FIRST_MATCH | ScanSettings.CALLBACK_TYPE_MATCH_LOST)
+                    .setMatchMode(ScanSettings.MATCH_MODE_STICKY)
+                    .setMatchOptions(presenceTimeoutMs, Math.max(1, presenceTimeoutMs / 2));
+            }
+            else
+            {
+                // Zero by default, otherwise results are batched by the controller when supported
+                settingsBuilder.setReportDelay(reportDelay);
+            }
+            this.settings = settingsBuilder.build(); // Other defaults are great for us
+        }
+
+        /**
+         * @brief Gets a copy of these parameters with another scan mode.
+         */
+        @NonNull
+        ScanParameters withScanMode(final int mode)
+        {
+            return new ScanParameters(filters, reportDelay, mode, hardwarePresence, presenceTimeoutMs,
+                adaptiveScanMode, balancedModeDelayMs, lowPowerModeDelayMs);
+        }
+
+        /**
+         * @brief Indicates whether a running scan may be handed over to other sessions.
+         *
+         * With presence tracked by the controller, the first match of the devices
+         * that are already present wouldn't be notified again.
+         */
+        boolean isReusable()
+        {
+            return !hardwarePresence;
+        }
+
+        boolean canBeReusedFor(@NonNull final ScanParameters other)
+        {
+            return isReusable() && other.isReusable()
+                && (reportDelay == other.reportDelay)
+                && (scanMode == other.scanMode)
+                && ((filters == null) == (other.filters == null))
+                && ((filters == null) || new HashSet<>(filters).equals(new HashSet<>(other.filters)));
+        }
+    }
+
+    /**
+     * @brief ScanCallback given to the OS that forwards the scan events to the scan sessions,
+     *        so a running scan may be shared and reused.
+     */
+    private static final class ForwardingScanCallback extends ScanCallback
+    {
+        private volatile NotifyingScanCallback[] _targets;
+
+        ForwardingScanCallback(@NonNull final Collection<NotifyingScanCallback> targets)
+        {
+            setTargets(targets);
+        }
+
+        void setTargets(@NonNull final Collection<NotifyingScanCallback> targets)
+        {
+            _targets = targets.toArray(new NotifyingScanCallback[0]);
+        }
+
+        @Override
+        public void onScanResult(final int callbackType, final ScanResult result)
+        {
+            if (_adaptiveScanMode)
+            {
+                onAdvertisements(Collections.singletonList(result));
+            }
+            for (NotifyingScanCallback target : _targets)
+            {
+                target.onScanResult(callbackType, result);
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(final List<ScanResult> results)
+        {
+            if (_adaptiveScanMode)
+            {
+                onAdvertisements(results);
+            }
+            for (NotifyingScanCallback target : _targets)
+            {
+                target.onBatchScanResults(results);
+            }
+        }
+
+        @Override
+        public void onScanFailed(final int errorCode)
+        {
+            for (NotifyingScanCallback target : _targets)
+            {
+                target.onScanFailed(errorCode);
+            }
+        }
+    }
+
+    /**
+     * @brief The last notified advertisement of a device.
+     */
+    private static final class NotifiedAdvertisement
+    {
+        int payloadHash;
+        int rssi;
+        long time;
+    }
+
+    /**
+     * @brief ScanCallback implementation that notifies scan results to user code.
+     *
+     * When filtering unchanged advertisements, a scan result is dropped if its payload
+     * and RSSI are about the same as the last notified ones for the device, unless
+     * the heartbeat interval has elapsed.
+     *
+     * When coalescing is enabled, only the latest scan result of each device is kept
+     * and pending results are notified at most once per coalescing interval.
+     *
+     * When tracking presence, devices are notified when first seen and when lost,
+     * using either the controller's callback types or a PresenceTracker.
+     *
+     * Each scan session has its own instance, which only notifies the scan results
+     * matching the session filters.
+     */
+    private static final class NotifyingScanCallback extends ScanCallback
+    {
+        // Maximum number of devices for which the last notified advertisement is remembered
+        private static final int MAX_NOTIFIED_DEVICES = 1024;
+
+        private final ScannerCallback _callback;
+        private final boolean _filterUnchanged;
+        private final int _rssiThreshold;
+        private final int _heartbeatIntervalMs;
+        private final int _coalescingIntervalMs;
+        private final boolean _presenceOnly;
+        private final int _presenceTimeoutMs;
+        private final long _reportDelayMs;
+        private final boolean _adaptiveScanMode;
+        private final int _balancedModeDelayMs;
+        private final int _lowPowerModeDelayMs;
+        // The session filters, null for all devices, checked by software as the scan
+        // is shared with other sessions and some criteria are not supported by the controller
+        private final List<ScanFilter> _scanFilters;
+        private final List<ScanFilterSpec> _filterSpecs;
+        private final Handler _handler = new Handler(Looper.getMainLooper());
+        // Whether presence is tracked by the controller, may only change from true to false,
+        // the first field is accessed while holding _scanSync, the second from the scan callbacks
+        private boolean _wantsHardwarePresence;
+        private volatile boolean _hardwarePresence;
+        // Devices present according to the controller, to continue tracking them by software
+        private final HashMap<Long, BluetoothDevice> _presentDevices = new HashMap<>();
+        private PresenceTracker _presenceTracker;
+        private boolean _throttled; // Accessed while holding _scanSync
+        // Latest scan result per device address, in order of arrival
+        private final LinkedHashMap<Long, ScanResult> _pendingResults = new LinkedHashMap<>();
+        private final Runnable _flushRunnable = this::flushPendingResults;
+        // Last notified advertisement per device address, in order of access,
+        // only accessed from the scan callbacks
+        private final LinkedHashMap<Long, NotifiedAdvertisement> _notifiedAdvertisements = new LinkedHashMap<Long, NotifiedAdvertisement>(64, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, NotifiedAdvertisement> eldest)
+            {
+                return size() > MAX_NOTIFIED_DEVICES;
+            }
+        };
+        private long _lastFlushTime;
+        private boolean _flushScheduled;
+        private volatile boolean _cancelled;
+
+        NotifyingScanCallback(@NonNull final ScannerCallback callback, @NonNull final ScanOptions options,
+                              @Nullable final List<ScanFilter> scanFilters, @Nullable final List<ScanFilterSpec> filterSpecs,
+                              final boolean hardwarePresence)
+        {
+            _callback = callback;
+            _filterUnchanged = options.getFilterUnchanged();
+            _rssiThreshold = options.getRssiThreshold();
+            _heartbeatIntervalMs = options.getHeartbeatInterval();
+            _coalescingIntervalMs = options.getCoalescingInterval();
+            _presenceOnly = options.getPresenceOnly();
+            _presenceTimeoutMs = options.getPresenceTimeout();
+            _reportDelayMs = options.getReportDelay();
+            _adaptiveScanMode = options.getAdaptiveScanMode();
+            _balancedModeDelayMs = options.getBalancedModeDelay();
+            _lowPowerModeDelayMs = options.getLowPowerModeDelay();
+            _scanFilters = scanFilters;
+            _filterSpecs = filterSpecs;
+            _wantsHardwarePresence = hardwarePresence;
+            _hardwarePresence = hardwarePresence;
+            _presenceTracker = (_presenceTimeoutMs > 0) && !hardwarePresence
+                ? new PresenceTracker(_handler, _presenceTimeoutMs, this::onDeviceLost)
+                : null;
+        }
+
+        @Nullable
+        List<ScanFilter> getScanFilters()
+        {
+            return _scanFilters;
+        }
+
+        long getReportDelay()
+        {
+            return _reportDelayMs;
+        }
+
+        int getPresenceTimeout()
+        {
+            return _presenceTimeoutMs;
+        }
+
+        boolean isAdaptiveScanMode()
+        {
+            return _adaptiveScanMode;
+        }
+
+        int getBalancedModeDelay()
+        {
+            return _balancedModeDelayMs;
+        }
+
+        int getLowPowerModeDelay()
+        {
+            return _lowPowerModeDelayMs;
+        }
+
+        // Must be called while holding _scanSync
+        boolean isHardwarePresence()
+        {
+            return _wantsHardwarePresence;
+        }
+
+        /**
+         * @brief Switches to tracking presence by software, when the scan
+         *        is shared with other sessions.
+         *
+         * Must be called while holding _scanSync.
+         */
+        void useSoftwarePresence()
+        {
+            if (_wantsHardwarePresence)
+            {
+                _wantsHardwarePresence = false;
+                // Switch before getting the results of the new scan
+                _handler.post(() ->
+                {
+                    _hardwarePresence = false;
+                    if (!_cancelled)
+                    {
+                        _presenceTracker = new PresenceTracker(_handler, _presenceTimeoutMs, this::onDeviceLost);
+                        for (HashMap.Entry<Long, BluetoothDevice> entry : _presentDevices.entrySet())
+                        {
+                            _presenceTracker.touch(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    _presentDevices.clear();
+                });
+            }
+        }
+
+        /**
+         * @brief Drops pending results and stops notifying user code.
+         */
+        void cancel()
+        {
+            synchronized (_pendingResults)
+            {
+                _cancelled = true;
+                _pendingResults.clear();
+                _handler.removeCallbacks(_flushRunnable);
+                _flushScheduled = false;
+            }
+            _handler.post(() ->
+            {
+                if (_presenceTracker != null)
+                {
+                    _presenceTracker.clear();
+                }
+                _notifiedAdvertisements.clear();
+            });
+        }
+
+        /**
+         * @brief Notifies whether the scan start is delayed, if the state changed.
+         *
+         * Must be called while holding _scanSync.
+         */
+        void notifyThrottleState(final boolean throttled, final long resumeDelayMs)
+        {
+            if ((throttled != _throttled) && !_cancelled)
+            {
+                _throttled = throttled;
+                _callback.onThrottleStateChanged(throttled, resumeDelayMs);
+            }
+        }
+
+        /**
+         * @brief Notifies of a scan mode change, only for sessions with an adaptive scan mode.
+         */
+        void notifyScanModeChanged(@NonNull final ScanModeStatistics statistics)
+        {
+            if (_adaptiveScanMode && !_cancelled)
+            {
+                _callback.onScanModeChanged(statistics);
+            }
+        }
+
+        @Override
+        public void onScanResult(final int callbackType, final ScanResult result)
+        {
+            if (_hardwarePresence)
+            {
+                BluetoothDevice device = result.getDevice();
+                if (isLowEnergyDevice(device) && matchesFilters(result) && !_cancelled)
+                {
+                    final long address = addressToNumber(device.getAddress());
+                    if (callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST)
+                    {
+                        _presentDevices.remove(address);
+                        _callback.onDeviceLost(device);
+                    }
+                    else
+                    {
+                        _presentDevices.put(address, device);
+                        _callback.onDeviceFound(result);
+                    }
+                }
+                return;
+            }
+            else if (callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST)
+            {
+                // Left over from a scan with presence tracked by the controller
+                return;
+            }
+
+            ArrayList<ScanResult> results = new ArrayList<>(1);
+            NotifyScanResult(result, results);
+            notifyResults(results);
+        }
+
+        @Override
+        public void onBatchScanResults(final List<ScanResult> results)
+        {
+            ArrayList<ScanResult> batch = new ArrayList<>(results.size());
+            for (ScanResult scan : results)
+            {
+                NotifyScanResult(scan, batch);
+            }
+            notifyResults(batch);
+        }
+
+        @Override
+    	public void onScanFailed(final int errorCode)
+        {
+            Log.e(TAG, "Scan failed with error " + errorCode);
+            _callback.onScanFailed(errorCode);
+        }
+
+        /**
+         * @brief Either adds the scan result to the list of results to notify
+         *        or keeps it for the next flush when coalescing.
+         */
+        private void NotifyScanResult(@NonNull final ScanResult scanResult, @NonNull final List<ScanResult> results)
+        {
+            BluetoothDevice device = scanResult.getDevice();
+            if (isLowEnergyDevice(device) && matchesFilters(scanResult))
+            {
+                final long address = addressToNumber(device.getAddress());
+                if ((_presenceTracker != null) && _presenceTracker.touch(address, device) && !_cancelled)
+                {
+                    _callback.onDeviceFound(scanResult);
+                }
+                if (_presenceOnly && (_presenceTracker != null))
+                {
+                    return;
+                }
+                if (_filterUnchanged && !hasChanged(address, scanResult))
+                {
+                    return;
+                }
+                if (_coalescingIntervalMs > 0)
+                {
+                    coalesceScanResult(address, scanResult);
+                }
+                else
+                {
+                    results.add(scanResult);
+                }
+            }
+        }
+
+        private boolean isLowEnergyDevice(final BluetoothDevice device)
+        {
+            // We should get only BLE devices
+            return (device != null)
+                && ((device.getType() == BluetoothDevice.DEVICE_TYPE_LE)
+                || (device.getType() == BluetoothDevice.DEVICE_TYPE_DUAL));
+        }
+
+        private boolean matchesFilters(@NonNull final ScanResult scanResult)
+        {
+            if (_scanFilters == null)
+            {
+                return true;
+            }
+            for (int i = 0; i < _scanFilters.size(); ++i)
+            {
+                if ((_filterSpecs != null)
+                    ? _filterSpecs.get(i).matches(_scanFilters.get(i), scanResult)
+                    : _scanFilters.get(i).matches(scanResult))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void onDeviceLost(@NonNull final BluetoothDevice device)
+        {
+            // Notify the next advertisement from this device
+            _notifiedAdvertisements.remove(addressToNumber(device.getAddress()));
+            if (!_cancelled)
+            {
+                _callback.onDeviceLost(device);
+            }
+        }
+
+        /**
+         * @brief Checks if the scan result should be notified and if so,
+         *        remembers it as the last notified advertisement of the device.
+         */
+        private boolean hasChanged(final long address, @NonNull final ScanResult scanResult)
+        {
+            ScanRecord scanRecord = scanResult.getScanRecord();
+            final int payloadHash = scanRecord != null ? Arrays.hashCode(scanRecord.getBytes()) : 0;
+            final int rssi = scanResult.getRssi();
+            final long now = SystemClock.uptimeMillis();
+
+            NotifiedAdvertisement adv = _notifiedAdvertisements.get(address);
+            if (adv == null)
+            {
+                adv = new NotifiedAdvertisement();
+                _notifiedAdvertisements.put(address, adv);
+            }
+            else if ((adv.payloadHash == payloadHash)
+                && (Math.abs(adv.rssi - rssi) <= _rssiThreshold)
+                && (now - adv.time < _heartbeatIntervalMs))
+            {
+                return false;
+            }
+
+            adv.payloadHash = payloadHash;
+            adv.rssi = rssi;
+            adv.time = now;
+            return true;
+        }
+
+        private void notifyResults(@NonNull final List<ScanResult> results)
+        {
+            if (results.size() == 1)
+            {
+                _callback.onScanResult(results.get(0));
+            }
+            else if (results.size() > 1)
+            {
+                _callback.onBatchScanResults(results);
+            }
+        }
+
+        private void coalesceScanResult(final long address, @NonNull final ScanResult scanResult)
+        {
+            synchronized (_pendingResults)
+            {
+                if (_cancelled)
+                {
+                    return;
+                }
+
+                // Replace any older result for the same device
+                _pendingResults.put(address, scanResult);
+
+                // Notify right away if the last notification is old enough,
+                // otherwise wait for the end of the interval
+                if (!_flushScheduled)
+                {
+                    _flushScheduled = true;
+                    long delay = _lastFlushTime + _coalescingIntervalMs - SystemClock.uptimeMillis();
+                    _handler.postDelayed(_flushRunnable, Math.max(0, delay));
+                }
+            }
+        }
+
+        private void flushPendingResults()
+        {
+            ArrayList<ScanResult> results;
+            synchronized (_pendingResults)
+            {
+                _flushScheduled = false;
+                if (_cancelled || _pendingResults.isEmpty())
+                {
+                    return;
+                }
+                _lastFlushTime = SystemClock.uptimeMillis();
+                results = new ArrayList<>(_pendingResults.values());
+                _pendingResults.clear();
+            }
+
+            // Notify outside of the lock
+            notifyResults(results);
+        }
     }
 }
@@ -0,0 +1,389 @@
+package com.systemic.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import no.nordicsemi.android.ble.callback.DataReceivedCallback;
+import no.nordicsemi.android.ble.data.Data;
+import no.nordicsemi.android.ble.data.DataMerger;
+
+/**
+ * @brief Keeps the listeners of the subscribed characteristics of a peripheral.
+ *
+ * Each notification is given to all the listeners of the characteristic.
+ * Notifications are enabled (CCCD written) when the first listener is added
+ * and disabled when the last one is removed, adding or removing other listeners
+ * doesn't involve any BLE request.
+ *
+ * Subscriptions may be suspended when the connection is lost and restored
+ * once reconnected, with the same listeners.
+ *
+ * A response listener may also be added to a subscribed characteristic, it's given
+ * the notifications after the other listeners until removed. Response listeners
+ * are not kept when the subscription is suspended.
+ *
+ * This class is thread safe.
+ */
+final class SubscriptionRegistry
+{
+    /**
+     * @brief Interface for the BLE manager operations on notifications.
+     */
+    interface Notifications
+    {
+        void setCallback(BluetoothGattCharacteristic characteristic, @Nullable DataMerger merger, DataReceivedCallback callback);
+
+        void removeCallback(BluetoothGattCharacteristic characteristic);
+
+        void enable(BluetoothGattCharacteristic characteristic, Peripheral.RequestCallback callback);
+
+        void disable(BluetoothGattCharacteristic characteristic, Peripheral.RequestCallback callback);
+    }
+
+    /**
+     * @brief Interface for finding a characteristic of the current connection.
+     */
+    interface CharacteristicResolver
+    {
+        @Nullable
+        BluetoothGattCharacteristic resolve(UUID serviceUuid, UUID characteristicUuid, int instanceIndex);
+    }
+
+    private static final String TAG = "SystemicGames";
+
+    private static final class Subscription implements DataReceivedCallback
+    {
+        final CopyOnWriteArrayList<DataReceivedCallback> listeners = new CopyOnWriteArrayList<>();
+        final CopyOnWriteArrayList<DataReceivedCallback> responseListeners = new CopyOnWriteArrayList<>();
+        final DataMerger merger;
+        // Callbacks waiting for notifications to be enabled, null once enabled
+        ArrayList<Peripheral.RequestCallback> pending = new ArrayList<>();
+
+        Subscription(@Nullable final DataMerger merger)
+        {
+            this.merger = merger;
+        }
+
+        @Override
+        public void onDataReceived(@NonNull final BluetoothDevice device, @NonNull final Data data)
+        {
+            for (DataReceivedCallback listener : listeners)
+            {
+                listener.onDataReceived(device, data);
+            }
+            for (DataReceivedCallback listener : responseListeners)
+            {
+                listener.onDataReceived(device, data);
+            }
+        }
+    }
+
+    private final Notifications _notifications;
+    private final HashMap<BluetoothGattCharacteristic, Subscription> _subscriptions = new HashMap<>();
+    // Subscriptions of the lost connection, identified by service UUID, characteristic UUID and instance index
+    private final ArrayList<Suspended> _suspended = new ArrayList<>();
+
+    private static final class Suspended
+    {
+        final UUID serviceUuid;
+        final UUID characteristicUuid;
+        final int instanceIndex;
+        final Subscription subscription;
+
+        Suspended(final UUID serviceUuid, final UUID characteristicUuid, final int instanceIndex, final Subscription subscription)
+        {
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.instanceIndex = instanceIndex;
+            this.subscription = subscription;
+        }
+    }
+
+    SubscriptionRegistry(@NonNull final Notifications notifications)
+    {
+        _notifications = notifications;
+    }
+
+    /**
+     * @brief Adds a listener to the characteristic, enabling notifications if it's the first one.
+     *
+     * The merger is only used for the first listener, and the request callback is notified
+     * once notifications are enabled.
+     */
+    void add(@NonNull final BluetoothDevice device, @NonNull final BluetoothGattCharacteristic characteristic, @Nullable final DataMerger merger, @NonNull final DataReceivedCallback listener, @NonNull final Peripheral.RequestCallback requestCallback)
+    {
+        final Subscription subscription;
+        final boolean enable, enabled;
+        synchronized (this)
+        {
+            Subscription existing = _subscriptions.get(characteristic);
+            enable = existing == null;
+            subscription = enable ? new Subscription(merger) : existing;
+            if (enable)
+            {
+                _subscriptions.put(characteristic, subscription);
+            }
+            subscription.listeners.add(listener);
+            enabled = subscription.pending == null;
+            if (!enabled)
+            {
+                subscription.pending.add(requestCallback);
+            }
+        }
+        if (enabled)
+        {
+            requestCallback.onRequestCompleted(device);
+        }
+        else if (enable)
+        {
+            _notifications.setCallback(characteristic, merger, subscription);
+            _notifications.enable(characteristic, new Peripheral.RequestCallback()
+            {
+                @Override
+                public void onRequestCompleted(@NonNull final BluetoothDevice device)
+                {
+                    for (Peripheral.RequestCallback cb : onEnabled(subscription, true))
+                    {
+                        cb.onRequestCompleted(device);
+                    }
+                }
+
+                @Override
+                public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+                {
+                    for (Peripheral.RequestCallback cb : onEnableFailed(characteristic, subscription))
+                    {
+                        cb.onRequestFailed(device, status);
+                    }
+                }
+
+                @Override
+                public void onInvalidRequest()
+                {
+                    for (Peripheral.RequestCallback cb : onEnableFailed(characteristic, subscription))
+                    {
+                        cb.onInvalidRequest();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @brief Removes a listener from the characteristic, disabling notifications if it was the last one.
+     */
+    void remove(@NonNull final BluetoothDevice device, @NonNull final BluetoothGattCharacteristic characteristic, @NonNull final DataReceivedCallback listener, @NonNull final Peripheral.RequestCallback requestCallback)
+    {
+        boolean disable = false;
+        synchronized (this)
+        {
+            removeSuspended(listener);
+            Subscription subscription = _subscriptions.get(characteristic);
+            if ((subscription != null) && subscription.listeners.remove(listener) && subscription.listeners.isEmpty())
+            {
+                _subscriptions.remove(characteristic);
+                disable = true;
+            }
+        }
+        if (disable)
+        {
+            disable(characteristic, requestCallback);
+        }
+        else
+        {
+            requestCallback.onRequestCompleted(device);
+        }
+    }
+
+    /**
+     * @brief Removes a listener from the suspended subscriptions so it's not restored.
+     */
+    synchronized void removeSuspended(@NonNull final DataReceivedCallback listener)
+    {
+        for (Suspended s : _suspended)
+        {
+            s.subscription.listeners.remove(listener);
+        }
+    }
+
+    /**
+     * @brief Adds a listener for a response notified by the characteristic,
+     *        it should be removed once the response is received.
+     *
+     * @return Whether the characteristic is subscribed, the listener isn't added otherwise.
+     */
+    synchronized boolean addResponseListener(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final DataReceivedCallback listener)
+    {
+        Subscription subscription = _subscriptions.get(characteristic);
+        if (subscription != null)
+        {
+            subscription.responseListeners.add(listener);
+        }
+        return subscription != null;
+    }
+
+    /**
+     * @brief Removes a response listener from the characteristic.
+     */
+    synchronized void removeResponseListener(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final DataReceivedCallback listener)
+    {
+        Subscription subscription = _subscriptions.get(characteristic);
+        if (subscription != null)
+        {
+            subscription.responseListeners.remove(listener);
+        }
+    }
+
+    /**
+     * @brief Removes all the listeners of the characteristic and disables notifications.
+     */
+    void removeAll(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final Peripheral.RequestCallback requestCallback)
+    {
+        synchronized (this)
+        {
+            _subscriptions.remove(characteristic);
+        }
+        disable(characteristic, requestCallback);
+    }
+
+    /**
+     * @brief Forgets all subscriptions, including the suspended ones,
+     *        to be called when the services are invalidated.
+     */
+    synchronized void clear()
+    {
+        _subscriptions.clear();
+        _suspended.clear();
+    }
+
+    /**
+     * @brief Forgets the subscriptions but keeps their listeners so they may be restored
+     *        with restore(), to be called when the services are invalidated.
+     *
+     * Subscriptions still waiting for notifications to be enabled are dropped.
+     */
+    synchronized void suspend()
+    {
+        for (Map.Entry<BluetoothGattCharacteristic, Subscription> entry : _subscriptions.entrySet())
+        {
+            final BluetoothGattCharacteristic characteristic = entry.getKey();
+            final Subscription subscription = entry.getValue();
+            final BluetoothGattService service = characteristic.getService();
+            if ((subscription.pending == null) && (service != null))
+            {
+                // Instance index of the characteristic among the ones with the same UUID
+                int instanceIndex = 0;
+                for (BluetoothGattCharacteristic charac : service.getCharacteristics())
+                {
+                    if (charac == characteristic)
+                    {
+                        break;
+                    }
+                    if (charac.getUuid().equals(characteristic.getUuid()))
+                    {
+                        ++instanceIndex;
+                    }
+                }
+                _suspended.add(new Suspended(service.getUuid(), characteristic.getUuid(), instanceIndex, subscription));
+            }
+        }
+        _subscriptions.clear();
+    }
+
+    /**
+     * @brief Subscribes again the listeners of the suspended subscriptions,
+     *        to be called once the services are discovered.
+     *
+     * Characteristics that are not found anymore are skipped, as well as
+     * the ones subscribed since the subscriptions were suspended.
+     */
+    void restore(@NonNull final BluetoothDevice device, @NonNull final CharacteristicResolver resolver)
+    {
+        final ArrayList<Suspended> suspended;
+        synchronized (this)
+        {
+            suspended = new ArrayList<>(_suspended);
+            _suspended.clear();
+        }
+        for (final Suspended s : suspended)
+        {
+            final BluetoothGattCharacteristic characteristic = resolver.resolve(s.serviceUuid, s.characteristicUuid, s.instanceIndex);
+            final boolean subscribed;
+            synchronized (this)
+            {
+                subscribed = _subscriptions.containsKey(characteristic);
+            }
+            if ((characteristic == null) || subscribed)
+            {
+                Log.w(TAG, "Not restoring subscription to characteristic " + s.characteristicUuid);
+                continue;
+            }
+            final Peripheral.RequestCallback callback = new Peripheral.RequestCallback()
+            {
+                @Override
+                public void onRequestCompleted(@NonNull final BluetoothDevice device)
+                {
+                }
+
+                @Override
+                public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+                {
+                    Log.w(TAG, "Failed to restore subscription to characteristic " + s.characteristicUuid + ", status: " + status);
+                }
+
+                @Override
+                public void onInvalidRequest()
+                {
+                    Log.w(TAG, "Invalid request to restore subscription to characteristic " + s.characteristicUuid);
+                }
+            };
+            for (DataReceivedCallback listener : s.subscription.listeners)
+            {
+                add(device, characteristic, s.subscription.merger, listener, callback);
+            }
+        }
+    }
+
+    private void disable(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final Peripheral.RequestCallback requestCallback)
+    {
+        _notifications.removeCallback(characteristic);
+        _notifications.disable(characteristic, requestCallback);
+    }
+
+    private synchronized ArrayList<Peripheral.RequestCallback> onEnabled(@NonNull final Subscription subscription, final boolean success)
+    {
+        ArrayList<Peripheral.RequestCallback> pending = subscription.pending;
+        subscription.pending = success ? null : new ArrayList<>();
+        return pending != null ? pending : new ArrayList<>();
+    }
+
+    private ArrayList<Peripheral.RequestCallback> onEnableFailed(@NonNull final BluetoothGattCharacteristic characteristic, @NonNull final Subscription subscription)
+    {
+        boolean removed = false;
+        synchronized (this)
+        {
+            // Drop the listeners as they won't be notified
+            if (_subscriptions.get(characteristic) == subscription)
+            {
+                _subscriptions.remove(characteristic);
+                removed = true;
+            }
+        }
+        if (removed)
+        {
+            _notifications.removeCallback(characteristic);
+        }
+        return onEnabled(subscription, false);
+    }
+}
@@ -0,0 +1,628 @@
+package com.systemic.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * @brief Paces the characteristic writes of a peripheral with a window of in-flight writes.
+ *
+ * A write is in flight from the time it is queued with the BLE manager until its
+ * completion is reported (onCharacteristicWrite). Writes without response exceeding
+ * the window wait in this class so a burst of them doesn't flood the stack.
+ * Writes with response are not limited by the window as the peripheral acknowledges
+ * each of them, but they still wait behind the writes queued before them.
+ *
+ * The window grows by one each time a full window of writes completes, and is halved
+ * when a write fails because the connection is congested. If that write is the last one
+ * given to the BLE manager, nothing more is sent until the writes in flight complete
+ * and then it's sent again first, up to MAX_RETRIES times. Otherwise later requests
+ * are already queued with the BLE manager and the write is reported as failed
+ * rather than being sent out of order.
+ *
+ * Other requests of the peripheral are given to runInOrder() so they are queued
+ * with the BLE manager only once the writes queued before them have been sent,
+ * and writes queued after them wait for them. This keeps the issue order of all
+ * the requests of the peripheral.
+ *
+ * Waiting writes are kept in a lane per priority class. The next write is taken from
+ * the highest priority lane, unless a lower priority lane has been passed over
+ * MAX_SKIPS times in which case it's served first. Bulk writes leave the last slot
+ * of the window free so an interactive write doesn't wait for a full window of writes.
+ * Writes of the same priority are sent in order, priorities don't apply across
+ * a request given to runInOrder().
+ *
+ * A bulk transfer is queued as a sequence of packets in its priority lane, with one
+ * completion and progress callback. Its packets are always limited by the window,
+ * with or without response, so other writes may be sent in between. A transfer
+ * fails with its first failed packet, its packets aren't retried on congestion
+ * as they would be sent out of order, and its waiting packets are dropped.
+ *
+ * A write may be given a coalescing key, in which case it replaces the waiting write
+ * with the same key, if any. The new write is queued after the other waiting writes
+ * and the caller is given the callback of the replaced write. Writes already sent to the BLE manager
+ * are never replaced. Only one write per key is in flight at a time, with or without
+ * response, so the next one waits in this class until the previous one completes.
+ *
+ * This class is thread safe.
+ */
+final class WritePacer
+{
+    private static final String TAG = "SystemicGames";
+
+    static final int MIN_WINDOW = 1;
+    static final int MAX_WINDOW = 16;
+    static final int INITIAL_WINDOW = 4;
+    static final int MAX_RETRIES = 3;
+    static final int MAX_SKIPS = 8;
+
+    private static final int LANES_COUNT = RequestPriority.values().length;
+
+    /**
+     * @brief Interface for queuing a write with the BLE manager.
+     */
+    interface Sender
+    {
+        void send(BluetoothGattCharacteristic characteristic, byte[] data, int writeType, Peripheral.RequestCallback callback);
+    }
+
+    private static final class Packet
+    {
+        final BluetoothGattCharacteristic characteristic;
+        final byte[] data;
+        final int writeType;
+        final Peripheral.RequestCallback callback;
+        final CoalescingKey key;
+        final Transfer transfer;
+        final int lane;
+        final long queuedTime; // Milliseconds since boot
+        final long order;
+        int retries;
+
+        Packet(final BluetoothGattCharacteristic characteristic, final byte[] data, final int writeType, final Peripheral.RequestCallback callback, final CoalescingKey key, final Transfer transfer, final RequestPriority priority, final long order)
+        {
+            this.characteristic = characteristic;
+            this.data = data;
+            this.writeType = writeType;
+            this.callback = callback;
+            this.key = key;
+            this.transfer = transfer;
+            this.lane = priority.ordinal();
+            this.queuedTime = SystemClock.elapsedRealtime();
+            this.order = order;
+        }
+
+        // Only writes without response and bulk transfers are limited by the window
+        boolean isPaced()
+        {
+            return (transfer != null) || (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    // The state of a bulk transfer, shared by its packets
+    private static final class Transfer
+    {
+        final Peripheral.RequestCallback callback;
+        final Peripheral.BulkWriteProgressCallback progressCallback;
+        final int totalBytes;
+        int remainingPackets;
+        int bytesSent;
+        boolean done;
+
+        Transfer(final Peripheral.RequestCallback callback, final Peripheral.BulkWriteProgressCallback progressCallback, final int totalBytes, final int packetsCount)
+        {
+            this.callback = callback;
+            this.progressCallback = progressCallback;
+            this.totalBytes = totalBytes;
+            this.remainingPackets = packetsCount;
+        }
+    }
+
+    // A request queued with runInOrder()
+    private static final class Barrier
+    {
+        final Runnable request;
+        final long order;
+
+        Barrier(final Runnable request, final long order)
+        {
+            this.request = request;
+            this.order = order;
+        }
+    }
+
+    // Coalescing keys are scoped to a characteristic
+    private static final class CoalescingKey
+    {
+        final BluetoothGattCharacteristic characteristic;
+        final String key;
+
+        CoalescingKey(final BluetoothGattCharacteristic characteristic, @NonNull final String key)
+        {
+            this.characteristic = characteristic;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof CoalescingKey))
+            {
+                return false;
+            }
+            CoalescingKey other = (CoalescingKey)obj;
+            return (characteristic == other.characteristic) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(characteristic) * 31 + key.hashCode();
+        }
+    }
+
+    private final Sender _sender;
+    // Waiting writes per priority
+    private final ArrayDeque<Packet>[] _lanes = newLanes();
+    // Number of times each lane was passed over for a higher priority one
+    private final int[] _skipped = new int[LANES_COUNT];
+    private final long[] _sentCount = new long[LANES_COUNT];
+    private final long[] _totalWaitTime = new long[LANES_COUNT];
+    private final long[] _maxWaitTime = new long[LANES_COUNT];
+    // Waiting writes with a coalescing key
+    private final HashMap<CoalescingKey, Packet> _coalescable = new HashMap<>();
+    // Coalescing keys of the writes in flight
+    private final HashSet<CoalescingKey> _keysInFlight = new HashSet<>();
+    // Requests waiting for the writes queued before them to be sent
+    private final ArrayDeque<Barrier> _barriers = new ArrayDeque<>();
+    // Issue order of the writes and of the other requests
+    private long _nextOrder;
+    private int _window = INITIAL_WINDOW;
+    // Number of writes without response in flight
+    private int _inFlight;
+    private int _completedInWindow;
+    private boolean _pumping;
+    // Last write or request given to the BLE manager
+    private Object _lastSent;
+    // Congested write to send again once no write is in flight
+    private Packet _retry;
+
+    WritePacer(@NonNull final Sender sender)
+    {
+        _sender = sender;
+    }
+
+    /**
+     * @brief Gets the current number of writes without response that may be in flight.
+     */
+    synchronized int getWindow()
+    {
+        return _window;
+    }
+
+    /**
+     * @brief Gets a snapshot of the waiting writes and of the wait times per priority.
+     */
+    @NonNull
+    synchronized RequestQueueStatistics getStatistics()
+    {
+        int[] depth = new int[LANES_COUNT];
+        for (int i = 0; i < LANES_COUNT; ++i)
+        {
+            depth[i] = _lanes[i].size();
+        }
+        return new RequestQueueStatistics(depth, _sentCount.clone(), _totalWaitTime.clone(), _maxWaitTime.clone());
+    }
+
+    /**
+     * @brief Queues a write, a write without response is sent once there is room in the window.
+     */
+    void write(final BluetoothGattCharacteristic characteristic, final byte[] data, final int writeType, final Peripheral.RequestCallback callback)
+    {
+        write(characteristic, data, writeType, null, RequestPriority.NORMAL, callback);
+    }
+
+    /**
+     * @brief Queues a write replacing the waiting write with the same coalescing key, if any.
+     *
+     * @return The callback of the replaced write, which is up to the caller to notify, or null.
+     */
+    @Nullable
+    Peripheral.RequestCallback write(final BluetoothGattCharacteristic characteristic, final byte[] data, final int writeType, @Nullable final String coalescingKey, @NonNull final RequestPriority priority, final Peripheral.RequestCallback callback)
+    {
+        final CoalescingKey key = coalescingKey != null ? new CoalescingKey(characteristic, coalescingKey) : null;
+        Packet replaced = null;
+        synchronized (this)
+        {
+            final Packet packet = new Packet(characteristic, data, writeType, callback, key, null, priority, _nextOrder++);
+            if (key != null)
+            {
+                replaced = _coalescable.put(key, packet);
+                if (replaced != null)
+                {
+                    _lanes[replaced.lane].remove(replaced);
+                }
+            }
+            _lanes[packet.lane].add(packet);
+        }
+        pump();
+        return replaced != null ? replaced.callback : null;
+    }
+
+    /**
+     * @brief Queues the packets of a bulk transfer, the callback is notified once
+     *        all of them have been written or when the first one fails.
+     *
+     * @param packets The packets to write in order, there must be at least one.
+     * @param progressCallback Notified each time a packet has been written, may be null.
+     */
+    void writeBulk(final BluetoothGattCharacteristic characteristic, @NonNull final byte[][] packets, final int writeType, @NonNull final RequestPriority priority, @Nullable final Peripheral.BulkWriteProgressCallback progressCallback, final Peripheral.RequestCallback callback)
+    {
+        if (packets.length == 0)
+        {
+            throw new IllegalArgumentException("A bulk transfer must have at least one packet");
+        }
+        int totalBytes = 0;
+        for (byte[] data : packets)
+        {
+            totalBytes += data.length;
+        }
+        final Transfer transfer = new Transfer(callback, progressCallback, totalBytes, packets.length);
+        synchronized (this)
+        {
+            for (byte[] data : packets)
+            {
+                _lanes[priority.ordinal()].add(new Packet(characteristic, data, writeType, null, null, transfer, priority, _nextOrder++));
+            }
+        }
+        pump();
+    }
+
+    /**
+     * @brief Runs the given request once the writes queued before it have been sent
+     *        to the BLE manager, the writes queued after it wait for it to be run.
+     *
+     * The request is run right away when no write is waiting, otherwise it's run
+     * on the thread reporting the completion of a write.
+     *
+     * @param request Queues the request with the BLE manager.
+     */
+    void runInOrder(@NonNull final Runnable request)
+    {
+        synchronized (this)
+        {
+            _barriers.add(new Barrier(request, _nextOrder++));
+        }
+        pump();
+    }
+
+    // Sends waiting writes while there is room in the window and runs the other requests
+    // in order, the BLE manager may report an invalid request synchronously so writes
+    // are sent outside the lock and a completion reported while pumping lets
+    // the running loop send the next write
+    private void pump()
+    {
+        synchronized (this)
+        {
+            if (_pumping)
+            {
+                return;
+            }
+            _pumping = true;
+        }
+        while (true)
+        {
+            Packet packet;
+            Barrier barrier = null;
+            synchronized (this)
+            {
+                if (_retry != null)
+                {
+                    if (_inFlight > 0)
+                    {
+                        // Wait for the writes in flight before sending the congested write again
+                        _pumping = false;
+                        return;
+                    }
+                    // Its coalescing key is still in flight
+                    packet = _retry;
+                    _retry = null;
+                    if (packet.isPaced())
+                    {
+                        ++_inFlight;
+                    }
+                    _lastSent = packet;
+                }
+                else
+                {
+                    // Writes queued after the next request wait for it
+                    final Barrier next = _barriers.peek();
+                    packet = pollNext(next != null ? next.order : Long.MAX_VALUE);
+                    if (packet != null)
+                    {
+                        if (packet.key != null)
+                        {
+                            // The write can't be replaced anymore
+                            _coalescable.remove(packet.key);
+                            _keysInFlight.add(packet.key);
+                        }
+                        if (packet.isPaced())
+                        {
+                            ++_inFlight;
+                        }
+                        _lastSent = packet;
+                    }
+                    else if ((next != null) && !hasWaitingBefore(next.order))
+                    {
+                        barrier = _barriers.poll();
+                        _lastSent = barrier;
+                    }
+                    else
+                    {
+                        _pumping = false;
+                        return;
+                    }
+                }
+            }
+            if (packet != null)
+            {
+                send(packet);
+            }
+            else
+            {
+                barrier.request.run();
+            }
+        }
+    }
+
+    // Whether a write queued before the given order is waiting
+    private boolean hasWaitingBefore(final long order)
+    {
+        for (ArrayDeque<Packet> lane : _lanes)
+        {
+            Packet head = lane.peek();
+            if ((head != null) && (head.order < order))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether the given write at the head of its lane may be sent now
+    private boolean canSend(@NonNull final Packet packet)
+    {
+        if ((packet.key != null) && _keysInFlight.contains(packet.key))
+        {
+            // Wait for the previous write with the same key, until then this one may be replaced
+            return false;
+        }
+        if (!packet.isPaced())
+        {
+            return true;
+        }
+        return (_inFlight < _window)
+            && ((packet.lane != RequestPriority.BULK.ordinal()) || (_window == 1) || (_inFlight < _window - 1));
+    }
+
+    // Takes the next write queued before the given order, or returns null
+    // if there is none that may be sent now
+    private Packet pollNext(final long beforeOrder)
+    {
+        int lane = -1;
+        for (int i = 0; i < LANES_COUNT; ++i)
+        {
+            final Packet head = _lanes[i].peek();
+            if ((head != null) && (head.order < beforeOrder) && canSend(head))
+            {
+                if (lane < 0)
+                {
+                    lane = i;
+                }
+                else if (_skipped[i] >= MAX_SKIPS)
+                {
+                    // Don't starve lower priorities
+                    lane = i;
+                    break;
+                }
+            }
+        }
+        if (lane < 0)
+        {
+            return null;
+        }
+        for (int i = 0; i < LANES_COUNT; ++i)
+        {
+            if (i == lane)
+            {
+                _skipped[i] = 0;
+            }
+            else if (!_lanes[i].isEmpty())
+            {
+                ++_skipped[i];
+            }
+        }
+        Packet packet = _lanes[lane].poll();
+        if (packet.retries == 0)
+        {
+            final long waitTime = SystemClock.elapsedRealtime() - packet.queuedTime;
+            ++_sentCount[lane];
+            _totalWaitTime[lane] += waitTime;
+            _maxWaitTime[lane] = Math.max(_maxWaitTime[lane], waitTime);
+        }
+        return packet;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Packet>[] newLanes()
+    {
+        ArrayDeque<Packet>[] lanes = new ArrayDeque[LANES_COUNT];
+        for (int i = 0; i < LANES_COUNT; ++i)
+        {
+            lanes[i] = new ArrayDeque<>();
+        }
+        return lanes;
+    }
+
+    private void send(@NonNull final Packet packet)
+    {
+        _sender.send(packet.characteristic, packet.data, packet.writeType, new Peripheral.RequestCallback()
+        {
+            @Override
+            public void onRequestCompleted(@NonNull final BluetoothDevice device)
+            {
+                onWriteCompleted(packet, true);
+                if (packet.transfer != null)
+                {
+                    onTransferPacketWritten(packet, device);
+                }
+                else if (packet.callback != null)
+                {
+                    packet.callback.onRequestCompleted(device);
+                }
+            }
+
+            @Override
+            public void onRequestFailed(@NonNull final BluetoothDevice device, final int status)
+            {
+                if ((status == BluetoothGatt.GATT_CONNECTION_CONGESTED) && onCongested(packet))
+                {
+                    // The write is sent again once the writes in flight complete
+                    pump();
+                }
+                else
+                {
+                    // Abort the transfer before sending the next waiting write
+                    final Peripheral.RequestCallback callback = getFailureCallback(packet);
+                    onWriteCompleted(packet, false);
+                    if (callback != null)
+                    {
+                        callback.onRequestFailed(device, status);
+                    }
+                }
+            }
+
+            @Override
+            public void onInvalidRequest()
+            {
+                final Peripheral.RequestCallback callback = getFailureCallback(packet);
+                onWriteCompleted(packet, false);
+                if (callback != null)
+                {
+                    callback.onInvalidRequest();
+                }
+            }
+        });
+    }
+
+    private void onTransferPacketWritten(@NonNull final Packet packet, @NonNull final BluetoothDevice device)
+    {
+        final Transfer transfer = packet.transfer;
+        final int bytesSent;
+        final boolean finished;
+        synchronized (this)
+        {
+            if (transfer.done)
+            {
+                return;
+            }
+            transfer.bytesSent += packet.data.length;
+            bytesSent = transfer.bytesSent;
+            finished = --transfer.remainingPackets == 0;
+            transfer.done = finished;
+        }
+        if (transfer.progressCallback != null)
+        {
+            transfer.progressCallback.onBulkWriteProgress(bytesSent, transfer.totalBytes);
+        }
+        if (finished && (transfer.callback != null))
+        {
+            transfer.callback.onRequestCompleted(device);
+        }
+    }
+
+    // Gets the callback to notify of the failure of the given write, a failed packet
+    // aborts its transfer and only the first failure is reported
+    @Nullable
+    private Peripheral.RequestCallback getFailureCallback(@NonNull final Packet packet)
+    {
+        final Transfer transfer = packet.transfer;
+        if (transfer == null)
+        {
+            return packet.callback;
+        }
+        synchronized (this)
+        {
+            if (transfer.done)
+            {
+                return null;
+            }
+            transfer.done = true;
+            // Drop the waiting packets of the transfer
+            Iterator<Packet> it = _lanes[packet.lane].iterator();
+            while (it.hasNext())
+            {
+                if (it.next().transfer == transfer)
+                {
+                    it.remove();
+                }
+            }
+        }
+        return transfer.callback;
+    }
+
+    private void onWriteCompleted(@NonNull final Packet packet, final boolean success)
+    {
+        synchronized (this)
+        {
+            if (packet.key != null)
+            {
+                // Lets the next write with the same key be sent
+                _keysInFlight.remove(packet.key);
+            }
+            // Writes with response don't use the window
+            if (packet.isPaced())
+            {
+                --_inFlight;
+                if (success && (++_completedInWindow >= _window))
+                {
+                    _completedInWindow = 0;
+                    _window = Math.min(MAX_WINDOW, _window + 1);
+                }
+            }
+        }
+        pump();
+    }
+
+    // Reduces the window and returns whether the given congested write is to be sent again,
+    // which is only the case if no other request was given to the BLE manager after it
+    private synchronized boolean onCongested(@NonNull final Packet packet)
+    {
+        _completedInWindow = 0;
+        _window = Math.max(MIN_WINDOW, _window / 2);
+        Log.w(TAG, "Connection congested, write window reduced to " + _window);
+        // Bulk packets are never retried, their transfer fails
+        if ((packet.transfer != null) || (packet.retries >= MAX_RETRIES)
+            || (_lastSent != packet) || (_retry != null))
+        {
+            return false;
+        }
+        ++packet.retries;
+        if (packet.isPaced())
+        {
+            --_inFlight;
+        }
+        _retry = packet;
+        return true;
+    }
+}
@@ -13,6 +13,32 @@ public enum BleEvent {
      */
     ScanResult("scanResult"),
 
+    /**
+     * Raised with a list of BLE scan results when batching scan results.
+     */
+    ScanResultBatch("scanResultBatch"),
+
+    /**
+     * Raised when a device is found or lost while scanning with presence tracking.
+     */
+    ScanPresence("scanPresence"),
+
+    /**
+     * Raised with a list of BLE scan results for a scan session.
+     */
+    ScanSessionResults("scanSessionResults"),
+
+    /**
+     * Raised when a scan start is delayed to not exceed the number of scans
+     * allowed by the OS, and again once the scan is started.
+     */
+    ScanThrottle("scanThrottle"),
+
+    /**
+     * Raised when the scan mode of an adaptive scan changes.
+     */
+    ScanMode("scanMode"),
+
     /**
      * Raised for each Peripheral connection event.
      */
@@ -21,7 +47,18 @@ public enum BleEvent {
     /**
      * Raised when a subscribed characteristic value changes.
      */
-    CharacteristicValueChanged("characteristicValueChanged");
+    CharacteristicValueChanged("characteristicValueChanged"),
+
+    /**
+     * Raised with the buffered value changes of a subscribed characteristic
+     * when coalescing notifications.
+     */
+    CharacteristicValuesChanged("characteristicValuesChanged"),
+
+    /**
+     * Raised with the progress of a bulk write.
+     */
+    WriteProgress("writeProgress");
 
     private String _name;
 
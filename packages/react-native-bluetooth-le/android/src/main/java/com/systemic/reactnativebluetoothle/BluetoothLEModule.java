@@ -5,6 +5,8 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -17,17 +19,26 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.systemic.bluetoothle.BluetoothState;
+import com.systemic.bluetoothle.ConnectionScheduler;
+import com.systemic.bluetoothle.ConnectionStatistics;
 import com.systemic.bluetoothle.Peripheral;
+import com.systemic.bluetoothle.ScanModeStatistics;
 import com.systemic.bluetoothle.Scanner;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import no.nordicsemi.android.ble.annotation.DisconnectionReason;
+import no.nordicsemi.android.ble.callback.DataReceivedCallback;
 import no.nordicsemi.android.ble.data.Data;
 import no.nordicsemi.android.ble.observer.ConnectionObserver;
 import no.nordicsemi.android.support.v18.scanner.ScanResult;
@@ -41,9 +52,21 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
     private final static String INVALID_ARGUMENT = "ERROR_INVALID_PARAMETER";
     private final static String INVALID_REQUEST = "ERROR_INVALID_REQUEST";
     private final static String UNKNOWN_PERIPHERAL = "ERROR_UNKNOWN_PERIPHERAL";
-
-    final HashMap<Long, BluetoothDevice> _devices = new HashMap<>(16);
-    final HashMap<Long, Peripheral> _peripherals = new HashMap<>(16);
+    // Timeout of each attempt to reconnect a peripheral when Bluetooth is turned on
+    private final static int RECONNECT_TIMEOUT_MS = 10000;
+
+    // Scanned devices and their peripherals, shared by the scan and connection callbacks
+    final DeviceRegistry _registry = new DeviceRegistry(DeviceRegistry.DEFAULT_CAPACITY);
+    // Background thread running the peripherals callbacks, created with the first peripheral
+    private HandlerThread _callbacksThread;
+    private Handler _callbacksHandler;
+    // Scanner session id for each JS scan session id
+    final HashMap<Integer, Integer> _scanSessions = new HashMap<>();
+    int _lastScanSessionId;
+    // Value changed listener of each characteristic subscribed from JS, see getListenerKey()
+    final ConcurrentHashMap<String, DataReceivedCallback> _jsListeners = new ConcurrentHashMap<>();
+    // Limits the concurrent connection attempts and retries failed ones, created on first use
+    private ConnectionScheduler _connectionScheduler;
 
     BluetoothLEModule(ReactApplicationContext context) {
         super(context);
@@ -66,6 +89,50 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         return "BluetoothLe";
     }
 
+    @Override
+    public void invalidate() {
+        synchronized (this) {
+            // The scheduler and the peripherals post to the callbacks handler,
+            // stop them before quitting its thread
+            if (_connectionScheduler != null) {
+                _connectionScheduler.cancelAll();
+                _connectionScheduler = null;
+            }
+            for (Peripheral peripheral : _registry.getPeripherals()) {
+                try {
+                    peripheral.setAutoReconnect(false);
+                    peripheral.disconnect(NOOP_CALLBACK);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Exception in invalidate(): " + ex);
+                }
+            }
+            if (_callbacksThread != null) {
+                _callbacksThread.quitSafely();
+                _callbacksThread = null;
+                _callbacksHandler = null;
+            }
+        }
+        super.invalidate();
+    }
+
+    @NonNull
+    synchronized ConnectionScheduler getConnectionScheduler() {
+        if (_connectionScheduler == null) {
+            _connectionScheduler = new ConnectionScheduler(getCallbacksHandler());
+        }
+        return _connectionScheduler;
+    }
+
+    @NonNull
+    synchronized Handler getCallbacksHandler() {
+        if (_callbacksHandler == null) {
+            _callbacksThread = new HandlerThread("BleCallbacks");
+            _callbacksThread.start();
+            _callbacksHandler = new Handler(_callbacksThread.getLooper());
+        }
+        return _callbacksHandler;
+    }
+
     @Nullable
     @Override
     public Map<String, Object> getConstants() {
@@ -95,6 +162,13 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
             .emit(event.getName(), params);
     }
 
+    void sendEvent(@NonNull BleEvent event,
+                   @NonNull WritableArray params) {
+        getReactApplicationContext()
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(event.getName(), params);
+    }
+
     void sendEvent(@NonNull BleEvent event,
                    @NonNull String propertyName,
                    @NonNull String propertyValue) {
@@ -128,7 +202,7 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
     }
 
     void sendConnectionEvent(long peripheralId, @NonNull BleConnectionEvent connectionEvent, @DisconnectionReason int reason) {
-        Peripheral peripheral = _peripherals.get(peripheralId);
+        Peripheral peripheral = _registry.getPeripheral(peripheralId);
         if (peripheral != null) {
             sendEvent(BleEvent.ConnectionEvent,
                 Serializer.toJS(peripheral, connectionEvent, reason));
@@ -166,7 +240,7 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
     Peripheral getPeripheralForRequest(String deviceSystemId, @NonNull Promise promise, boolean allowUnknown) {
         if (checkDeviceSystemIdForRequest(deviceSystemId, promise)) {
             long peripheralId = getPeripheralId(deviceSystemId);
-            Peripheral peripheral = _peripherals.get(peripheralId);
+            Peripheral peripheral = _registry.getPeripheral(peripheralId);
             if (peripheral == null) {
                 if (allowUnknown) {
                     promise.resolve(Serializer.systemIdToJS(deviceSystemId));
@@ -229,11 +303,35 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         runRequest(deviceSystemId, requestName, promise, runner, false);
     }
 
+    static final Peripheral.RequestCallback NOOP_CALLBACK = new Peripheral.RequestCallback() {
+        public void onRequestCompleted(@NonNull BluetoothDevice device) {
+        }
+
+        public void onRequestFailed(@NonNull BluetoothDevice device, int status) {
+        }
+
+        public void onInvalidRequest() {
+        }
+    };
+
+    @NonNull
+    static String getListenerKey(long peripheralId, @NonNull UUID serviceUuid, @NonNull UUID characteristicUuid, int instanceIndex) {
+        return peripheralId + "/" + serviceUuid + "/" + characteristicUuid + "/" + instanceIndex;
+    }
+
     @ReactMethod
     public void bleInitialize(Promise promise) {
         // TODO request permissions
         BluetoothState.startMonitoring(getReactApplicationContext(), new BluetoothState.StateCallback() {
             public void onStateChanged(int state) {
+                if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                    // The OS stops all scans
+                    Scanner.onBluetoothDisabled();
+                } else if (state == BluetoothAdapter.STATE_ON) {
+                    // Resume scan sessions
+                    Scanner.onBluetoothEnabled();
+                    reconnectPeripherals();
+                }
                 if (checkBluetoothPermission()) {
                     sendBluetoothStateEvent(BluetoothStateEvent.fromInt(state));
                 } else {
@@ -245,6 +343,24 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         promise.resolve(null);
     }
 
+    // Reconnects the peripherals with auto-reconnect enabled that lost their connection,
+    // the connection scheduler limits the number of concurrent attempts
+    void reconnectPeripherals() {
+        for (Peripheral peripheral : _registry.getPeripherals()) {
+            if (peripheral.shouldReconnect()) {
+                Log.i(TAG, "Reconnecting to " + peripheral.getAddress());
+                try {
+                    getConnectionScheduler().connect(peripheral,
+                        peripheral.getRequiredServicesUuids(),
+                        RECONNECT_TIMEOUT_MS,
+                        NOOP_CALLBACK);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Exception in reconnectPeripherals(): " + ex);
+                }
+            }
+        }
+    }
+
     @ReactMethod
     public void bleShutdown(Promise promise) {
         // TODO disconnect all peripherals + make a call to bleInitialize() wait on this one to complete
@@ -257,21 +373,101 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         promise.resolve(getBluetoothStateEvent().getName());
     }
 
+    /**
+     * Sends the events of a scan or of a scan session to JS.
+     */
+    private class ScanEventsCallback implements Scanner.ScannerCallback {
+        private final int _sessionId; // Zero for the scan started with startScan()
+        private final boolean _batchResults;
+        private final boolean _decodePixelsData;
+
+        ScanEventsCallback(int sessionId, @Nullable ReadableMap options) {
+            _sessionId = sessionId;
+            // Whether to send all scan results as batches, even when there is only one
+            _batchResults = sessionId != 0 || (options != null
+                && Serializer.hasValue(options, "batchResults") && options.getBoolean("batchResults"));
+            // Whether to decode the advertisement data of Pixels devices
+            _decodePixelsData = options != null
+                && Serializer.hasValue(options, "decodePixelsData") && options.getBoolean("decodePixelsData");
+        }
+
+        public void onScanResult(ScanResult scanResult) {
+            if (_batchResults) {
+                onBatchScanResults(Collections.singletonList(scanResult));
+            } else {
+                BluetoothDevice device = scanResult.getDevice();
+                _registry.putDevice(Utils.addressToNumber(device.getAddress()), device);
+                sendEvent(BleEvent.ScanResult,
+                    Serializer.toJS(device, scanResult, _decodePixelsData));
+            }
+        }
+
+        public void onBatchScanResults(List<ScanResult> scanResults) {
+            if (_batchResults) {
+                for (ScanResult scanResult : scanResults) {
+                    BluetoothDevice device = scanResult.getDevice();
+                    _registry.putDevice(Utils.addressToNumber(device.getAddress()), device);
+                }
+                WritableArray results = Serializer.toJS(scanResults, _decodePixelsData);
+                if (_sessionId != 0) {
+                    WritableMap map = Arguments.createMap();
+                    map.putInt("sessionId", _sessionId);
+                    map.putArray("results", results);
+                    sendEvent(BleEvent.ScanSessionResults, map);
+                } else {
+                    sendEvent(BleEvent.ScanResultBatch, results);
+                }
+            } else {
+                Scanner.ScannerCallback.super.onBatchScanResults(scanResults);
+            }
+        }
+
+        public void onDeviceFound(ScanResult scanResult) {
+            BluetoothDevice device = scanResult.getDevice();
+            _registry.putDevice(Utils.addressToNumber(device.getAddress()), device);
+            WritableMap map = Serializer.toJS(device, scanResult, _decodePixelsData);
+            map.putString("presence", "found");
+            sendSessionEvent(BleEvent.ScanPresence, map);
+        }
+
+        public void onDeviceLost(BluetoothDevice device) {
+            WritableMap map = Serializer.toJS(device, null);
+            map.putString("presence", "lost");
+            sendSessionEvent(BleEvent.ScanPresence, map);
+        }
+
+        public void onThrottleStateChanged(boolean throttled, long resumeDelayMs) {
+            WritableMap map = Arguments.createMap();
+            map.putBoolean("throttled", throttled);
+            map.putDouble("delay", resumeDelayMs);
+            map.putInt("startsCount", Scanner.getRecentScanStartsCount());
+            sendSessionEvent(BleEvent.ScanThrottle, map);
+        }
+
+        public void onScanModeChanged(ScanModeStatistics statistics) {
+            sendSessionEvent(BleEvent.ScanMode, Serializer.toJS(statistics));
+        }
+
+        public void onScanFailed(int errorCode) {
+            WritableMap map = Arguments.createMap();
+            map.putString("error", Serializer.scanErrorToString(errorCode));
+            sendSessionEvent(_sessionId != 0 ? BleEvent.ScanSessionResults : BleEvent.ScanResult, map);
+        }
+
+        private void sendSessionEvent(@NonNull BleEvent event, @NonNull WritableMap map) {
+            if (_sessionId != 0) {
+                map.putInt("sessionId", _sessionId);
+            }
+            sendEvent(event, map);
+        }
+    }
+
     @ReactMethod
-    public void startScan(String servicesUuids, Promise promise) {
+    public void startScan(String servicesUuids, @Nullable ReadableMap options, Promise promise) {
         try {
             Scanner.startScan(servicesUuids,
-                new Scanner.ScannerCallback() {
-                    public void onScanResult(ScanResult scanResult) {
-                        BluetoothDevice device = scanResult.getDevice();
-                        _devices.put(Utils.addressToNumber(device.getAddress()), device);
-                        sendEvent(BleEvent.ScanResult,
-                            Serializer.toJS(device, scanResult));
-                    }
-                    public void onScanFailed(int errorCode) {
-                        sendEvent(BleEvent.ScanResult, "error", Serializer.scanErrorToString(errorCode));
-                    }
-                });
+                Serializer.scanOptionsFromJS(options),
+                new ScanEventsCallback(0, options));
             promise.resolve(null);
         } catch (Exception ex) {
             processExceptionForRequest("startScan", ex, promise);
@@ -288,6 +484,33 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         }
     }
 
+    @ReactMethod
+    public void startScanSession(String servicesUuids, @Nullable ReadableMap options, Promise promise) {
+        try {
+            // Session ids are given before starting the session so scan events may be sent right away
+            final int sessionId = ++_lastScanSessionId;
+            _scanSessions.put(sessionId, Scanner.startSession(servicesUuids,
+                Serializer.scanOptionsFromJS(options),
+                new ScanEventsCallback(sessionId, options)));
+            promise.resolve(sessionId);
+        } catch (Exception ex) {
+            processExceptionForRequest("startScanSession", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void stopScanSession(int sessionId, Promise promise) {
+        try {
+            Integer scannerSessionId = _scanSessions.remove(sessionId);
+            if (scannerSessionId != null) {
+                Scanner.stopSession(scannerSessionId);
+            }
+            promise.resolve(scannerSessionId != null);
+        } catch (Exception ex) {
+            processExceptionForRequest("stopScanSession", ex, promise);
+        }
+    }
+
     @ReactMethod
     public void createPeripheral(String deviceSystemId, @NonNull Promise promise) {
         try {
@@ -295,15 +518,12 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
                 return;
             }
             long peripheralId = getPeripheralId(deviceSystemId);
-            Peripheral peripheral = _peripherals.get(peripheralId);
+            Peripheral peripheral = _registry.getPeripheral(peripheralId);
             if (peripheral == null && peripheralId != 0) {
-                BluetoothDevice device = _devices.get(peripheralId);
+                BluetoothDevice device = _registry.getDevice(peripheralId);
                 if (device == null) {
                     device = Scanner.getDeviceFromAddress(
                         getReactApplicationContext(), peripheralId);
-                    if (device != null) {
-                        _devices.put(peripheralId, device);
-                    }
                 }
                 if (device != null) {
                     peripheral = new Peripheral(getReactApplicationContext(), device, new ConnectionObserver() {
@@ -332,8 +552,8 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
                                                          @DisconnectionReason int reason) {
                             sendConnectionEvent(peripheralId, BleConnectionEvent.Disconnected, reason);
                         }
-                    });
-                    _peripherals.put(peripheralId, peripheral);
+                    }, getCallbacksHandler());
+                    _registry.putPeripheral(peripheralId, device, peripheral);
                 }
             }
             if (peripheral != null) {
@@ -350,9 +570,20 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
     public void releasePeripheral(String deviceSystemId) {
         try {
             long peripheralId = getPeripheralId(deviceSystemId);
-            Peripheral peripheral = _peripherals.get(peripheralId);
+            Peripheral peripheral = _registry.removePeripheral(peripheralId);
+            String prefix = peripheralId + "/";
+            for (String key : _jsListeners.keySet()) {
+                if (key.startsWith(prefix)) {
+                    _jsListeners.remove(key);
+                }
+            }
             if (peripheral != null) {
-                _peripherals.remove(peripheralId);
+                if (peripheral.isAutoReconnectEnabled()) {
+                    // Otherwise it would keep reconnecting in the background
+                    peripheral.setAutoReconnect(false);
+                    getConnectionScheduler().cancel(peripheral);
+                    peripheral.disconnect(NOOP_CALLBACK);
+                }
                 // TODO peripheral.disconnect();
             }
         } catch (Exception ex) {
@@ -368,7 +599,55 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         runRequest(deviceSystemId,
             "connect",
             promise,
-            (peripheral, callback) -> peripheral.connect(requiredServicesUuids, timeoutMs, callback));
+            (peripheral, callback) -> getConnectionScheduler().connect(peripheral, requiredServicesUuids, timeoutMs, callback));
+    }
+
+    @ReactMethod
+    public void setPeripheralAutoReconnect(String deviceSystemId, boolean enabled, @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                peripheral.setAutoReconnect(enabled);
+                promise.resolve(null);
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("setPeripheralAutoReconnect", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void setConnectionOptions(@NonNull ReadableMap options, @NonNull Promise promise) {
+        try {
+            ConnectionScheduler scheduler = getConnectionScheduler();
+            if (Serializer.hasValue(options, "maxConcurrentConnects")) {
+                scheduler.setMaxConcurrentConnects(options.getInt("maxConcurrentConnects"));
+            }
+            scheduler.setRetryPolicy(
+                Serializer.hasValue(options, "maxRetries")
+                    ? options.getInt("maxRetries") : ConnectionScheduler.DEFAULT_MAX_RETRIES,
+                Serializer.hasValue(options, "retryDelay")
+                    ? (long)options.getDouble("retryDelay") : ConnectionScheduler.DEFAULT_RETRY_DELAY_MS,
+                Serializer.hasValue(options, "maxRetryDelay")
+                    ? (long)options.getDouble("maxRetryDelay") : ConnectionScheduler.DEFAULT_MAX_RETRY_DELAY_MS,
+                Serializer.hasValue(options, "cacheRefreshFailures")
+                    ? options.getInt("cacheRefreshFailures") : ConnectionScheduler.DEFAULT_CACHE_REFRESH_FAILURES);
+            promise.resolve(null);
+        } catch (Exception ex) {
+            processExceptionForRequest("setConnectionOptions", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void getPeripheralConnectionStatistics(String deviceSystemId, @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                ConnectionStatistics statistics = getConnectionScheduler().getStatistics(peripheral.getAddress());
+                promise.resolve(statistics == null ? null : Serializer.toJS(statistics));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("getPeripheralConnectionStatistics", ex, promise);
+        }
     }
 
     @ReactMethod
@@ -376,7 +655,11 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         runRequest(deviceSystemId,
             "disconnect",
             promise,
-            (peripheral, callback) -> peripheral.disconnect(callback),
+            (peripheral, callback) -> {
+                // Drop the connection request if it's waiting for its turn or a retry
+                getConnectionScheduler().cancel(peripheral);
+                peripheral.disconnect(callback);
+            },
             true); // Don't reject if given an invalid id
     }
 
@@ -466,6 +749,45 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         }
     }
 
+    @ReactMethod
+    public void startHighThroughputSession(String deviceSystemId, @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                final String requestName = "start high throughput session";
+                peripheral.startHighThroughputSession(new Peripheral.ThroughputRequestCallback() {
+                    public void onThroughputParametersObtained(@NonNull BluetoothDevice device,
+                                                               @NonNull Peripheral.ThroughputParameters parameters) {
+                        promise.resolve(Serializer.toJS(parameters));
+                    }
+
+                    public void onRequestFailed(@NonNull BluetoothDevice device,
+                                                int status) {
+                        promise.reject(
+                            Serializer.statusToString(status),
+                            String.format("Failed to %s", requestName),
+                            Serializer.toJS(device));
+                    }
+
+                    public void onInvalidRequest() {
+                        promise.reject(INVALID_REQUEST,
+                            String.format("Peripheral not in required state to %s", requestName));
+                    }
+                });
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("startHighThroughputSession", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void stopHighThroughputSession(String deviceSystemId, boolean lowPower, @NonNull Promise promise) {
+        runRequest(deviceSystemId,
+            "stop high throughput session",
+            promise,
+            (peripheral, callback) -> peripheral.stopHighThroughputSession(lowPower, callback));
+    }
+
     @ReactMethod
     public void readPeripheralRssi(String deviceSystemId, @NonNull Promise promise) {
         try {
@@ -546,12 +868,77 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
         }
     }
 
+    // Handles identify a characteristic without passing its UUIDs for each request,
+    // they are only valid until the services are discovered again (on reconnection)
+    @ReactMethod
+    public void getCharacteristicHandle(String deviceSystemId,
+                                        String serviceUuid,
+                                        String characteristicUuid,
+                                        int instanceIndex,
+                                        @NonNull Promise promise) {
+        try {
+            if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
+                !checkStringForRequest("characteristicUuid", characteristicUuid, promise)) {
+                return;
+            }
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                promise.resolve(peripheral.getCharacteristicHandle(serviceUuid, characteristicUuid, instanceIndex));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("getCharacteristicHandle", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void setCharacteristicReadCacheDuration(String deviceSystemId, int durationMs, @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                peripheral.setReadCacheDuration(durationMs);
+                promise.resolve(null);
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("setCharacteristicReadCacheDuration", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void getPeripheralQueueStatistics(String deviceSystemId, @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                promise.resolve(Serializer.toJS(peripheral.getRequestQueueStatistics()));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("getPeripheralQueueStatistics", ex, promise);
+        }
+    }
+
     @ReactMethod
     public void readCharacteristic(String deviceSystemId,
                                    String serviceUuid,
                                    String characteristicUuid,
                                    int instanceIndex,
                                    @NonNull Promise promise) {
+        readCharacteristic(deviceSystemId, serviceUuid, characteristicUuid, instanceIndex, false, promise);
+    }
+
+    @ReactMethod
+    public void readCharacteristicBase64(String deviceSystemId,
+                                         String serviceUuid,
+                                         String characteristicUuid,
+                                         int instanceIndex,
+                                         @NonNull Promise promise) {
+        readCharacteristic(deviceSystemId, serviceUuid, characteristicUuid, instanceIndex, true, promise);
+    }
+
+    void readCharacteristic(String deviceSystemId,
+                            String serviceUuid,
+                            String characteristicUuid,
+                            int instanceIndex,
+                            boolean base64,
+                            @NonNull Promise promise) {
         try {
             if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
                 !checkStringForRequest("characteristicUuid", characteristicUuid, promise)) {
@@ -559,33 +946,55 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
             }
             Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
             if (peripheral != null) {
-                final String requestName = "read characteristic";
                 peripheral.readCharacteristic(
                     serviceUuid,
                     characteristicUuid,
                     instanceIndex,
-                    new Peripheral.ReadValueRequestCallback() {
-                        public void onDataReceived(@NonNull BluetoothDevice device, @NonNull Data data) {
-                            promise.resolve(Serializer.toJS(data));
-                        }
-
-                        public void onRequestFailed(@NonNull BluetoothDevice device, int status) {
-                            promise.reject(
-                                Serializer.statusToString(status),
-                                String.format("Failed to %s", requestName),
-                                Serializer.toJS(device));
-                        }
-
-                        public void onInvalidRequest() {
-                            promise.reject(INVALID_REQUEST, String.format("Peripheral not in required state to %s", requestName));
-                        }
-                    });
+                    createReadCallback("read characteristic", base64, promise));
             }
         } catch (Exception ex) {
             processExceptionForRequest("readCharacteristic", ex, promise);
         }
     }
 
+    // Same as readCharacteristicBase64() but for the characteristic with the given handle
+    @ReactMethod
+    public void readCharacteristicByHandle(String deviceSystemId,
+                                           int handle,
+                                           @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                peripheral.readCharacteristic(handle, createReadCallback("read characteristic", true, promise));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("readCharacteristicByHandle", ex, promise);
+        }
+    }
+
+    Peripheral.ReadValueRequestCallback createReadCallback(@NonNull String requestName, boolean base64, @NonNull Promise promise) {
+        return new Peripheral.ReadValueRequestCallback() {
+            public void onDataReceived(@NonNull BluetoothDevice device, @NonNull Data data) {
+                if (base64) {
+                    promise.resolve(Serializer.toBase64(data));
+                } else {
+                    promise.resolve(Serializer.toJS(data));
+                }
+            }
+
+            public void onRequestFailed(@NonNull BluetoothDevice device, int status) {
+                promise.reject(
+                    Serializer.statusToString(status),
+                    String.format("Failed to %s", requestName),
+                    Serializer.toJS(device));
+            }
+
+            public void onInvalidRequest() {
+                promise.reject(INVALID_REQUEST, String.format("Peripheral not in required state to %s", requestName));
+            }
+        };
+    }
+
     @ReactMethod
     public void writeCharacteristic(String deviceSystemId,
                                     String serviceUuid,
@@ -612,34 +1021,267 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
             });
     }
 
+    @ReactMethod
+    public void writeCharacteristicBase64(String deviceSystemId,
+                                          String serviceUuid,
+                                          String characteristicUuid,
+                                          int instanceIndex,
+                                          String data,
+                                          boolean withoutResponse,
+                                          @Nullable String coalescingKey,
+                                          @Nullable String priority,
+                                          @NonNull Promise promise) {
+        if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
+            !checkStringForRequest("characteristicUuid", characteristicUuid, promise)) {
+            return;
+        }
+        runRequest(deviceSystemId,
+            "write characteristic",
+            promise,
+            (peripheral, callback) -> {
+                peripheral.writeCharacteristic(
+                    serviceUuid,
+                    characteristicUuid,
+                    instanceIndex,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    coalescingKey,
+                    Serializer.priorityFromJS(priority),
+                    callback);
+            });
+    }
+
+    // Same as writeCharacteristicBase64() but for the characteristic with the given handle
+    @ReactMethod
+    public void writeCharacteristicByHandle(String deviceSystemId,
+                                            int handle,
+                                            String data,
+                                            boolean withoutResponse,
+                                            @Nullable String coalescingKey,
+                                            @Nullable String priority,
+                                            @NonNull Promise promise) {
+        runRequest(deviceSystemId,
+            "write characteristic",
+            promise,
+            (peripheral, callback) -> {
+                peripheral.writeCharacteristic(
+                    handle,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    coalescingKey,
+                    Serializer.priorityFromJS(priority),
+                    callback);
+            });
+    }
+
+    @ReactMethod
+    public void writeCharacteristicAndWaitForResponse(String deviceSystemId,
+                                                      String serviceUuid,
+                                                      String characteristicUuid,
+                                                      int instanceIndex,
+                                                      String data,
+                                                      boolean withoutResponse,
+                                                      String notifyCharacteristicUuid,
+                                                      int notifyInstanceIndex,
+                                                      int responseType,
+                                                      int timeoutMs,
+                                                      @NonNull Promise promise) {
+        try {
+            if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
+                !checkStringForRequest("characteristicUuid", characteristicUuid, promise) ||
+                !checkStringForRequest("notifyCharacteristicUuid", notifyCharacteristicUuid, promise)) {
+                return;
+            }
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                peripheral.writeCharacteristicAndWaitForResponse(
+                    serviceUuid,
+                    characteristicUuid,
+                    instanceIndex,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    notifyCharacteristicUuid,
+                    notifyInstanceIndex,
+                    responseType,
+                    timeoutMs,
+                    createReadCallback("write characteristic and wait for response", true, promise));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("writeCharacteristicAndWaitForResponse", ex, promise);
+        }
+    }
+
+    // Same as writeCharacteristicAndWaitForResponse() but for the characteristics with the given handles
+    @ReactMethod
+    public void writeCharacteristicAndWaitForResponseByHandle(String deviceSystemId,
+                                                              int handle,
+                                                              String data,
+                                                              boolean withoutResponse,
+                                                              int notifyHandle,
+                                                              int responseType,
+                                                              int timeoutMs,
+                                                              @NonNull Promise promise) {
+        try {
+            Peripheral peripheral = getPeripheralForRequest(deviceSystemId, promise);
+            if (peripheral != null) {
+                peripheral.writeCharacteristicAndWaitForResponse(
+                    handle,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    notifyHandle,
+                    responseType,
+                    timeoutMs,
+                    createReadCallback("write characteristic and wait for response", true, promise));
+            }
+        } catch (Exception ex) {
+            processExceptionForRequest("writeCharacteristicAndWaitForResponseByHandle", ex, promise);
+        }
+    }
+
+    @ReactMethod
+    public void writeCharacteristicBulk(String deviceSystemId,
+                                        String serviceUuid,
+                                        String characteristicUuid,
+                                        int instanceIndex,
+                                        String data,
+                                        boolean withoutResponse,
+                                        int transferId,
+                                        @NonNull Promise promise) {
+        if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
+            !checkStringForRequest("characteristicUuid", characteristicUuid, promise)) {
+            return;
+        }
+        runRequest(deviceSystemId,
+            "write characteristic",
+            promise,
+            (peripheral, callback) -> {
+                peripheral.writeCharacteristicBulk(
+                    serviceUuid,
+                    characteristicUuid,
+                    instanceIndex,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    createBulkProgressCallback(transferId),
+                    callback);
+            });
+    }
+
+    // Same as writeCharacteristicBulk() but for the characteristic with the given handle
+    @ReactMethod
+    public void writeCharacteristicBulkByHandle(String deviceSystemId,
+                                                int handle,
+                                                String data,
+                                                boolean withoutResponse,
+                                                int transferId,
+                                                @NonNull Promise promise) {
+        runRequest(deviceSystemId,
+            "write characteristic",
+            promise,
+            (peripheral, callback) -> {
+                peripheral.writeCharacteristicBulk(
+                    handle,
+                    Serializer.fromBase64(data),
+                    withoutResponse,
+                    createBulkProgressCallback(transferId),
+                    callback);
+            });
+    }
+
+    // Progress events are sent only when a transfer id is given, at most once per percent
+    @Nullable
+    Peripheral.BulkWriteProgressCallback createBulkProgressCallback(int transferId) {
+        if (transferId == 0) {
+            return null;
+        }
+        final int[] lastPercent = { -1 };
+        return (bytesSent, totalBytes) -> {
+            int percent = totalBytes > 0 ? (int) (100L * bytesSent / totalBytes) : 100;
+            if (percent != lastPercent[0]) {
+                lastPercent[0] = percent;
+                WritableMap map = Arguments.createMap();
+                map.putInt("transferId", transferId);
+                map.putInt("bytesSent", bytesSent);
+                map.putInt("totalBytes", totalBytes);
+                sendEvent(BleEvent.WriteProgress, map);
+            }
+        };
+    }
+
     @ReactMethod
     public void subscribeCharacteristic(String deviceSystemId,
                                         String serviceUuid,
                                         String characteristicUuid,
                                         int instanceIndex,
+                                        @Nullable ReadableMap options,
                                         @NonNull Promise promise) {
         if (!checkStringForRequest("serviceUuid", serviceUuid, promise) ||
             !checkStringForRequest("characteristicUuid", characteristicUuid, promise)) {
             return;
         }
+        // Notifications are sent one by one unless a coalescing window is given
+        final int coalescingInterval = options != null && Serializer.hasValue(options, "coalescingInterval")
+            ? options.getInt("coalescingInterval") : 0;
+        final int coalescingCount = options != null && Serializer.hasValue(options, "coalescingCount")
+            ? options.getInt("coalescingCount") : 0;
+        // Whether to send the values as base64 strings rather than arrays of bytes
+        final boolean base64 = options != null && Serializer.hasValue(options, "base64")
+            && options.getBoolean("base64");
+        // Optional reassembly of messages sent over several notifications
+        final ReadableMap framing = options != null && Serializer.hasValue(options, "framing")
+            ? options.getMap("framing") : null;
         runRequest(deviceSystemId,
             "subscribe characteristic",
             promise,
-            (peripheral, callback) -> peripheral.subscribeCharacteristic(
-                serviceUuid,
-                characteristicUuid,
-                instanceIndex,
-                (device, data) -> {
-                    // Make sure peripheral is still valid
-                    Peripheral p = _peripherals.get(Utils.addressToNumber(peripheral.getAddress()));
-                    if (p != null) {
-                        UUID serv = UUID.fromString(serviceUuid); // TODO we should get this info from the callback
-                        UUID charac = UUID.fromString(characteristicUuid);
-                        sendEvent(BleEvent.CharacteristicValueChanged,
-                            Serializer.toJS(p, serv, charac, instanceIndex, data));
-                    }
-                },
-                callback));
+            (peripheral, callback) -> {
+                // Parse the UUIDs once rather than for each notification
+                UUID serv = UUID.fromString(serviceUuid);
+                UUID charac = UUID.fromString(characteristicUuid);
+                long peripheralId = Utils.addressToNumber(peripheral.getAddress());
+                DataReceivedCallback valueChangedCallback;
+                if (coalescingInterval > 0 || coalescingCount > 1) {
+                    NotificationBatcher batcher = new NotificationBatcher(
+                        getCallbacksHandler(),
+                        coalescingInterval,
+                        coalescingCount,
+                        notifications -> {
+                            // Make sure peripheral is still valid
+                            Peripheral p = _registry.getPeripheral(peripheralId);
+                            if (p != null) {
+                                sendEvent(BleEvent.CharacteristicValuesChanged,
+                                    Serializer.toJS(p, serv, charac, instanceIndex, notifications, base64));
+                            }
+                        });
+                    valueChangedCallback = (device, data) -> batcher.add(data);
+                } else {
+                    valueChangedCallback = (device, data) -> {
+                        // Make sure peripheral is still valid
+                        Peripheral p = _registry.getPeripheral(peripheralId);
+                        if (p != null) {
+                            sendEvent(BleEvent.CharacteristicValueChanged,
+                                Serializer.toJS(p, serv, charac, instanceIndex, data, base64));
+                        }
+                    };
+                }
+                peripheral.subscribeCharacteristic(
+                    serviceUuid,
+                    characteristicUuid,
+                    instanceIndex,
+                    framing != null ? Serializer.mergerFromJS(framing) : null,
+                    valueChangedCallback,
+                    callback);
+                // Replace the previous listener once the new one is added
+                // so notifications stay enabled
+                DataReceivedCallback previous = _jsListeners.put(
+                    getListenerKey(peripheralId, serv, charac, instanceIndex), valueChangedCallback);
+                if (previous != null) {
+                    peripheral.unsubscribeCharacteristic(
+                        serviceUuid,
+                        characteristicUuid,
+                        instanceIndex,
+                        previous,
+                        NOOP_CALLBACK);
+                }
+            });
     }
 
     @ReactMethod
@@ -656,10 +1298,18 @@ public final class BluetoothLEModule extends ReactContextBaseJavaModule {
             "unsubscribe characteristic",
             promise,
             (peripheral, callback) -> {
+                // Only remove the JS listener, notifications stay enabled
+                // if the characteristic has other listeners
+                DataReceivedCallback listener = _jsListeners.remove(getListenerKey(
+                    Utils.addressToNumber(peripheral.getAddress()),
+                    UUID.fromString(serviceUuid),
+                    UUID.fromString(characteristicUuid),
+                    instanceIndex));
                 peripheral.unsubscribeCharacteristic(
                     serviceUuid,
                     characteristicUuid,
                     instanceIndex,
+                    listener != null ? listener : (device, data) -> {},
                     callback);
             });
     }
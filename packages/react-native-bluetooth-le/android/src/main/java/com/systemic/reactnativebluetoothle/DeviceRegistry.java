@@ -0,0 +1,289 @@
+package com.systemic.reactnativebluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.systemic.bluetoothle.Peripheral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the Bluetooth devices found while scanning and the peripherals created for them,
+ * indexed by their address as a number.
+ *
+ * The number of devices without a peripheral is bounded, the least recently used ones
+ * are forgotten first. Devices with a peripheral are never evicted.
+ *
+ * The entries are stored in parallel arrays and indexed by an open addressing hash table
+ * so looking up a device doesn't allocate.
+ *
+ * This class is thread safe.
+ */
+final class DeviceRegistry {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final int INITIAL_LENGTH = 16;
+    private static final int NONE = -1;
+
+    // Maximum number of devices without a peripheral
+    private final int _capacity;
+
+    // Entries, a free slot has a null device
+    private long[] _keys;
+    private BluetoothDevice[] _devices;
+    private Peripheral[] _peripherals;
+    // Doubly linked list of the devices without a peripheral, from least to most recently used,
+    // the next links are also used for the list of free slots
+    private int[] _prev;
+    private int[] _next;
+    private int _lruHead = NONE;
+    private int _lruTail = NONE;
+    private int _freeHead = NONE;
+    private int _usedSlotsCount;
+    private int _unpinnedCount;
+    private int _size;
+
+    // Open addressing hash table with linear probing, stores the entry slot + 1 and 0 when empty
+    private int[] _table;
+
+    DeviceRegistry(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+        _capacity = capacity;
+        _keys = new long[INITIAL_LENGTH];
+        _devices = new BluetoothDevice[INITIAL_LENGTH];
+        _peripherals = new Peripheral[INITIAL_LENGTH];
+        _prev = new int[INITIAL_LENGTH];
+        _next = new int[INITIAL_LENGTH];
+        _table = new int[2 * INITIAL_LENGTH];
+    }
+
+    /**
+     * Gets the number of devices, with or without a peripheral.
+     */
+    synchronized int size() {
+        return _size;
+    }
+
+    /**
+     * Gets the device with the given address and marks it as recently used.
+     */
+    @Nullable
+    synchronized BluetoothDevice getDevice(long address) {
+        int slot = find(address);
+        if (slot == NONE) {
+            return null;
+        }
+        touch(slot);
+        return _devices[slot];
+    }
+
+    /**
+     * Adds or updates a device, may evict the least recently used device without a peripheral.
+     */
+    synchronized void putDevice(long address, @NonNull BluetoothDevice device) {
+        int slot = find(address);
+        if (slot == NONE) {
+            slot = add(address);
+            _devices[slot] = device;
+            linkLast(slot);
+            ++_unpinnedCount;
+            evictOverflow();
+        } else {
+            _devices[slot] = device;
+            touch(slot);
+        }
+    }
+
+    /**
+     * Gets the peripheral created for the device with the given address.
+     */
+    @Nullable
+    synchronized Peripheral getPeripheral(long address) {
+        int slot = find(address);
+        return slot != NONE ? _peripherals[slot] : null;
+    }
+
+    /**
+     * Gets a snapshot of all the peripherals.
+     */
+    @NonNull
+    synchronized List<Peripheral> getPeripherals() {
+        ArrayList<Peripheral> peripherals = new ArrayList<>();
+        for (int slot = 0; slot < _usedSlotsCount; ++slot) {
+            if (_peripherals[slot] != null) {
+                peripherals.add(_peripherals[slot]);
+            }
+        }
+        return peripherals;
+    }
+
+    /**
+     * Stores the peripheral created for a device, the device won't be evicted
+     * until the peripheral is removed.
+     */
+    synchronized void putPeripheral(long address, @NonNull BluetoothDevice device, @NonNull Peripheral peripheral) {
+        int slot = find(address);
+        if (slot == NONE) {
+            slot = add(address);
+        } else if (_peripherals[slot] == null) {
+            unlink(slot);
+            --_unpinnedCount;
+        }
+        _devices[slot] = device;
+        _peripherals[slot] = peripheral;
+    }
+
+    /**
+     * Removes the peripheral of the device with the given address, the device
+     * is kept as the most recently used one.
+     *
+     * @return The removed peripheral, if any.
+     */
+    @Nullable
+    synchronized Peripheral removePeripheral(long address) {
+        int slot = find(address);
+        if (slot == NONE || _peripherals[slot] == null) {
+            return null;
+        }
+        Peripheral peripheral = _peripherals[slot];
+        _peripherals[slot] = null;
+        linkLast(slot);
+        ++_unpinnedCount;
+        evictOverflow();
+        return peripheral;
+    }
+
+    // Package private for tests
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long key) {
+        int mask = _table.length - 1;
+        for (int i = hash(key) & mask; _table[i] != 0; i = (i + 1) & mask) {
+            int slot = _table[i] - 1;
+            if (_keys[slot] == key) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    // Allocates a slot for a new key and indexes it, the caller sets the device
+    private int add(long key) {
+        int slot;
+        if (_freeHead != NONE) {
+            slot = _freeHead;
+            _freeHead = _next[slot];
+        } else {
+            if (_usedSlotsCount == _keys.length) {
+                grow();
+            }
+            slot = _usedSlotsCount++;
+        }
+        _keys[slot] = key;
+        int mask = _table.length - 1;
+        int i = hash(key) & mask;
+        while (_table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        _table[i] = slot + 1;
+        ++_size;
+        return slot;
+    }
+
+    private void remove(int slot) {
+        // Remove from table, shifting back the following entries of the cluster
+        int mask = _table.length - 1;
+        int i = hash(_keys[slot]) & mask;
+        while (_table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        _table[i] = 0;
+        for (int j = (i + 1) & mask; _table[j] != 0; j = (j + 1) & mask) {
+            int k = hash(_keys[_table[j] - 1]) & mask;
+            // Move the entry unless its home index is cyclically in (i, j]
+            boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays) {
+                _table[i] = _table[j];
+                _table[j] = 0;
+                i = j;
+            }
+        }
+        // Release slot
+        if (_peripherals[slot] == null) {
+            unlink(slot);
+            --_unpinnedCount;
+        }
+        _devices[slot] = null;
+        _peripherals[slot] = null;
+        _next[slot] = _freeHead;
+        _freeHead = slot;
+        --_size;
+    }
+
+    private void evictOverflow() {
+        while (_unpinnedCount > _capacity) {
+            remove(_lruHead);
+        }
+    }
+
+    // Only called when all the slots are used
+    private void grow() {
+        int length = 2 * _keys.length;
+        _keys = Arrays.copyOf(_keys, length);
+        _devices = Arrays.copyOf(_devices, length);
+        _peripherals = Arrays.copyOf(_peripherals, length);
+        _prev = Arrays.copyOf(_prev, length);
+        _next = Arrays.copyOf(_next, length);
+        _table = new int[2 * length];
+        int mask = _table.length - 1;
+        for (int slot = 0; slot < _usedSlotsCount; ++slot) {
+            int i = hash(_keys[slot]) & mask;
+            while (_table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            _table[i] = slot + 1;
+        }
+    }
+
+    private void touch(int slot) {
+        if (_peripherals[slot] == null && slot != _lruTail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+    }
+
+    private void linkLast(int slot) {
+        _prev[slot] = _lruTail;
+        _next[slot] = NONE;
+        if (_lruTail != NONE) {
+            _next[_lruTail] = slot;
+        } else {
+            _lruHead = slot;
+        }
+        _lruTail = slot;
+    }
+
+    private void unlink(int slot) {
+        int prev = _prev[slot];
+        int next = _next[slot];
+        if (prev != NONE) {
+            _next[prev] = next;
+        } else {
+            _lruHead = next;
+        }
+        if (next != NONE) {
+            _prev[next] = prev;
+        } else {
+            _lruTail = prev;
+        }
+    }
+}
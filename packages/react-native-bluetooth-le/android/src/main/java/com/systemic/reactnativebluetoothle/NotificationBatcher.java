@@ -0,0 +1,82 @@
+package com.systemic.reactnativebluetoothle;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.ble.data.Data;
+
+/**
+ * Buffers the notifications of a subscribed characteristic to send them to JS
+ * as a single event, once the time window has elapsed since the first buffered
+ * notification or once the maximum number of notifications is reached.
+ *
+ * This class is thread safe.
+ */
+final class NotificationBatcher {
+    /**
+     * A notification value with the time it was received.
+     */
+    static final class Notification {
+        final Data data;
+        final long timestamp; // Milliseconds since epoch
+
+        Notification(@NonNull Data data, long timestamp) {
+            this.data = data;
+            this.timestamp = timestamp;
+        }
+    }
+
+    interface FlushCallback {
+        void onFlush(@NonNull List<Notification> notifications);
+    }
+
+    private final Handler _handler;
+    private final int _windowMs;
+    private final int _maxCount;
+    private final FlushCallback _callback;
+    private final Runnable _flushRunnable = this::flush;
+    private ArrayList<Notification> _notifications = new ArrayList<>();
+
+    /**
+     * @param windowMs Maximum time to keep a notification buffered, in milliseconds.
+     * @param maxCount Number of buffered notifications for which they are sent right away,
+     *                 zero for no limit.
+     */
+    NotificationBatcher(@NonNull Handler handler, int windowMs, int maxCount, @NonNull FlushCallback callback) {
+        _handler = handler;
+        _windowMs = windowMs;
+        _maxCount = maxCount;
+        _callback = callback;
+    }
+
+    void add(@NonNull Data data) {
+        boolean flushNow;
+        synchronized (this) {
+            _notifications.add(new Notification(data, System.currentTimeMillis()));
+            flushNow = _maxCount > 0 && _notifications.size() >= _maxCount;
+            if (!flushNow && _notifications.size() == 1) {
+                _handler.postDelayed(_flushRunnable, _windowMs);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    void flush() {
+        ArrayList<Notification> notifications;
+        synchronized (this) {
+            _handler.removeCallbacks(_flushRunnable);
+            if (_notifications.isEmpty()) {
+                return;
+            }
+            notifications = _notifications;
+            _notifications = new ArrayList<>();
+        }
+        _callback.onFlush(notifications);
+    }
+}
@@ -3,6 +3,7 @@ package com.systemic.reactnativebluetoothle;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.os.ParcelUuid;
+import android.util.Base64;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
@@ -10,10 +11,20 @@ import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.systemic.bluetoothle.ConnectionStatistics;
+import com.systemic.bluetoothle.NotificationMergers;
 import com.systemic.bluetoothle.Peripheral;
+import com.systemic.bluetoothle.PixelsAdvertisement;
+import com.systemic.bluetoothle.RequestPriority;
+import com.systemic.bluetoothle.RequestQueueStatistics;
+import com.systemic.bluetoothle.ScanFilterSpec;
+import com.systemic.bluetoothle.ScanModeStatistics;
+import com.systemic.bluetoothle.ScanOptions;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -21,10 +32,12 @@ import java.util.UUID;
 import no.nordicsemi.android.ble.annotation.DisconnectionReason;
 import no.nordicsemi.android.ble.callback.FailCallback;
 import no.nordicsemi.android.ble.data.Data;
+import no.nordicsemi.android.ble.data.DataMerger;
 import no.nordicsemi.android.ble.observer.ConnectionObserver;
 import no.nordicsemi.android.support.v18.scanner.ScanCallback;
 import no.nordicsemi.android.support.v18.scanner.ScanRecord;
 import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
 
 public final class Serializer {
     @NonNull
@@ -46,6 +59,8 @@ public final class Serializer {
                 return "ERROR_VALIDATION";
             case FailCallback.REASON_CANCELLED:
                 return "ERROR_CANCELLED";
+            case FailCallback.REASON_NOT_ENABLED:
+                return "ERROR_NOT_ENABLED";
             case FailCallback.REASON_BLUETOOTH_DISABLED:
                 return "ERROR_BLUETOOTH_DISABLED";
             case 1:
@@ -163,8 +178,111 @@ public final class Serializer {
         return map;
     }
 
+    @NonNull
+    public static WritableMap toJS(@NonNull PixelsAdvertisement pixelsAdv) {
+        WritableMap map = Arguments.createMap();
+        map.putString("type", pixelsAdv.getDeviceType().getName());
+        map.putDouble("pixelId", pixelsAdv.getPixelId());
+        map.putInt("ledCount", pixelsAdv.getLedCount());
+        map.putInt("colorway", pixelsAdv.getColorway());
+        map.putInt("dieType", pixelsAdv.getDieType());
+        map.putInt("rollState", pixelsAdv.getRollState());
+        map.putInt("faceIndex", pixelsAdv.getFaceIndex());
+        map.putInt("batteryLevel", pixelsAdv.getBatteryLevel());
+        map.putBoolean("isCharging", pixelsAdv.isCharging());
+        map.putDouble("firmwareTime", 1000.0 * pixelsAdv.getFirmwareTime());
+        return map;
+    }
+
+    @NonNull
+    public static WritableMap toJS(@NonNull Peripheral.ThroughputParameters parameters) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("mtu", parameters.mtu);
+        map.putInt("txPhy", parameters.txPhy);
+        map.putInt("rxPhy", parameters.rxPhy);
+        // Convert from units of 1.25ms
+        map.putDouble("connectionInterval", 1.25 * parameters.connectionInterval);
+        return map;
+    }
+
+    @NonNull
+    public static WritableMap toJS(@NonNull ScanModeStatistics statistics) {
+        WritableMap modes = Arguments.createMap();
+        for (int mode : new int[] {
+            ScanSettings.SCAN_MODE_LOW_POWER,
+            ScanSettings.SCAN_MODE_BALANCED,
+            ScanSettings.SCAN_MODE_LOW_LATENCY,
+        }) {
+            WritableMap stats = Arguments.createMap();
+            stats.putDouble("time", statistics.getTimeInMode(mode));
+            stats.putInt("newDevices", statistics.getNewDevicesCount(mode));
+            stats.putInt("changes", statistics.getChangesCount(mode));
+            stats.putDouble("discoveryRate", statistics.getDiscoveryRate(mode));
+            modes.putMap(ScanModeStatistics.getScanModeName(mode), stats);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putString("mode", ScanModeStatistics.getScanModeName(statistics.getScanMode()));
+        map.putMap("modes", modes);
+        return map;
+    }
+
+    @NonNull
+    public static WritableMap toJS(@NonNull RequestQueueStatistics statistics) {
+        WritableMap map = Arguments.createMap();
+        for (RequestPriority priority : RequestPriority.values()) {
+            WritableMap stats = Arguments.createMap();
+            stats.putInt("depth", statistics.getDepth(priority));
+            stats.putDouble("sentCount", statistics.getSentCount(priority));
+            stats.putDouble("averageWaitTime", statistics.getAverageWaitTime(priority));
+            stats.putDouble("maxWaitTime", statistics.getMaxWaitTime(priority));
+            map.putMap(priorityToString(priority), stats);
+        }
+        return map;
+    }
+
+    @NonNull
+    public static WritableMap toJS(@NonNull ConnectionStatistics statistics) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("attempts", statistics.getAttemptsCount());
+        map.putInt("successes", statistics.getSuccessesCount());
+        map.putInt("failures", statistics.getFailuresCount());
+        map.putInt("cacheRefreshes", statistics.getCacheRefreshesCount());
+        map.putInt("lastFailureStatus", statistics.getLastFailureStatus());
+        map.putDouble("lastConnectionTime", statistics.getLastConnectionTime());
+        return map;
+    }
+
+    @NonNull
+    public static String priorityToString(@NonNull RequestPriority priority) {
+        switch (priority) {
+            case INTERACTIVE:
+                return "interactive";
+            case BULK:
+                return "bulk";
+            default:
+                return "normal";
+        }
+    }
+
+    @NonNull
+    public static RequestPriority priorityFromJS(@Nullable String priority) {
+        if (priority == null || priority.equals("normal")) {
+            return RequestPriority.NORMAL;
+        } else if (priority.equals("interactive")) {
+            return RequestPriority.INTERACTIVE;
+        } else if (priority.equals("bulk")) {
+            return RequestPriority.BULK;
+        }
+        throw new IllegalArgumentException("Unknown request priority: " + priority);
+    }
+
     @NonNull
     public static WritableMap toJS(@Nullable ScanResult scanResult) {
+        return toJS(scanResult, false);
+    }
+
+    @NonNull
+    public static WritableMap toJS(@Nullable ScanResult scanResult, boolean decodePixelsData) {
         WritableMap map = Arguments.createMap();
         map.putBoolean("isConnectable", scanResult.isConnectable());
         map.putInt("rssi", scanResult.getRssi());
@@ -176,6 +294,13 @@ public final class Serializer {
             // Services
             map.putArray("services", fromList(scanRecord.getServiceUuids()));
 
+            // Pixels data replaces the manufacturer and service data
+            PixelsAdvertisement pixelsAdv = decodePixelsData ? PixelsAdvertisement.decode(scanResult) : null;
+            if (pixelsAdv != null) {
+                map.putMap("pixelsData", toJS(pixelsAdv));
+                return map;
+            }
+
             // Added in API level 29
             // Solicited services
             // List<ParcelUuid> solicitedServiceUUIDs = scanRecord.getServiceSolicitationUuids();
@@ -226,16 +351,33 @@ public final class Serializer {
     @NonNull
     public static WritableMap toJS(@Nullable BluetoothDevice device,
                                    @Nullable ScanResult scanResult) {
+        return toJS(device, scanResult, false);
+    }
+
+    @NonNull
+    public static WritableMap toJS(@Nullable BluetoothDevice device,
+                                   @Nullable ScanResult scanResult,
+                                   boolean decodePixelsData) {
         WritableMap map = Arguments.createMap();
         if (device != null) {
             map.putMap("device", toJS(device));
         }
         if (scanResult != null) {
-            map.putMap("advertisementData", toJS(scanResult));
+            map.putMap("advertisementData", toJS(scanResult, decodePixelsData));
         }
         return map;
     }
 
+    @NonNull
+    public static WritableArray toJS(@NonNull List<ScanResult> scanResults,
+                                     boolean decodePixelsData) {
+        WritableArray arr = Arguments.createArray();
+        for (ScanResult scanResult : scanResults) {
+            arr.pushMap(toJS(scanResult.getDevice(), scanResult, decodePixelsData));
+        }
+        return arr;
+    }
+
     @NonNull
     public static WritableMap toJS(@Nullable Peripheral peripheral,
                                    @Nullable String propName,
@@ -278,17 +420,70 @@ public final class Serializer {
                                    @Nullable UUID characteristic,
                                    int instanceIndex,
                                    @Nullable Data data) {
+        return toJS(peripheral, service, characteristic, instanceIndex, data, false);
+    }
+
+    @NonNull
+    public static WritableMap toJS(@Nullable Peripheral peripheral,
+                                   @Nullable UUID service,
+                                   @Nullable UUID characteristic,
+                                   int instanceIndex,
+                                   @Nullable Data data,
+                                   boolean base64) {
         WritableMap map = Arguments.createMap();
         if (peripheral != null) {
             map.putMap("device", Serializer.toJS(peripheral));
         }
         map.putMap("characteristic", Serializer.toJS(service, characteristic, instanceIndex));
         if (data != null) {
-            map.putArray("data", Serializer.toJS(data));
+            putData(map, data, base64);
+        }
+        return map;
+    }
+
+    @NonNull
+    public static WritableMap toJS(@Nullable Peripheral peripheral,
+                                   @Nullable UUID service,
+                                   @Nullable UUID characteristic,
+                                   int instanceIndex,
+                                   @NonNull List<NotificationBatcher.Notification> notifications,
+                                   boolean base64) {
+        WritableMap map = Arguments.createMap();
+        if (peripheral != null) {
+            map.putMap("device", Serializer.toJS(peripheral));
+        }
+        map.putMap("characteristic", Serializer.toJS(service, characteristic, instanceIndex));
+        WritableArray values = Arguments.createArray();
+        for (NotificationBatcher.Notification notification : notifications) {
+            WritableMap value = Arguments.createMap();
+            putData(value, notification.data, base64);
+            value.putDouble("timestamp", notification.timestamp);
+            values.pushMap(value);
         }
+        map.putArray("values", values);
         return map;
     }
 
+    // Either as an array of bytes or as a base64 string
+    private static void putData(@NonNull WritableMap map, @NonNull Data data, boolean base64) {
+        if (base64) {
+            map.putString("dataBase64", toBase64(data));
+        } else {
+            map.putArray("data", Serializer.toJS(data));
+        }
+    }
+
+    @NonNull
+    public static String toBase64(@Nullable Data data) {
+        byte[] value = data != null ? data.getValue() : null;
+        return value != null ? Base64.encodeToString(value, Base64.NO_WRAP) : "";
+    }
+
+    @NonNull
+    public static byte[] fromBase64(@Nullable String data) {
+        return data != null ? Base64.decode(data, Base64.DEFAULT) : new byte[0];
+    }
+
     @Nullable
     public static byte[] fromJS(@Nullable ReadableArray data) {
         byte[] arr = new byte[data.size()];
@@ -300,6 +495,104 @@ public final class Serializer {
         return arr;
     }
 
+    public static boolean hasValue(@NonNull ReadableMap map, @NonNull String key) {
+        return map.hasKey(key) && !map.isNull(key);
+    }
+
+    @NonNull
+    public static ScanOptions scanOptionsFromJS(@Nullable ReadableMap options) {
+        ScanOptions scanOptions = new ScanOptions();
+        if (options != null) {
+            if (hasValue(options, "coalescingInterval")) {
+                scanOptions.setCoalescingInterval(options.getInt("coalescingInterval"));
+            }
+            if (hasValue(options, "reportDelay")) {
+                scanOptions.setReportDelay((long) options.getDouble("reportDelay"));
+            }
+            if (hasValue(options, "filterUnchanged")) {
+                scanOptions.setFilterUnchanged(options.getBoolean("filterUnchanged"));
+            }
+            if (hasValue(options, "rssiThreshold")) {
+                scanOptions.setRssiThreshold(options.getInt("rssiThreshold"));
+            }
+            if (hasValue(options, "heartbeatInterval")) {
+                scanOptions.setHeartbeatInterval(options.getInt("heartbeatInterval"));
+            }
+            if (hasValue(options, "presenceTimeout")) {
+                scanOptions.setPresenceTimeout(options.getInt("presenceTimeout"));
+            }
+            if (hasValue(options, "presenceOnly")) {
+                scanOptions.setPresenceOnly(options.getBoolean("presenceOnly"));
+            }
+            if (hasValue(options, "adaptiveScanMode")) {
+                scanOptions.setAdaptiveScanMode(options.getBoolean("adaptiveScanMode"));
+            }
+            if (hasValue(options, "balancedModeDelay")) {
+                scanOptions.setBalancedModeDelay(options.getInt("balancedModeDelay"));
+            }
+            if (hasValue(options, "lowPowerModeDelay")) {
+                scanOptions.setLowPowerModeDelay(options.getInt("lowPowerModeDelay"));
+            }
+            if (hasValue(options, "filters")) {
+                ReadableArray filters = options.getArray("filters");
+                List<ScanFilterSpec> specs = new ArrayList<>(filters.size());
+                for (int i = 0; i < filters.size(); ++i) {
+                    specs.add(scanFilterFromJS(filters.getMap(i)));
+                }
+                scanOptions.setFilters(specs);
+            }
+        }
+        return scanOptions;
+    }
+
+    @NonNull
+    public static ScanFilterSpec scanFilterFromJS(@NonNull ReadableMap filter) {
+        ScanFilterSpec spec = new ScanFilterSpec();
+        if (hasValue(filter, "service")) {
+            spec.setServiceUuid(filter.getString("service"));
+        }
+        if (hasValue(filter, "manufacturerId")) {
+            spec.setManufacturerData(filter.getInt("manufacturerId"),
+                bytesFromJS(filter, "manufacturerData"),
+                bytesFromJS(filter, "manufacturerDataMask"));
+        }
+        if (hasValue(filter, "serviceDataUuid")) {
+            spec.setServiceData(filter.getString("serviceDataUuid"),
+                bytesFromJS(filter, "serviceData"),
+                bytesFromJS(filter, "serviceDataMask"));
+        }
+        if (hasValue(filter, "namePrefix")) {
+            spec.setNamePrefix(filter.getString("namePrefix"));
+        }
+        return spec;
+    }
+
+    /**
+     * Returns a new merger for the given framing options, see NotificationMergers.
+     */
+    @NonNull
+    public static DataMerger mergerFromJS(@NonNull ReadableMap framing) {
+        String type = hasValue(framing, "type") ? framing.getString("type") : null;
+        if ("lengthPrefixed".equals(type)) {
+            return NotificationMergers.lengthPrefixed(
+                hasValue(framing, "lengthOffset") ? framing.getInt("lengthOffset") : 0,
+                hasValue(framing, "lengthSize") ? framing.getInt("lengthSize") : 1,
+                !hasValue(framing, "littleEndian") || framing.getBoolean("littleEndian"),
+                hasValue(framing, "headerSize") ? framing.getInt("headerSize") : 0);
+        } else if ("terminated".equals(type)) {
+            if (!hasValue(framing, "terminator")) {
+                throw new IllegalArgumentException("Missing terminator in framing options");
+            }
+            return NotificationMergers.terminated((byte) framing.getInt("terminator"));
+        }
+        throw new IllegalArgumentException("Unknown framing type: " + type);
+    }
+
+    @Nullable
+    private static byte[] bytesFromJS(@NonNull ReadableMap map, @NonNull String key) {
+        return hasValue(map, key) ? fromJS(map.getArray(key)) : null;
+    }
+
     @NonNull
     private static WritableArray fromList(List<ParcelUuid> uuids) {
         WritableArray arr = Arguments.createArray();
@@ -0,0 +1,89 @@
+package com.systemic.bluetoothle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+public class CharacteristicIndexTest
+{
+    private static final UUID SERVICE = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID NOTIFY = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID WRITE = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private static BluetoothGattCharacteristic characteristic(final UUID uuid)
+    {
+        BluetoothGattCharacteristic characteristic = mock(BluetoothGattCharacteristic.class);
+        when(characteristic.getUuid()).thenReturn(uuid);
+        return characteristic;
+    }
+
+    private static BluetoothGattService service(final UUID uuid, final BluetoothGattCharacteristic... characteristics)
+    {
+        BluetoothGattService service = mock(BluetoothGattService.class);
+        when(service.getUuid()).thenReturn(uuid);
+        when(service.getCharacteristics()).thenReturn(Arrays.asList(characteristics));
+        return service;
+    }
+
+    @Test
+    public void resolvesCharacteristicInstances()
+    {
+        BluetoothGattCharacteristic notify = characteristic(NOTIFY);
+        BluetoothGattCharacteristic write0 = characteristic(WRITE);
+        BluetoothGattCharacteristic write1 = characteristic(WRITE);
+        CharacteristicIndex index = new CharacteristicIndex(1,
+            Collections.singletonList(service(SERVICE, notify, write0, write1)));
+
+        assertSame(notify, index.getCharacteristic(index.getHandle(SERVICE, NOTIFY, 0)));
+        assertSame(write0, index.getCharacteristic(index.getHandle(SERVICE, WRITE, 0)));
+        assertSame(write1, index.getCharacteristic(index.getHandle(SERVICE, WRITE, 1)));
+        assertEquals(CharacteristicIndex.INVALID_HANDLE, index.getHandle(SERVICE, WRITE, 2));
+        assertEquals(CharacteristicIndex.INVALID_HANDLE, index.getHandle(SERVICE, WRITE, -1));
+        assertEquals(CharacteristicIndex.INVALID_HANDLE, index.getHandle(NOTIFY, WRITE, 0));
+    }
+
+    @Test
+    public void keepsFirstServiceWithSameUuid()
+    {
+        BluetoothGattCharacteristic first = characteristic(WRITE);
+        CharacteristicIndex index = new CharacteristicIndex(1,
+            Arrays.asList(service(SERVICE, first), service(SERVICE, characteristic(WRITE))));
+
+        assertSame(first, index.getCharacteristic(index.getHandle(SERVICE, WRITE, 0)));
+        assertEquals(CharacteristicIndex.INVALID_HANDLE, index.getHandle(SERVICE, WRITE, 1));
+    }
+
+    @Test
+    public void rejectsHandleOfAnotherGeneration()
+    {
+        BluetoothGattService service = service(SERVICE, characteristic(WRITE));
+        CharacteristicIndex previous = new CharacteristicIndex(1, Collections.singletonList(service));
+        CharacteristicIndex current = new CharacteristicIndex(2, Collections.singletonList(service));
+
+        final int handle = previous.getHandle(SERVICE, WRITE, 0);
+        assertNotEquals(handle, current.getHandle(SERVICE, WRITE, 0));
+        assertNull(current.getCharacteristic(handle));
+    }
+
+    @Test
+    public void rejectsInvalidHandles()
+    {
+        CharacteristicIndex index = new CharacteristicIndex(1,
+            Collections.singletonList(service(SERVICE, characteristic(WRITE))));
+
+        assertNull(index.getCharacteristic(CharacteristicIndex.INVALID_HANDLE));
+        assertNull(index.getCharacteristic(index.getHandle(SERVICE, WRITE, 0) + 1));
+    }
+}
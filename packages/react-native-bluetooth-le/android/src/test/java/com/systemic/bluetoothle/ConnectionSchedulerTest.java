@@ -0,0 +1,213 @@
+package com.systemic.bluetoothle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import no.nordicsemi.android.ble.callback.FailCallback;
+
+public class ConnectionSchedulerTest
+{
+    private static final int GATT_ERROR = 133;
+
+    private final Handler _handler = mock(Handler.class);
+    private final BluetoothDevice _device = mock(BluetoothDevice.class);
+    // Retry timers posted to the handler
+    private final ArrayList<Runnable> _timers = new ArrayList<>();
+    // Callbacks of the connection attempts in progress, per peripheral
+    private final HashMap<Peripheral, Peripheral.RequestCallback> _attempts = new HashMap<>();
+    private ConnectionScheduler _scheduler;
+
+    @Before
+    public void setUp()
+    {
+        when(_handler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(invocation ->
+        {
+            _timers.add(invocation.getArgument(0));
+            return true;
+        });
+        doAnswer(invocation ->
+        {
+            _timers.remove((Runnable)invocation.getArgument(0));
+            return null;
+        }).when(_handler).removeCallbacks(any(Runnable.class));
+        _scheduler = new ConnectionScheduler(_handler);
+    }
+
+    private Peripheral peripheral(final String address)
+    {
+        final Peripheral peripheral = mock(Peripheral.class);
+        when(peripheral.getAddress()).thenReturn(address);
+        when(peripheral.getDevice()).thenReturn(_device);
+        doAnswer(invocation ->
+        {
+            _attempts.put(peripheral, invocation.getArgument(2));
+            return null;
+        }).when(peripheral).connect(any(), anyInt(), any());
+        return peripheral;
+    }
+
+    private void connect(final Peripheral peripheral, final Peripheral.RequestCallback callback)
+    {
+        _scheduler.connect(peripheral, null, 1000, callback);
+    }
+
+    @Test
+    public void limitsConcurrentConnectionAttempts()
+    {
+        Peripheral p1 = peripheral("p1"), p2 = peripheral("p2"), p3 = peripheral("p3");
+        connect(p1, mock(Peripheral.RequestCallback.class));
+        connect(p2, mock(Peripheral.RequestCallback.class));
+        connect(p3, mock(Peripheral.RequestCallback.class));
+        assertEquals(ConnectionScheduler.DEFAULT_MAX_CONCURRENT_CONNECTS, _attempts.size());
+        verify(p3, never()).connect(any(), anyInt(), any());
+
+        _attempts.get(p1).onRequestCompleted(_device);
+        verify(p3).connect(any(), anyInt(), any());
+    }
+
+    @Test
+    public void joinsConnectionAttemptInProgress()
+    {
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback first = mock(Peripheral.RequestCallback.class);
+        Peripheral.RequestCallback second = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, first);
+        connect(peripheral, second);
+        verify(peripheral, times(1)).connect(any(), anyInt(), any());
+
+        _attempts.get(peripheral).onRequestCompleted(_device);
+        verify(first).onRequestCompleted(_device);
+        verify(second).onRequestCompleted(_device);
+
+        // The next request starts a new attempt
+        connect(peripheral, mock(Peripheral.RequestCallback.class));
+        verify(peripheral, times(2)).connect(any(), anyInt(), any());
+    }
+
+    @Test
+    public void retriesRetryableFailures()
+    {
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, callback);
+        _attempts.get(peripheral).onRequestFailed(_device, GATT_ERROR);
+        verify(callback, never()).onRequestFailed(any(), anyInt());
+        assertEquals(1, _timers.size());
+
+        _timers.remove(0).run();
+        verify(peripheral, times(2)).connect(any(), anyInt(), any());
+        _attempts.get(peripheral).onRequestCompleted(_device);
+        verify(callback).onRequestCompleted(_device);
+
+        ConnectionStatistics stats = _scheduler.getStatistics("p1");
+        assertNotNull(stats);
+        assertEquals(2, stats.getAttemptsCount());
+        assertEquals(1, stats.getFailuresCount());
+        assertEquals(1, stats.getSuccessesCount());
+        assertEquals(GATT_ERROR, stats.getLastFailureStatus());
+    }
+
+    @Test
+    public void reportsFailureAfterMaxRetries()
+    {
+        _scheduler.setRetryPolicy(1, 100, 100, 0);
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, callback);
+        _attempts.get(peripheral).onRequestFailed(_device, GATT_ERROR);
+        _timers.remove(0).run();
+        _attempts.get(peripheral).onRequestFailed(_device, GATT_ERROR);
+        assertTrue(_timers.isEmpty());
+        verify(callback).onRequestFailed(_device, GATT_ERROR);
+    }
+
+    @Test
+    public void doesNotRetryNonRetryableFailures()
+    {
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, callback);
+        _attempts.get(peripheral).onRequestFailed(_device, FailCallback.REASON_DEVICE_NOT_SUPPORTED);
+        assertTrue(_timers.isEmpty());
+        verify(callback).onRequestFailed(_device, FailCallback.REASON_DEVICE_NOT_SUPPORTED);
+    }
+
+    @Test
+    public void cancelsWaitingRequest()
+    {
+        _scheduler.setMaxConcurrentConnects(1);
+        Peripheral p1 = peripheral("p1"), p2 = peripheral("p2");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(p1, mock(Peripheral.RequestCallback.class));
+        connect(p2, callback);
+        assertTrue(_scheduler.cancel(p2));
+        verify(callback).onRequestFailed(_device, FailCallback.REASON_CANCELLED);
+
+        _attempts.get(p1).onRequestCompleted(_device);
+        verify(p2, never()).connect(any(), anyInt(), any());
+    }
+
+    @Test
+    public void cancelsRetry()
+    {
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, callback);
+        _attempts.get(peripheral).onRequestFailed(_device, GATT_ERROR);
+        assertTrue(_scheduler.cancel(peripheral));
+        assertTrue(_timers.isEmpty());
+        verify(callback).onRequestFailed(_device, FailCallback.REASON_CANCELLED);
+    }
+
+    @Test
+    public void doesNotRetryCancelledAttemptInProgress()
+    {
+        Peripheral peripheral = peripheral("p1");
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        connect(peripheral, callback);
+        assertFalse(_scheduler.cancel(peripheral));
+
+        _attempts.get(peripheral).onRequestFailed(_device, GATT_ERROR);
+        assertTrue(_timers.isEmpty());
+        verify(callback).onRequestFailed(_device, GATT_ERROR);
+    }
+
+    @Test
+    public void cancelsAllRequests()
+    {
+        _scheduler.setMaxConcurrentConnects(1);
+        Peripheral p1 = peripheral("p1"), p2 = peripheral("p2");
+        Peripheral.RequestCallback callback1 = mock(Peripheral.RequestCallback.class);
+        Peripheral.RequestCallback callback2 = mock(Peripheral.RequestCallback.class);
+        connect(p1, callback1);
+        connect(p2, callback2);
+        _scheduler.cancelAll();
+        verify(callback2).onRequestFailed(_device, FailCallback.REASON_CANCELLED);
+
+        // The attempt in progress is reported with its own result and not retried
+        _attempts.get(p1).onRequestFailed(_device, GATT_ERROR);
+        assertTrue(_timers.isEmpty());
+        verify(callback1).onRequestFailed(_device, GATT_ERROR);
+        verify(p2, never()).connect(any(), anyInt(), any());
+    }
+}
@@ -0,0 +1,75 @@
+package com.systemic.bluetoothle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import no.nordicsemi.android.ble.data.DataMerger;
+import no.nordicsemi.android.ble.data.DataStream;
+
+public class NotificationMergersTest
+{
+    @Test
+    public void mergesLengthPrefixedMessage()
+    {
+        // 1 byte type followed by a 2 bytes little endian length of the payload
+        DataMerger merger = NotificationMergers.lengthPrefixed(1, 2, true, 3);
+        DataStream output = new DataStream();
+        assertFalse(merger.merge(output, new byte[] { 7, 5, 0, 1, 2 }, 0));
+        assertTrue(merger.merge(output, new byte[] { 3, 4, 5 }, 1));
+        assertArrayEquals(new byte[] { 7, 5, 0, 1, 2, 3, 4, 5 }, output.toByteArray());
+    }
+
+    @Test
+    public void readsBigEndianLength()
+    {
+        // The length counts the whole message
+        DataMerger merger = NotificationMergers.lengthPrefixed(0, 2, false, 0);
+        DataStream output = new DataStream();
+        assertFalse(merger.merge(output, new byte[] { 0, 6, 1 }, 0));
+        assertFalse(merger.merge(output, new byte[] { 2, 3 }, 1));
+        assertTrue(merger.merge(output, new byte[] { 4 }, 2));
+        assertEquals(6, output.size());
+    }
+
+    @Test
+    public void mergerIsReusedForTheNextMessage()
+    {
+        DataMerger merger = NotificationMergers.lengthPrefixed(0, 1, true, 1);
+        DataStream first = new DataStream();
+        assertFalse(merger.merge(first, new byte[] { 2, 1 }, 0));
+        assertTrue(merger.merge(first, new byte[] { 2 }, 1));
+        DataStream second = new DataStream();
+        assertTrue(merger.merge(second, new byte[] { 0 }, 0));
+        assertArrayEquals(new byte[] { 0 }, second.toByteArray());
+    }
+
+    @Test
+    public void passesPacketWithoutHeaderAsIs()
+    {
+        DataMerger merger = NotificationMergers.lengthPrefixed(2, 4, true, 0);
+        DataStream output = new DataStream();
+        assertTrue(merger.merge(output, new byte[] { 1, 2, 3 }, 0));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, output.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLengthSize()
+    {
+        NotificationMergers.lengthPrefixed(0, 3, true, 0);
+    }
+
+    @Test
+    public void mergesTerminatedMessage()
+    {
+        DataMerger merger = NotificationMergers.terminated((byte)'\n');
+        DataStream output = new DataStream();
+        assertFalse(merger.merge(output, new byte[] { 'a', 'b' }, 0));
+        assertFalse(merger.merge(output, new byte[0], 1));
+        assertTrue(merger.merge(output, new byte[] { 'c', '\n' }, 2));
+        assertArrayEquals(new byte[] { 'a', 'b', 'c', '\n' }, output.toByteArray());
+    }
+}
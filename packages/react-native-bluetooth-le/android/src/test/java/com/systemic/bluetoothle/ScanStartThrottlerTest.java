@@ -0,0 +1,57 @@
+package com.systemic.bluetoothle;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ScanStartThrottlerTest
+{
+    @Test
+    public void allowsStartsUpToTheLimit()
+    {
+        ScanStartThrottler throttler = new ScanStartThrottler();
+        for (int i = 0; i < ScanStartThrottler.MAX_STARTS; ++i)
+        {
+            assertEquals(0, throttler.getStartDelay(1000 + i));
+            throttler.onScanStarted(1000 + i);
+        }
+        assertEquals(ScanStartThrottler.MAX_STARTS, throttler.getStartsCount(2000));
+
+        // The next start waits for the oldest one to be out of the time window
+        assertEquals(ScanStartThrottler.WINDOW_MS - 1000, throttler.getStartDelay(2000));
+        assertEquals(0, throttler.getStartDelay(1000 + ScanStartThrottler.WINDOW_MS));
+    }
+
+    @Test
+    public void forgetsStartsOutOfTheTimeWindow()
+    {
+        ScanStartThrottler throttler = new ScanStartThrottler();
+        throttler.onScanStarted(1000);
+        throttler.onScanStarted(2000);
+        assertEquals(2, throttler.getStartsCount(3000));
+        assertEquals(1, throttler.getStartsCount(1000 + ScanStartThrottler.WINDOW_MS));
+        assertEquals(0, throttler.getStartsCount(2000 + ScanStartThrottler.WINDOW_MS));
+    }
+
+    @Test
+    public void delaysSeveralStartsUntilEnoughAreAvailable()
+    {
+        ScanStartThrottler throttler = new ScanStartThrottler();
+        for (int i = 0; i < ScanStartThrottler.MAX_STARTS - 1; ++i)
+        {
+            throttler.onScanStarted(1000 * (i + 1));
+        }
+        // One start left
+        assertEquals(0, throttler.getStartDelay(10000, 1));
+        // The oldest start must expire for two of them
+        assertEquals(1000 + ScanStartThrottler.WINDOW_MS - 10000, throttler.getStartDelay(10000, 2));
+        // And the second oldest for three of them
+        assertEquals(2000 + ScanStartThrottler.WINDOW_MS - 10000, throttler.getStartDelay(10000, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreStartsThanTheLimit()
+    {
+        new ScanStartThrottler().getStartDelay(0, ScanStartThrottler.MAX_STARTS + 1);
+    }
+}
@@ -0,0 +1,331 @@
+package com.systemic.bluetoothle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class WritePacerTest
+{
+    private static final int NO_RESPONSE = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+    private static final int WITH_RESPONSE = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+
+    private final BluetoothGattCharacteristic _characteristic = mock(BluetoothGattCharacteristic.class);
+    private final BluetoothDevice _device = mock(BluetoothDevice.class);
+    // Writes given to the BLE manager and the order of the other requests
+    private final ArrayList<Sent> _sent = new ArrayList<>();
+    private final ArrayList<String> _log = new ArrayList<>();
+    private final WritePacer _pacer = new WritePacer((characteristic, data, writeType, callback) ->
+    {
+        _sent.add(new Sent(data, callback));
+        _log.add("write " + data[0]);
+    });
+
+    private static final class Sent
+    {
+        final byte[] data;
+        final Peripheral.RequestCallback callback;
+
+        Sent(final byte[] data, final Peripheral.RequestCallback callback)
+        {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    private void write(final int value, final int writeType, final RequestPriority priority)
+    {
+        _pacer.write(_characteristic, new byte[] { (byte)value }, writeType, null, priority, mock(Peripheral.RequestCallback.class));
+    }
+
+    private int sentValue(final int index)
+    {
+        return _sent.get(index).data[0];
+    }
+
+    @Test
+    public void limitsWritesWithoutResponseToTheWindow()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW + 2; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        assertEquals(WritePacer.INITIAL_WINDOW, _sent.size());
+
+        _sent.get(0).callback.onRequestCompleted(_device);
+        assertEquals(WritePacer.INITIAL_WINDOW + 1, _sent.size());
+        assertEquals(WritePacer.INITIAL_WINDOW, sentValue(WritePacer.INITIAL_WINDOW));
+    }
+
+    @Test
+    public void doesNotHoldBackWritesWithResponse()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        write(10, WITH_RESPONSE, RequestPriority.NORMAL);
+        write(11, WITH_RESPONSE, RequestPriority.NORMAL);
+        assertEquals(WritePacer.INITIAL_WINDOW + 2, _sent.size());
+    }
+
+    @Test
+    public void keepsWriteOrderWithinPriority()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW + 1; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        // Waits behind the write without response queued before it
+        write(10, WITH_RESPONSE, RequestPriority.NORMAL);
+        assertEquals(WritePacer.INITIAL_WINDOW, _sent.size());
+
+        _sent.get(0).callback.onRequestCompleted(_device);
+        assertEquals(WritePacer.INITIAL_WINDOW + 2, _sent.size());
+        assertEquals(WritePacer.INITIAL_WINDOW, sentValue(WritePacer.INITIAL_WINDOW));
+        assertEquals(10, sentValue(WritePacer.INITIAL_WINDOW + 1));
+    }
+
+    @Test
+    public void runsRequestsAfterTheWritesQueuedBefore()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW + 1; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        _pacer.runInOrder(() -> _log.add("read"));
+        write(10, NO_RESPONSE, RequestPriority.INTERACTIVE);
+        assertEquals(WritePacer.INITIAL_WINDOW, _log.size());
+
+        // The last write before the request is sent, then the request is run
+        // and only then the write queued after it
+        _sent.get(0).callback.onRequestCompleted(_device);
+        assertEquals("write " + WritePacer.INITIAL_WINDOW, _log.get(WritePacer.INITIAL_WINDOW));
+        assertEquals("read", _log.get(WritePacer.INITIAL_WINDOW + 1));
+        assertEquals(WritePacer.INITIAL_WINDOW + 2, _log.size());
+
+        _sent.get(1).callback.onRequestCompleted(_device);
+        assertEquals("write 10", _log.get(WritePacer.INITIAL_WINDOW + 2));
+    }
+
+    @Test
+    public void runsRequestRightAwayWhenNoWriteIsWaiting()
+    {
+        write(0, NO_RESPONSE, RequestPriority.NORMAL);
+        _pacer.runInOrder(() -> _log.add("read"));
+        assertEquals("read", _log.get(1));
+    }
+
+    @Test
+    public void growsWindowAndHalvesItOnCongestion()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            _sent.get(i).callback.onRequestCompleted(_device);
+        }
+        assertEquals(WritePacer.INITIAL_WINDOW + 1, _pacer.getWindow());
+
+        write(10, NO_RESPONSE, RequestPriority.NORMAL);
+        _sent.get(WritePacer.INITIAL_WINDOW).callback.onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        assertEquals((WritePacer.INITIAL_WINDOW + 1) / 2, _pacer.getWindow());
+    }
+
+    @Test
+    public void retriesCongestedWriteBeforeWaitingOnes()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW - 1; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        final int last = WritePacer.INITIAL_WINDOW - 1;
+        _pacer.write(_characteristic, new byte[] { (byte)last }, NO_RESPONSE, null, RequestPriority.NORMAL, callback);
+        write(10, NO_RESPONSE, RequestPriority.NORMAL);
+        assertEquals(WritePacer.INITIAL_WINDOW, _sent.size());
+
+        // The last write sent is congested while the writes before it are in flight
+        _sent.get(last).callback.onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        verify(callback, never()).onRequestFailed(any(), anyInt());
+
+        // Nothing is sent until the writes in flight complete, then the retry is sent first
+        for (int i = 0; i < last; ++i)
+        {
+            assertEquals(WritePacer.INITIAL_WINDOW, _sent.size());
+            _sent.get(i).callback.onRequestCompleted(_device);
+        }
+        assertEquals(last, sentValue(WritePacer.INITIAL_WINDOW));
+        assertEquals(10, sentValue(WritePacer.INITIAL_WINDOW + 1));
+        _sent.get(WritePacer.INITIAL_WINDOW).callback.onRequestCompleted(_device);
+        verify(callback).onRequestCompleted(_device);
+    }
+
+    @Test
+    public void failsCongestedWriteWhenLaterWritesAreInFlight()
+    {
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        _pacer.write(_characteristic, new byte[] { 0 }, NO_RESPONSE, null, RequestPriority.NORMAL, callback);
+        for (int i = 1; i < WritePacer.INITIAL_WINDOW + 1; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+
+        // Sending the write again would deliver it after the writes already in flight
+        _sent.get(0).callback.onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        verify(callback).onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        assertEquals(WritePacer.INITIAL_WINDOW / 2, _pacer.getWindow());
+
+        // The waiting write is sent once there is room in the reduced window
+        assertEquals(WritePacer.INITIAL_WINDOW, _sent.size());
+        _sent.get(1).callback.onRequestCompleted(_device);
+        _sent.get(2).callback.onRequestCompleted(_device);
+        assertEquals(WritePacer.INITIAL_WINDOW + 1, _sent.size());
+        assertEquals(WritePacer.INITIAL_WINDOW, sentValue(WritePacer.INITIAL_WINDOW));
+    }
+
+    @Test
+    public void reportsFailureAfterMaxRetries()
+    {
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        _pacer.write(_characteristic, new byte[] { 0 }, NO_RESPONSE, null, RequestPriority.NORMAL, callback);
+        for (int i = 0; i <= WritePacer.MAX_RETRIES; ++i)
+        {
+            _sent.get(i).callback.onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        }
+        assertEquals(WritePacer.MAX_RETRIES + 1, _sent.size());
+        verify(callback).onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+    }
+
+    @Test
+    public void sendsHigherPriorityFirst()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        write(10, NO_RESPONSE, RequestPriority.BULK);
+        write(11, NO_RESPONSE, RequestPriority.NORMAL);
+        write(12, NO_RESPONSE, RequestPriority.INTERACTIVE);
+
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            _sent.get(i).callback.onRequestCompleted(_device);
+        }
+        assertEquals(12, sentValue(WritePacer.INITIAL_WINDOW));
+        assertEquals(11, sentValue(WritePacer.INITIAL_WINDOW + 1));
+        assertEquals(10, sentValue(WritePacer.INITIAL_WINDOW + 2));
+    }
+
+    @Test
+    public void bulkWritesLeaveASlotFree()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.BULK);
+        }
+        assertEquals(WritePacer.INITIAL_WINDOW - 1, _sent.size());
+
+        write(10, NO_RESPONSE, RequestPriority.INTERACTIVE);
+        assertEquals(10, sentValue(WritePacer.INITIAL_WINDOW - 1));
+    }
+
+    @Test
+    public void replacesWaitingWriteWithSameKey()
+    {
+        for (int i = 0; i < WritePacer.INITIAL_WINDOW; ++i)
+        {
+            write(i, NO_RESPONSE, RequestPriority.NORMAL);
+        }
+        Peripheral.RequestCallback first = mock(Peripheral.RequestCallback.class);
+        assertNull(_pacer.write(_characteristic, new byte[] { 10 }, NO_RESPONSE, "color", RequestPriority.NORMAL, first));
+        assertSame(first, _pacer.write(_characteristic, new byte[] { 11 }, NO_RESPONSE, "color", RequestPriority.NORMAL, mock(Peripheral.RequestCallback.class)));
+
+        _sent.get(0).callback.onRequestCompleted(_device);
+        _sent.get(1).callback.onRequestCompleted(_device);
+        assertEquals(WritePacer.INITIAL_WINDOW + 1, _sent.size());
+        assertEquals(11, sentValue(WritePacer.INITIAL_WINDOW));
+    }
+
+    @Test
+    public void replacesPendingWriteWithResponseWithSameKey()
+    {
+        Peripheral.RequestCallback first = mock(Peripheral.RequestCallback.class);
+        Peripheral.RequestCallback second = mock(Peripheral.RequestCallback.class);
+        assertNull(_pacer.write(_characteristic, new byte[] { 10 }, WITH_RESPONSE, "color", RequestPriority.NORMAL, first));
+        assertNull(_pacer.write(_characteristic, new byte[] { 11 }, WITH_RESPONSE, "color", RequestPriority.NORMAL, second));
+        assertSame(second, _pacer.write(_characteristic, new byte[] { 12 }, WITH_RESPONSE, "color", RequestPriority.NORMAL, mock(Peripheral.RequestCallback.class)));
+        // Only one write per key is in flight
+        assertEquals(1, _sent.size());
+
+        // Other writes aren't held back
+        write(20, WITH_RESPONSE, RequestPriority.INTERACTIVE);
+        assertEquals(2, _sent.size());
+
+        _sent.get(0).callback.onRequestCompleted(_device);
+        verify(first).onRequestCompleted(_device);
+        assertEquals(3, _sent.size());
+        assertEquals(12, sentValue(2));
+    }
+
+    @Test
+    public void notifiesBulkTransferOnce()
+    {
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        ArrayList<Integer> progress = new ArrayList<>();
+        byte[][] packets = { { 1, 2 }, { 3, 4 }, { 5 } };
+        _pacer.writeBulk(_characteristic, packets, WITH_RESPONSE, RequestPriority.BULK,
+            (bytesSent, totalBytes) -> progress.add(bytesSent), callback);
+
+        // Bulk packets are paced even with response
+        assertEquals(packets.length, _sent.size());
+        _sent.get(0).callback.onRequestCompleted(_device);
+        _sent.get(1).callback.onRequestCompleted(_device);
+        verify(callback, never()).onRequestCompleted(any());
+        _sent.get(2).callback.onRequestCompleted(_device);
+        verify(callback).onRequestCompleted(_device);
+        assertArrayEquals(new Object[] { 2, 4, 5 }, progress.toArray());
+    }
+
+    @Test
+    public void failsBulkTransferOnFirstFailure()
+    {
+        Peripheral.RequestCallback callback = mock(Peripheral.RequestCallback.class);
+        byte[][] packets = new byte[WritePacer.INITIAL_WINDOW + 2][];
+        for (int i = 0; i < packets.length; ++i)
+        {
+            packets[i] = new byte[] { (byte)i };
+        }
+        _pacer.writeBulk(_characteristic, packets, NO_RESPONSE, RequestPriority.BULK, null, callback);
+        final int sentCount = _sent.size();
+
+        // Congestion isn't retried for bulk packets as they would be sent out of order
+        _sent.get(0).callback.onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        _sent.get(1).callback.onRequestFailed(_device, BluetoothGatt.GATT_FAILURE);
+        verify(callback).onRequestFailed(_device, BluetoothGatt.GATT_CONNECTION_CONGESTED);
+        verify(callback, never()).onRequestFailed(_device, BluetoothGatt.GATT_FAILURE);
+
+        // The waiting packets are dropped
+        for (int i = 2; i < sentCount; ++i)
+        {
+            _sent.get(i).callback.onRequestCompleted(_device);
+        }
+        assertEquals(sentCount, _sent.size());
+        verify(callback, never()).onRequestCompleted(any());
+    }
+}
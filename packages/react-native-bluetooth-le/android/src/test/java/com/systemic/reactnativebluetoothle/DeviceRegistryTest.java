@@ -0,0 +1,162 @@
+package com.systemic.reactnativebluetoothle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.systemic.bluetoothle.Peripheral;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeviceRegistryTest {
+    // Length of the hash table until the registry grows
+    private static final int INITIAL_TABLE_LENGTH = 32;
+
+    // Gets keys which home index in the initial hash table is the given one
+    private static List<Long> keysWithHomeIndex(int index, int count) {
+        ArrayList<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; ++key) {
+            if ((DeviceRegistry.hash(key) & (INITIAL_TABLE_LENGTH - 1)) == index) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static BluetoothDevice device() {
+        return mock(BluetoothDevice.class);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDevice() {
+        DeviceRegistry registry = new DeviceRegistry(2);
+        BluetoothDevice first = device();
+        registry.putDevice(1, first);
+        registry.putDevice(2, device());
+        // Getting the first device makes the second one the least recently used
+        assertSame(first, registry.getDevice(1));
+        registry.putDevice(3, device());
+
+        assertEquals(2, registry.size());
+        assertNotNull(registry.getDevice(1));
+        assertNull(registry.getDevice(2));
+        assertNotNull(registry.getDevice(3));
+    }
+
+    @Test
+    public void updatingDeviceMarksItAsRecentlyUsed() {
+        DeviceRegistry registry = new DeviceRegistry(2);
+        registry.putDevice(1, device());
+        registry.putDevice(2, device());
+        BluetoothDevice updated = device();
+        registry.putDevice(1, updated);
+        registry.putDevice(3, device());
+
+        assertSame(updated, registry.getDevice(1));
+        assertNull(registry.getDevice(2));
+    }
+
+    @Test
+    public void removesDeviceInsideWrappedCluster() {
+        // A cluster starting at the end of the table and wrapping to its start
+        List<Long> keys = keysWithHomeIndex(INITIAL_TABLE_LENGTH - 1, 3);
+        long wrapped = keysWithHomeIndex(0, 1).get(0);
+        DeviceRegistry registry = new DeviceRegistry(4);
+        for (long key : keys) {
+            registry.putDevice(key, device());
+        }
+        registry.putDevice(wrapped, device());
+
+        // Evicts the first device, at the start of the cluster
+        registry.putDevice(1000, device());
+        assertNull(registry.getDevice(keys.get(0)));
+        for (long key : keys.subList(1, keys.size())) {
+            assertNotNull(registry.getDevice(key));
+        }
+        assertNotNull(registry.getDevice(wrapped));
+
+        // Evicts a device in the wrapped part of the cluster, followed by another one
+        registry.getDevice(1000);
+        registry.getDevice(keys.get(1));
+        registry.getDevice(wrapped);
+        registry.putDevice(1001, device());
+        assertNull(registry.getDevice(keys.get(2)));
+        assertNotNull(registry.getDevice(keys.get(1)));
+        assertNotNull(registry.getDevice(wrapped));
+        assertNotNull(registry.getDevice(1000));
+        assertEquals(4, registry.size());
+    }
+
+    @Test
+    public void keepsDevicesWithPeripheral() {
+        DeviceRegistry registry = new DeviceRegistry(1);
+        Peripheral peripheral = mock(Peripheral.class);
+        registry.putPeripheral(1, device(), peripheral);
+        registry.putDevice(2, device());
+        registry.putDevice(3, device());
+
+        assertEquals(2, registry.size());
+        assertSame(peripheral, registry.getPeripheral(1));
+        assertNull(registry.getDevice(2));
+        assertNotNull(registry.getDevice(3));
+    }
+
+    @Test
+    public void pinsAndUnpinsDevices() {
+        DeviceRegistry registry = new DeviceRegistry(1);
+        Peripheral peripheral = mock(Peripheral.class);
+        // Pinning a device already registered doesn't count it as unpinned anymore
+        registry.putDevice(1, device());
+        registry.putPeripheral(1, device(), peripheral);
+        registry.putDevice(2, device());
+        assertEquals(2, registry.size());
+
+        // The unpinned device becomes the most recently used one
+        assertSame(peripheral, registry.removePeripheral(1));
+        assertNull(registry.removePeripheral(1));
+        assertEquals(1, registry.size());
+        assertNotNull(registry.getDevice(1));
+        assertNull(registry.getDevice(2));
+        assertEquals(0, registry.getPeripherals().size());
+    }
+
+    @Test
+    public void growsAfterReusingFreeSlots() {
+        final int pinnedCount = 14;
+        DeviceRegistry registry = new DeviceRegistry(2);
+        ArrayList<Peripheral> peripherals = new ArrayList<>();
+        for (int i = 0; i < pinnedCount; ++i) {
+            Peripheral peripheral = mock(Peripheral.class);
+            peripherals.add(peripheral);
+            registry.putPeripheral(i, device(), peripheral);
+        }
+        // Fill the initial slots, then evict devices so their slots are freed and reused
+        for (int i = 100; i < 104; ++i) {
+            registry.putDevice(i, device());
+        }
+        assertNull(registry.getDevice(100));
+        assertNull(registry.getDevice(101));
+
+        // Grow again with pinned devices
+        for (int i = pinnedCount; i < 3 * pinnedCount; ++i) {
+            Peripheral peripheral = mock(Peripheral.class);
+            peripherals.add(peripheral);
+            registry.putPeripheral(i, device(), peripheral);
+        }
+
+        assertEquals(peripherals.size() + 2, registry.size());
+        for (int i = 0; i < peripherals.size(); ++i) {
+            assertSame(peripherals.get(i), registry.getPeripheral(i));
+        }
+        assertNotNull(registry.getDevice(102));
+        assertNotNull(registry.getDevice(103));
+        assertEquals(peripherals.size(), registry.getPeripherals().size());
+    }
+}
@@ -302,6 +302,7 @@ RCT_EXPORT_METHOD(bleInitialize:(RCTPromiseResolveBlock)resolve
 }
 
 RCT_EXPORT_METHOD(startScan:(NSString *)servicesUuids
+                  options:(NSDictionary *)options // Android only
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject)
 {
@@ -605,6 +606,7 @@ RCT_EXPORT_METHOD(subscribeCharacteristic:(NSString *)deviceSystemId
                   serviceUuid:(NSString *)serviceUuid
                   characteristicUuid:(NSString *)characteristicUuid
                   instanceIndex:(nonnull NSNumber *)instanceIndex
+                  options:(NSDictionary *)options // Android only
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject)
 {
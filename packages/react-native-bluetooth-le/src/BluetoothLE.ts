@@ -36,6 +36,21 @@ export type ServiceData = Readonly<{
   data: readonly number[];
 }>;
 
+// Advertisement data of a Pixels device decoded by the native code
+// (Android only), values are not mapped to their enum names.
+export type PixelsAdvertisementData = Readonly<{
+  type: "die" | "legacyDie" | "charger" | "mpc" | "bootloader";
+  pixelId: number; // 0 for a bootloader
+  ledCount: number;
+  colorway: number;
+  dieType: number;
+  rollState: number;
+  faceIndex: number;
+  batteryLevel: number;
+  isCharging: boolean;
+  firmwareTime: number; // In ms since the Unix epoch
+}>;
+
 export type AdvertisementData = Readonly<{
   localName?: string; // iOS only
   isConnectable: boolean;
@@ -46,6 +61,8 @@ export type AdvertisementData = Readonly<{
   solicitedServices?: readonly string[];
   manufacturersData?: readonly ManufacturerData[];
   servicesData?: readonly ServiceData[];
+  // When present, manufacturer and service data are not included
+  pixelsData?: PixelsAdvertisementData;
 }>;
 
 export type Characteristic = Readonly<{
@@ -82,11 +99,196 @@ export type BluetoothState =
   | "unauthorized"
   | "ready";
 
+/**
+ * Filter for the advertisements to report (Android only, ignored on iOS).
+ */
+// All the given criteria must match.
+// Masks have the same length as their data, a bit set to 1 means that
+// the corresponding data bit must match.
+export type NativeScanFilter = Readonly<{
+  // Service that must be advertised
+  service?: string;
+  // Company identifier of the manufacturer data
+  manufacturerId?: number;
+  // First bytes of the manufacturer data, requires `manufacturerId`
+  manufacturerData?: readonly number[];
+  manufacturerDataMask?: readonly number[];
+  // UUID of the service data
+  serviceDataUuid?: string;
+  // First bytes of the service data, requires `serviceDataUuid`
+  serviceData?: readonly number[];
+  serviceDataMask?: readonly number[];
+  // Text that the advertised name must start with, it is checked by software
+  // while the other criteria may be checked by the Bluetooth controller
+  namePrefix?: string;
+}>;
+
+/**
+ * Options for a native BLE scan (Android only, ignored on iOS).
+ */
+export type NativeScanOptions = Readonly<{
+  // Minimum time interval in milliseconds between two scan results
+  // for the same device, only the latest advertisement is reported.
+  // Set to 0 to get notified for each advertisement packet.
+  coalescingInterval?: number;
+  // Whether scan results should be sent in a "scanResultBatch" event
+  // rather than one "scanResult" event per advertisement.
+  // Scan errors are still reported with a "scanResult" event.
+  batchResults?: boolean;
+  // Delay in milliseconds for the Bluetooth controller to queue scan results
+  // before reporting them together (when supported by the controller).
+  // Best used with `batchResults`.
+  reportDelay?: number;
+  // Whether to drop advertisements with the same payload as the last reported
+  // one for the device, unless the RSSI moved by more than `rssiThreshold`
+  // or the last report is older than `heartbeatInterval`.
+  filterUnchanged?: boolean;
+  // RSSI variation in dBm to report an unchanged advertisement, default to 5.
+  rssiThreshold?: number;
+  // Maximum interval in milliseconds between two reports for a device
+  // that keeps advertising, default to 2000.
+  heartbeatInterval?: number;
+  // Whether to decode the advertisement data of Pixels devices in native code,
+  // see `AdvertisementData.pixelsData`.
+  decodePixelsData?: boolean;
+  // Time in milliseconds after which a device that stopped advertising
+  // is reported lost with a "scanPresence" event. Devices are also reported
+  // with this event when first seen. Set to 0 to disable presence tracking.
+  presenceTimeout?: number;
+  // Whether to only report presence changes, and not each advertisement.
+  // Presence is tracked by the Bluetooth controller when it supports
+  // offloaded filtering and the scan is filtered by services.
+  presenceOnly?: boolean;
+  // Advertisements matching at least one of the filters are reported.
+  // When not empty, replaces the filtering by the scanned services.
+  filters?: readonly NativeScanFilter[];
+  // Steps the scan mode down to balanced and then low power when no new
+  // device or advertisement change is seen, and back to low latency
+  // on the next activity. Notified with "scanMode" events.
+  // Each mode is kept a few seconds as changing it restarts the scan.
+  adaptiveScanMode?: boolean;
+  // Delay without activity before switching to the balanced scan mode,
+  // in milliseconds, defaults to 10 seconds
+  balancedModeDelay?: number;
+  // Delay without activity before switching to the low power scan mode,
+  // in milliseconds, defaults to 60 seconds
+  lowPowerModeDelay?: number;
+}>;
+
+/**
+ * Priority class of a characteristic write (Android only).
+ * Waiting writes are sent in order of priority, lower priorities being
+ * regularly interleaved so they are not starved.
+ */
+export type NativeRequestPriority = "interactive" | "normal" | "bulk";
+
+/**
+ * Statistics of the writes queued by a peripheral for a priority class.
+ */
+export type NativeQueueStatistics = Readonly<{
+  depth: number; // Number of waiting writes
+  sentCount: number;
+  averageWaitTime: number; // In milliseconds
+  maxWaitTime: number; // In milliseconds
+}>;
+
+/**
+ * Options of the native connection scheduler (Android only).
+ * Connection attempts failing with GATT_ERROR (133) or a timeout are retried
+ * after an exponential backoff delay with jitter.
+ */
+export type NativeConnectionOptions = Readonly<{
+  // Defaults to 2
+  maxConcurrentConnects?: number;
+  // Zero to never retry, defaults to 3
+  maxRetries?: number;
+  // Delay before the first retry in milliseconds, doubled for each following
+  // retry, defaults to 500
+  retryDelay?: number;
+  // In milliseconds, defaults to 8 seconds
+  maxRetryDelay?: number;
+  // Number of failed attempts after which the GATT cache is refreshed,
+  // zero to never refresh it, defaults to 2
+  cacheRefreshFailures?: number;
+}>;
+
+/**
+ * Statistics of the connection attempts made for a peripheral.
+ */
+export type NativeConnectionStatistics = Readonly<{
+  attempts: number; // Including retries
+  successes: number;
+  failures: number;
+  cacheRefreshes: number;
+  lastFailureStatus: number; // Zero if no attempt failed
+  lastConnectionTime: number; // In milliseconds, including queuing and retries
+}>;
+
+/**
+ * Connection parameters obtained for a high throughput session.
+ */
+export type NativeThroughputParameters = Readonly<{
+  mtu: number;
+  txPhy: number; // 1 for 1M PHY, 2 for 2M PHY and 3 for coded PHY
+  rxPhy: number; // 1 for 1M PHY, 2 for 2M PHY and 3 for coded PHY
+  connectionInterval: number; // In milliseconds, zero if unknown
+}>;
+
+/**
+ * Rule for reassembling a message sent over several notifications.
+ * - "lengthPrefixed": the first packet of a message has a length field,
+ *   the message is complete once the number of received bytes reaches
+ *   that length plus "headerSize" (defaults to 0). The length field
+ *   is "lengthSize" bytes (1, 2 or 4, defaults to 1) at "lengthOffset"
+ *   (defaults to 0), little endian unless "littleEndian" is false.
+ * - "terminated": a message ends with a packet whose last byte
+ *   is the "terminator" value.
+ */
+export type NativeFraming =
+  | Readonly<{
+      type: "lengthPrefixed";
+      lengthOffset?: number;
+      lengthSize?: 1 | 2 | 4;
+      littleEndian?: boolean;
+      headerSize?: number;
+    }>
+  | Readonly<{
+      type: "terminated";
+      terminator: number;
+    }>;
+
+/**
+ * Options for subscribing to a characteristic (Android only, ignored on iOS).
+ */
+export type NativeSubscribeOptions = Readonly<{
+  // Buffers notifications for up to this duration, in milliseconds,
+  // and sends them in a single "characteristicValuesChanged" event.
+  // Zero (the default) sends each notification as soon as received.
+  coalescingInterval?: number;
+  // Sends the buffered notifications once this count is reached.
+  coalescingCount?: number;
+  // Whether to send the values as base64 strings ("dataBase64" property)
+  // rather than arrays of bytes ("data" property).
+  base64?: boolean;
+  // Reassembles the notifications into complete messages before
+  // sending them, see NativeFraming.
+  framing?: NativeFraming;
+}>;
+
 export interface NativeBluetoothLE extends NativeModule {
   bleInitialize(): Promise<void>;
   bleShutdown(): Promise<void>;
-  startScan(servicesUuids?: string): Promise<void>;
+  startScan(
+    servicesUuids?: string,
+    options?: NativeScanOptions
+  ): Promise<void>;
   stopScan(): Promise<void>;
+  // Scan sessions run concurrently and share a single BLE scan. Android only.
+  startScanSession(
+    servicesUuids?: string,
+    options?: NativeScanOptions
+  ): Promise<number>;
+  stopScanSession(sessionId: number): Promise<boolean>;
   createPeripheral(deviceSystemId: string): Promise<Device>;
   releasePeripheral(deviceSystemId: string): Promise<void>;
   connectPeripheral(
@@ -95,6 +297,19 @@ export interface NativeBluetoothLE extends NativeModule {
     timeoutMs: number
   ): Promise<void>;
   disconnectPeripheral(deviceSystemId: string): Promise<void>;
+  // Reconnects the peripheral in the background after a link loss and when
+  // Bluetooth is turned back on, restoring its MTU and subscriptions.
+  // Applies to the next connection request. Android only.
+  setPeripheralAutoReconnect(
+    deviceSystemId: string,
+    enabled: boolean
+  ): Promise<void>;
+  // Android only.
+  setConnectionOptions(options: NativeConnectionOptions): Promise<void>;
+  // Resolves to null if no connection was requested. Android only.
+  getPeripheralConnectionStatistics(
+    deviceSystemId: string
+  ): Promise<NativeConnectionStatistics | null>;
   getPeripheralConnectionStatus(
     deviceSystemId: string
   ): Promise<ConnectionStatus>;
@@ -104,6 +319,15 @@ export interface NativeBluetoothLE extends NativeModule {
   getPeripheralAddress(deviceSystemId: string): Promise<number>;
   getPeripheralMtu(deviceSystemId: string): Promise<number>;
   requestPeripheralMtu(deviceSystemId: string, mtu: number): Promise<number>;
+  // Requests high connection priority, 2M PHY and max MTU. Android only.
+  startHighThroughputSession(
+    deviceSystemId: string
+  ): Promise<NativeThroughputParameters>;
+  // Reverts the connection priority. Android only.
+  stopHighThroughputSession(
+    deviceSystemId: string,
+    lowPower: boolean
+  ): Promise<void>;
   readPeripheralRssi(deviceSystemId: string): Promise<number>;
   getDiscoveredServices(deviceSystemId: string): Promise<string>;
   getServiceCharacteristics(
@@ -116,12 +340,45 @@ export interface NativeBluetoothLE extends NativeModule {
     characteristicUuid: string,
     instanceIndex: number
   ): Promise<number>;
+  // Resolves with a handle identifying the characteristic in the requests
+  // "ByHandle", or -1 if the characteristic isn't found. A handle is only
+  // valid until the services are discovered again. Android only.
+  getCharacteristicHandle(
+    deviceSystemId: string,
+    serviceUuid: string,
+    characteristicUuid: string,
+    instanceIndex: number
+  ): Promise<number>;
+  // Concurrent reads of a characteristic share a single GATT read,
+  // and read values are returned by later reads for the given duration
+  // (zero by default) unless the characteristic is written. Android only.
+  setCharacteristicReadCacheDuration(
+    deviceSystemId: string,
+    durationMs: number
+  ): Promise<void>;
+  // Android only.
+  getPeripheralQueueStatistics(
+    deviceSystemId: string
+  ): Promise<Record<NativeRequestPriority, NativeQueueStatistics>>;
   readCharacteristic(
     deviceSystemId: string,
     serviceUuid: string,
     characteristicUuid: string,
     instanceIndex: number
   ): Promise<number[]>;
+  // Same as readCharacteristic() but returns a base64 string. Android only.
+  readCharacteristicBase64(
+    deviceSystemId: string,
+    serviceUuid: string,
+    characteristicUuid: string,
+    instanceIndex: number
+  ): Promise<string>;
+  // Same as readCharacteristicBase64() for the characteristic with
+  // the given handle. Android only.
+  readCharacteristicByHandle(
+    deviceSystemId: string,
+    handle: number
+  ): Promise<string>;
   writeCharacteristic(
     deviceSystemId: string,
     serviceUuid: string,
@@ -130,11 +387,83 @@ export interface NativeBluetoothLE extends NativeModule {
     data: number[],
     withoutResponse: boolean
   ): Promise<void>;
+  // Data is split in packets of MTU - 3 bytes, progress is notified
+  // with "writeProgress" events when transferId isn't zero. Android only.
+  writeCharacteristicBulk(
+    deviceSystemId: string,
+    serviceUuid: string,
+    characteristicUuid: string,
+    instanceIndex: number,
+    data: string, // Base64
+    withoutResponse: boolean,
+    transferId: number
+  ): Promise<void>;
+  // Same as writeCharacteristicBulk() for the characteristic with
+  // the given handle. Android only.
+  writeCharacteristicBulkByHandle(
+    deviceSystemId: string,
+    handle: number,
+    data: string, // Base64
+    withoutResponse: boolean,
+    transferId: number
+  ): Promise<void>;
+  // Same as writeCharacteristic() but takes a base64 string. Android only.
+  // A write with a coalescing key replaces the not yet sent write of the same
+  // characteristic with the same key, which then rejects with ERROR_CANCELLED.
+  writeCharacteristicBase64(
+    deviceSystemId: string,
+    serviceUuid: string,
+    characteristicUuid: string,
+    instanceIndex: number,
+    data: string,
+    withoutResponse: boolean,
+    coalescingKey?: string,
+    priority?: NativeRequestPriority
+  ): Promise<void>;
+  // Same as writeCharacteristicBase64() for the characteristic with
+  // the given handle. Android only.
+  writeCharacteristicByHandle(
+    deviceSystemId: string,
+    handle: number,
+    data: string,
+    withoutResponse: boolean,
+    coalescingKey?: string,
+    priority?: NativeRequestPriority
+  ): Promise<void>;
+  // Writes a base64 string and resolves with the first notification of
+  // the notify characteristic (of the same service) which first byte is
+  // the response type, as a base64 string. Rejects with ERROR_TIMEOUT
+  // if no response is received in time, and with ERROR_NOT_ENABLED if the
+  // notify characteristic isn't subscribed. Android only.
+  writeCharacteristicAndWaitForResponse(
+    deviceSystemId: string,
+    serviceUuid: string,
+    characteristicUuid: string,
+    instanceIndex: number,
+    data: string,
+    withoutResponse: boolean,
+    notifyCharacteristicUuid: string,
+    notifyInstanceIndex: number,
+    responseType: number,
+    timeoutMs: number
+  ): Promise<string>;
+  // Same as writeCharacteristicAndWaitForResponse() for the characteristics
+  // with the given handles. Android only.
+  writeCharacteristicAndWaitForResponseByHandle(
+    deviceSystemId: string,
+    handle: number,
+    data: string,
+    withoutResponse: boolean,
+    notifyHandle: number,
+    responseType: number,
+    timeoutMs: number
+  ): Promise<string>;
   subscribeCharacteristic(
     deviceSystemId: string,
     serviceUuid: string,
     characteristicUuid: string,
-    instanceIndex: number
+    instanceIndex: number,
+    options?: NativeSubscribeOptions
   ): Promise<void>;
   unsubscribeCharacteristic(
     deviceSystemId: string,
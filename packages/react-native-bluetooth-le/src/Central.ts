@@ -4,19 +4,39 @@ import {
   EventReceiver,
   TypedEventEmitter,
 } from "@systemic-games/pixels-core-utils";
-import { NativeEventEmitter, EmitterSubscription } from "react-native";
+import { fromByteArray, toByteArray } from "base64-js";
+import {
+  NativeEventEmitter,
+  EmitterSubscription,
+  Platform,
+} from "react-native";
 
 import {
   AdvertisementData,
   BluetoothLE,
   BluetoothState,
+  Characteristic,
   ConnectionEventReason,
   ConnectionStatus,
   Device,
+  NativeConnectionOptions,
+  NativeConnectionStatistics,
+  NativeFraming,
+  NativeQueueStatistics,
+  NativeRequestPriority,
+  NativeScanOptions,
+  NativeThroughputParameters,
 } from "./BluetoothLE";
 import { Constants } from "./Constants";
 import * as Errors from "./errors";
-import { BleEventMap } from "./events";
+import {
+  BleCharacteristicData,
+  BleEventMap,
+  BleScanModeEvent,
+  BleScanPresenceEvent,
+  BleScanThrottleEvent,
+  ScanResult,
+} from "./events";
 import { getNativeErrorCode } from "./getNativeErrorCode";
 import { requestPermissions } from "./requestPermissions";
 
@@ -109,6 +129,25 @@ export type CentralEventMap = Readonly<{
     peripheral: ScannedPeripheral;
     context?: unknown;
   }>;
+  // Android only, the scan start is delayed to not exceed the number
+  // of scans allowed by the OS (5 over the last 30 seconds)
+  scanThrottle: Readonly<{
+    throttled: boolean;
+    delay: number; // In milliseconds
+    context?: unknown;
+  }>;
+  // Android only, when scanning with an adaptive scan mode
+  scanMode: Readonly<{
+    mode: BleScanModeEvent["mode"];
+    modes: BleScanModeEvent["modes"];
+    context?: unknown;
+  }>;
+  // Android only, when scanning with presence tracking
+  peripheralPresence: Readonly<{
+    peripheral: ScannedPeripheral;
+    present: boolean;
+    context?: unknown;
+  }>;
   peripheralConnectionStatus: Readonly<{
     peripheral: ScannedPeripheral;
     connectionStatus: ConnectionStatus;
@@ -124,7 +163,8 @@ export type PeripheralCharacteristicValueChangedEvent = Readonly<{
   service: string;
   characteristic: string;
   characteristicIndex: number;
-  value: readonly number[]; // Array of bytes
+  value: readonly number[] | Uint8Array; // Array of bytes
+  timestamp?: number; // When coalescing notifications, milliseconds since epoch
 }>;
 
 export type PeripheralOrSystemId = ScannedPeripheral | string;
@@ -141,8 +181,13 @@ interface PeripheralInfo {
   evEmitter: TypedEventEmitter<PeripheralEventMap>;
   valueChangedCallbacks: Map<
     string,
-    (ev: PeripheralCharacteristicValueChangedEvent) => void
+    Set<(ev: PeripheralCharacteristicValueChangedEvent) => void>
   >;
+  autoReconnect: boolean; // Android only
+  reconnecting: boolean; // Whether waiting for a native reconnection
+  // Native handles of the characteristics used with this connection, -1 while
+  // being resolved. Replaced on each connection status change (Android only).
+  characteristicHandles: Map<string, number>;
 }
 
 // Our native event emitter and subscriptions
@@ -150,7 +195,26 @@ let _nativeEmitter: NativeEventEmitter | undefined;
 let _bleStateSubs: EmitterSubscription | undefined;
 let _connStatusSubs: EmitterSubscription | undefined;
 let _valueChangedSubs: EmitterSubscription | undefined;
+let _valuesChangedSubs: EmitterSubscription | undefined;
 let _scanResultSubs: EmitterSubscription | undefined;
+let _scanResultBatchSubs: EmitterSubscription | undefined;
+let _scanPresenceSubs: EmitterSubscription | undefined;
+let _scanThrottleSubs: EmitterSubscription | undefined;
+let _scanModeSubs: EmitterSubscription | undefined;
+let _scanSessionsSubs: EmitterSubscription[] | undefined;
+
+// Last id given to a bulk write, for routing its progress events
+let _lastTransferId = 0;
+
+// Running scan sessions, Android only
+const _scanSessions = new Map<
+  number,
+  Readonly<{
+    services: readonly string[];
+    presenceOnly: boolean;
+    context: unknown;
+  }>
+>();
 
 // Our event emitter
 const _evEmitter = createTypedEventEmitter<CentralEventMap>();
@@ -190,6 +254,256 @@ function _addNativeListener<T extends keyof BleEventMap>(
   return _nativeEmitter.addListener(type, listener);
 }
 
+// Update the peripherals registry with a scan result and notify
+function _processScanResult(
+  result: ScanResult,
+  servicesArray: readonly string[],
+  context: unknown
+): void {
+  const peripheral = _updateScannedPeripheral(result, servicesArray);
+  _emitEvent("scannedPeripheral", { peripheral, context });
+}
+
+// Update the peripherals registry with a scan result
+function _updateScannedPeripheral(
+  { device, advertisementData }: ScanResult,
+  servicesArray: readonly string[]
+): ScannedPeripheral {
+  const peripheral = { ...device, advertisementData };
+  const name = device.name;
+  const pInf = _peripherals.get(device.systemId);
+  const requiredServices = servicesArray
+    .filter((s) => advertisementData.services?.includes(s))
+    ?.join(",");
+  if (servicesArray.length && !requiredServices.length) {
+    console.warn(
+      `[BLE ${name}] Reported services ${advertisementData.services?.join(",") ?? ""} do not include any of the requested services`
+    );
+  }
+  if (pInf) {
+    pInf.scannedPeripheral = peripheral;
+    pInf.requiredServices = requiredServices;
+    // Note: don't change state as the peripheral might be in the process of being connected
+  } else {
+    _peripherals.set(device.systemId, {
+      scannedPeripheral: peripheral,
+      state: "disconnected",
+      requiredServices,
+      evEmitter: createTypedEventEmitter(),
+      valueChangedCallbacks: new Map(),
+      autoReconnect: false,
+      reconnecting: false,
+      characteristicHandles: new Map(),
+    });
+  }
+  return peripheral;
+}
+
+// Notify of a presence change, Android only
+function _processScanPresence(
+  ev: BleScanPresenceEvent,
+  servicesArray: readonly string[],
+  presenceOnly: boolean,
+  context: unknown
+): void {
+  if (ev.presence === "found") {
+    // Also process the advertisement data, it's only notified as a scan result
+    // in presence only mode as the advertisement is otherwise reported too
+    if (presenceOnly) {
+      _processScanResult(ev, servicesArray, context);
+    } else {
+      _updateScannedPeripheral(ev, servicesArray);
+    }
+  }
+  const pInf = _peripherals.get(ev.device.systemId);
+  if (pInf) {
+    _emitEvent("peripheralPresence", {
+      peripheral: pInf.scannedPeripheral,
+      present: ev.presence === "found",
+      context,
+    });
+  }
+}
+
+// Notify of a throttle state change, Android only
+function _processScanThrottle(
+  { throttled, delay }: BleScanThrottleEvent,
+  context: unknown
+): void {
+  if (throttled) {
+    console.log(`[BLE] Scan start delayed by ${delay}ms`);
+  }
+  _emitEvent("scanThrottle", { throttled, delay, context });
+}
+
+// Notify of a scan mode change, Android only
+function _processScanMode(
+  { mode, modes }: BleScanModeEvent,
+  context: unknown
+): void {
+  console.log(`[BLE] Scan mode changed to ${mode}`);
+  _emitEvent("scanMode", { mode, modes, context });
+}
+
+// Forward characteristic value changes, in order
+function _forwardValueChanged(
+  device: Device,
+  characteristic: Characteristic,
+  values: readonly (BleCharacteristicData & { readonly timestamp?: number })[]
+): void {
+  const name = device.name;
+  try {
+    const pInf = _peripherals.get(device.systemId);
+    if (pInf) {
+      const callbacks = pInf.valueChangedCallbacks.get(
+        getCharacteristicKey(
+          characteristic.serviceUuid,
+          characteristic.uuid,
+          characteristic.instanceIndex
+        )
+      );
+      if (callbacks?.size) {
+        for (const value of values) {
+          const ev = {
+            peripheral: pInf.scannedPeripheral,
+            service: characteristic.serviceUuid,
+            characteristic: characteristic.uuid,
+            characteristicIndex: characteristic.instanceIndex,
+            value:
+              "dataBase64" in value
+                ? toByteArray(value.dataBase64)
+                : value.data,
+            timestamp: value.timestamp,
+          };
+          for (const onValueChanged of callbacks) {
+            onValueChanged(ev);
+          }
+        }
+      }
+    } else {
+      console.warn(
+        `[BLE ${name}] Got characteristic value changed for unknown scanned peripheral`
+      );
+    }
+  } catch (error) {
+    const e = errToStr(error);
+    console.error(
+      `[BLE ${name}] Uncaught error in Characteristic Value Changed event listener: ${e}`
+    );
+  }
+}
+
+// Gets the native handle of a characteristic if it's known, otherwise starts
+// resolving it for the next requests and returns undefined so the request
+// passes the UUIDs. Handles are resolved once per connection and the native
+// calls are made right away so requests are issued in order (Android only).
+function _getCharacteristicHandle(
+  peripheral: PeripheralOrSystemId,
+  serviceUuid: string,
+  characteristicUuid: string,
+  instanceIndex: number
+): number | undefined {
+  const pInf = _peripherals.get(_getSystemId(peripheral));
+  if (pInf?.state !== "ready") {
+    return undefined;
+  }
+  // Keep the map of this connection, it's replaced on disconnection
+  const handles = pInf.characteristicHandles;
+  const key = getCharacteristicKey(
+    serviceUuid,
+    characteristicUuid,
+    instanceIndex
+  );
+  const handle = handles.get(key);
+  if (handle !== undefined) {
+    return handle >= 0 ? handle : undefined;
+  }
+  handles.set(key, -1);
+  BluetoothLE.getCharacteristicHandle(
+    _getSystemId(peripheral),
+    serviceUuid,
+    characteristicUuid,
+    instanceIndex
+  ).then(
+    (h) => {
+      if (h >= 0) {
+        handles.set(key, h);
+      } else {
+        // Try again with the next request
+        handles.delete(key);
+      }
+    },
+    () => handles.delete(key)
+  );
+  return undefined;
+}
+
+// Forgets the handle of a characteristic if the request using it was
+// rejected as invalid, as it happens when the services are discovered again
+function _checkCharacteristicHandle(
+  peripheral: PeripheralOrSystemId,
+  serviceUuid: string,
+  characteristicUuid: string,
+  instanceIndex: number,
+  error: unknown
+): void {
+  if (getNativeErrorCode(error) === "ERROR_INVALID_REQUEST") {
+    _peripherals
+      .get(_getSystemId(peripheral))
+      ?.characteristicHandles.delete(
+        getCharacteristicKey(serviceUuid, characteristicUuid, instanceIndex)
+      );
+  }
+}
+
+// Listen to native scan sessions events
+function _subscribeScanSessions(): void {
+  if (!_scanSessionsSubs) {
+    _scanSessionsSubs = [
+      _addNativeListener("scanSessionResults", (ev) => {
+        const session = _scanSessions.get(ev.sessionId);
+        if (!session) {
+          // Ignore events from stopped sessions
+        } else if ("error" in ev) {
+          console.warn(
+            `[BLE] Scan session ${ev.sessionId} failed with error ${ev.error}`
+          );
+        } else {
+          for (const result of ev.results) {
+            _processScanResult(result, session.services, session.context);
+          }
+        }
+      }),
+      _addNativeListener("scanPresence", (ev) => {
+        const session =
+          ev.sessionId !== undefined && _scanSessions.get(ev.sessionId);
+        if (session) {
+          _processScanPresence(
+            ev,
+            session.services,
+            session.presenceOnly,
+            session.context
+          );
+        }
+      }),
+      _addNativeListener("scanThrottle", (ev) => {
+        const session =
+          ev.sessionId !== undefined && _scanSessions.get(ev.sessionId);
+        if (session) {
+          _processScanThrottle(ev, session.context);
+        }
+      }),
+      _addNativeListener("scanMode", (ev) => {
+        const session =
+          ev.sessionId !== undefined && _scanSessions.get(ev.sessionId);
+        if (session) {
+          _processScanMode(ev, session.context);
+        }
+      }),
+    ];
+  }
+}
+
 function _emitEvent(
   type: keyof CentralEventMap,
   ev: CentralEventMap[keyof CentralEventMap]
@@ -241,6 +555,14 @@ function _updateScanStatus(
     _scanToken = undefined;
     _scanResultSubs?.remove();
     _scanResultSubs = undefined;
+    _scanResultBatchSubs?.remove();
+    _scanResultBatchSubs = undefined;
+    _scanPresenceSubs?.remove();
+    _scanPresenceSubs = undefined;
+    _scanThrottleSubs?.remove();
+    _scanThrottleSubs = undefined;
+    _scanModeSubs?.remove();
+    _scanModeSubs = undefined;
   }
 
   // Update and notify
@@ -270,7 +592,20 @@ function _updateConnectionStatus(
   } else {
     pInf.state = connectionStatus;
   }
+  if (pInf.state === "disconnected" && !pInf.reconnecting) {
+    // Subscriptions don't survive a disconnection, unless the connection
+    // was lost and the peripheral is reconnected natively
+    pInf.reconnecting =
+      pInf.autoReconnect &&
+      prevState === "ready" &&
+      (reason === "linkLoss" || reason === "host");
+    if (!pInf.reconnecting) {
+      pInf.valueChangedCallbacks.clear();
+    }
+  }
   if (prevState !== pInf.state) {
+    // Handles are only valid for the services of a connection
+    pInf.characteristicHandles = new Map();
     const ev = {
       peripheral: pInf.scannedPeripheral,
       connectionStatus,
@@ -349,9 +684,14 @@ export const Central = {
                   ` with reason ${reason} (state was ${pInf.state})`
               );
             }
-            // The ready status is notified once the MTU has been set
+            // The ready status is notified once the MTU has been set,
+            // which is done natively when reconnecting automatically
             if (connectionStatus === "ready") {
-              connectionStatus = "connected";
+              if (pInf.reconnecting) {
+                pInf.reconnecting = false;
+              } else {
+                connectionStatus = "connected";
+              }
             }
             _updateConnectionStatus(pInf, connectionStatus, reason);
           } else {
@@ -366,38 +706,13 @@ export const Central = {
       // Listen to native characteristic value changed events
       _valueChangedSubs = _addNativeListener(
         "characteristicValueChanged",
-        ({ device, characteristic, data }) => {
-          // Forward event
-          const name = device.name;
-          try {
-            const pInf = _peripherals.get(device.systemId);
-            if (pInf) {
-              const onValueChanged = pInf.valueChangedCallbacks.get(
-                getCharacteristicKey(
-                  characteristic.serviceUuid,
-                  characteristic.uuid,
-                  characteristic.instanceIndex
-                )
-              );
-              onValueChanged?.({
-                peripheral: pInf.scannedPeripheral,
-                service: characteristic.serviceUuid,
-                characteristic: characteristic.uuid,
-                characteristicIndex: characteristic.instanceIndex,
-                value: data,
-              });
-            } else {
-              console.warn(
-                `[BLE ${name}] Got characteristic value changed for unknown scanned peripheral`
-              );
-            }
-          } catch (error) {
-            const e = errToStr(error);
-            console.error(
-              `[BLE ${name}] Uncaught error in Characteristic Value Changed event listener: ${e}`
-            );
-          }
-        }
+        (ev) => _forwardValueChanged(ev.device, ev.characteristic, [ev])
+      );
+      // Android only, when coalescing notifications
+      _valuesChangedSubs = _addNativeListener(
+        "characteristicValuesChanged",
+        ({ device, characteristic, values }) =>
+          _forwardValueChanged(device, characteristic, values)
       );
       console.log("[BLE] Central has initialized");
     }
@@ -410,9 +725,17 @@ export const Central = {
     _connStatusSubs = undefined;
     _valueChangedSubs?.remove();
     _valueChangedSubs = undefined;
+    _valuesChangedSubs?.remove();
+    _valuesChangedSubs = undefined;
     // Keep Bluetooth state unchanged
     _updateScanStatus("stopped"); // This will unsubscribes from native scan result
     BluetoothLE.stopScan().catch(() => {}); // Ignore any error
+    for (const sessionId of _scanSessions.keys()) {
+      BluetoothLE.stopScanSession(sessionId).catch(() => {}); // Ignore any error
+    }
+    _scanSessions.clear();
+    _scanSessionsSubs?.forEach((s) => s.remove());
+    _scanSessionsSubs = undefined;
     _peripherals.clear();
     console.log("[BLE] Central has shutdown");
     // TODO _bleInit = false; BluetoothLE.bleShutdown();
@@ -470,13 +793,16 @@ export const Central = {
   // ScanStartFailed error is thrown if the scan failed to start
   // after switching to "starting" scan status (meaning it will
   // switch back to "stopped" status and give a stop reason).
-  // On Android, BLE scanning will fail without error when started
-  // more than 5 times over the last 30 seconds.
+  // On Android, BLE scanning would fail without error when started
+  // more than 5 times over the last 30 seconds, so the native code delays
+  // the scan start when needed and notifies with a "scanThrottle" event.
   // Peripheral advertising at least one of the services will be reported.
   // Notify for all peripherals if the list is undefined or empty.
+  // Scan options are only used on Android.
   async startScan(
     services?: string | readonly string[],
-    context?: unknown
+    context?: unknown,
+    options?: NativeScanOptions
   ): Promise<void> {
     if (!_nativeEmitter) {
       throw new Errors.CentralNotInitializedError();
@@ -548,6 +874,17 @@ export const Central = {
         : [...services];
     const servicesStr = servicesArray.join(",");
 
+    // Process a scan result
+    const onScanResult = (result: ScanResult) => {
+      if (_scanStatus !== "stopped") {
+        _processScanResult(result, servicesArray, context);
+      } else {
+        console.warn(
+          `[BLE] Dropping scan result for device ${result.device.name} because scan status is ${_scanStatus}`
+        );
+      }
+    };
+
     // Listen to native scan events
     _scanResultSubs?.remove();
     _scanResultSubs = _addNativeListener("scanResult", (ev) => {
@@ -559,46 +896,59 @@ export const Central = {
           "failedToStart",
           toScanStartError(ev.error)
         );
-      } else if (_scanStatus !== "stopped") {
-        // Forward event
-        const peripheral = {
-          ...ev.device,
-          advertisementData: ev.advertisementData,
-        };
-        const name = ev.device.name;
-        const pInf = _peripherals.get(ev.device.systemId);
-        const requiredServices = servicesArray
-          .filter((s) => ev.advertisementData.services?.includes(s))
-          ?.join(",");
-        if (servicesArray.length && !requiredServices.length) {
-          console.warn(
-            `[BLE ${name}] Reported services ${ev.advertisementData.services?.join(",") ?? ""} do not include any of the requested services`
-          );
-        }
-        if (pInf) {
-          pInf.scannedPeripheral = peripheral;
-          pInf.requiredServices = requiredServices;
-          // Note: don't change state as the peripheral might be in the process of being connected
-        } else {
-          _peripherals.set(ev.device.systemId, {
-            scannedPeripheral: peripheral,
-            state: "disconnected",
-            requiredServices,
-            evEmitter: createTypedEventEmitter(),
-            valueChangedCallbacks: new Map(),
-          });
-        }
-        _emitEvent("scannedPeripheral", { peripheral, context });
       } else {
-        console.warn(
-          `[BLE] Dropping scan result for device ${ev.device.name} because scan status is ${_scanStatus}`
-        );
+        onScanResult(ev);
       }
     });
+    _scanResultBatchSubs?.remove();
+    // Batched scan results are Android only
+    _scanResultBatchSubs =
+      options?.batchResults && Platform.OS === "android"
+        ? _addNativeListener("scanResultBatch", (results) => {
+            for (const ev of results) {
+              onScanResult(ev);
+            }
+          })
+        : undefined;
+    _scanPresenceSubs?.remove();
+    // Presence tracking is Android only
+    _scanPresenceSubs =
+      options?.presenceTimeout && Platform.OS === "android"
+        ? _addNativeListener("scanPresence", (ev) => {
+            if (ev.sessionId === undefined && _scanStatus !== "stopped") {
+              _processScanPresence(
+                ev,
+                servicesArray,
+                !!options?.presenceOnly,
+                context
+              );
+            }
+          })
+        : undefined;
+    _scanThrottleSubs?.remove();
+    // Scan starts are only throttled on Android
+    _scanThrottleSubs =
+      Platform.OS === "android"
+        ? _addNativeListener("scanThrottle", (ev) => {
+            if (ev.sessionId === undefined && _scanStatus !== "stopped") {
+              _processScanThrottle(ev, context);
+            }
+          })
+        : undefined;
+    _scanModeSubs?.remove();
+    // Adaptive scan mode is Android only
+    _scanModeSubs =
+      options?.adaptiveScanMode && Platform.OS === "android"
+        ? _addNativeListener("scanMode", (ev) => {
+            if (ev.sessionId === undefined && _scanStatus !== "stopped") {
+              _processScanMode(ev, context);
+            }
+          })
+        : undefined;
 
     // Start scan
     try {
-      await BluetoothLE.startScan(servicesStr);
+      await BluetoothLE.startScan(servicesStr, options);
     } catch (e) {
       // Failed to start scan
       const message = (e as Error)?.message;
@@ -635,15 +985,79 @@ export const Central = {
   },
 
   async stopScan(): Promise<void> {
-    // Remove native subscription right away so we don't process
+    // Remove native subscriptions right away so we don't process
     // any incoming scan results
     _scanResultSubs?.remove();
     _scanResultSubs = undefined;
+    _scanResultBatchSubs?.remove();
+    _scanResultBatchSubs = undefined;
+    _scanPresenceSubs?.remove();
+    _scanPresenceSubs = undefined;
+    _scanThrottleSubs?.remove();
+    _scanThrottleSubs = undefined;
+    _scanModeSubs?.remove();
+    _scanModeSubs = undefined;
     // Stop scan
     _updateScanStatus("stopped");
     await BluetoothLE.stopScan();
   },
 
+  // Android only.
+  // Starts a scan session which runs concurrently with the scan started
+  // with startScan() and the other scan sessions, all of them sharing
+  // the same BLE scan. Scanned peripherals are notified with the
+  // "scannedPeripheral" event and the given context.
+  // Returns the session id to pass to stopScanSession().
+  async startScanSession(
+    services?: string | readonly string[],
+    context?: unknown,
+    options?: NativeScanOptions
+  ): Promise<number> {
+    if (!_nativeEmitter) {
+      throw new Errors.CentralNotInitializedError();
+    }
+    if (Platform.OS !== "android") {
+      throw new Errors.BluetoothLEError("Scan sessions are Android only");
+    }
+    if (_bluetoothState !== "ready") {
+      throw _bluetoothState === "unauthorized"
+        ? new Errors.BluetoothNotAuthorizedError()
+        : new Errors.BluetoothUnavailableError(_bluetoothState);
+    }
+
+    // Requested services
+    const servicesArray = !services?.length
+      ? []
+      : typeof services === "string"
+        ? [services]
+        : [...services];
+
+    _subscribeScanSessions();
+    const sessionId = await BluetoothLE.startScanSession(
+      servicesArray.join(","),
+      options
+    );
+    _scanSessions.set(sessionId, {
+      services: servicesArray,
+      presenceOnly: !!options?.presenceOnly,
+      context,
+    });
+    console.log(`[BLE] Started scan session ${sessionId}`);
+    return sessionId;
+  },
+
+  // Android only.
+  async stopScanSession(sessionId: number): Promise<void> {
+    if (_scanSessions.delete(sessionId)) {
+      if (!_scanSessions.size) {
+        _scanSessionsSubs?.forEach((s) => s.remove());
+        _scanSessionsSubs = undefined;
+      }
+      console.log(`[BLE] Stopping scan session ${sessionId}`);
+      await BluetoothLE.stopScanSession(sessionId);
+    }
+  },
+
   // Not by default Android times out at 30s
   async connectPeripheral(
     peripheral: PeripheralOrSystemId,
@@ -657,6 +1071,12 @@ export const Central = {
         `, (state was ${pInf.state})`
     );
 
+    // Subscriptions will be made again
+    if (pInf.reconnecting) {
+      pInf.reconnecting = false;
+      pInf.valueChangedCallbacks.clear();
+    }
+
     // Update connection status if not already connecting/connected
     if (pInf.state === "disconnected") {
       _updateConnectionStatus(pInf, "connecting");
@@ -675,6 +1095,9 @@ export const Central = {
         }
         throw new Errors.ConnectError(name, "createFailed");
       }
+      if (Platform.OS === "android") {
+        await BluetoothLE.setPeripheralAutoReconnect(sysId, pInf.autoReconnect);
+      }
 
       // Connect to peripheral
       await BluetoothLE.connectPeripheral(
@@ -765,6 +1188,10 @@ export const Central = {
     const pInf = _getPeripheralInfo(peripheral);
     const name = pInf.scannedPeripheral.name;
     console.log(`[BLE ${name}] Disconnecting, state was ${pInf.state}`);
+    if (pInf.reconnecting) {
+      pInf.reconnecting = false;
+      pInf.valueChangedCallbacks.clear();
+    }
     try {
       await BluetoothLE.disconnectPeripheral(pInf.scannedPeripheral.systemId);
     } catch (error: any) {
@@ -786,6 +1213,44 @@ export const Central = {
     }
   },
 
+  // Reconnects the peripheral in the background when its connection is lost
+  // and when Bluetooth is turned back on, until it's disconnected.
+  // The MTU and subscriptions are restored before the peripheral is reported
+  // as ready again. Applies to the next connection request. Android only.
+  setPeripheralAutoReconnect(
+    peripheral: PeripheralOrSystemId,
+    enabled: boolean
+  ): void {
+    if (Platform.OS === "android") {
+      _getPeripheralInfo(peripheral).autoReconnect = enabled;
+    }
+  },
+
+  // Sets how many connection attempts may run at the same time and the retry
+  // policy of attempts failing with GATT_ERROR or a timeout. Android only.
+  async setConnectionOptions(options: NativeConnectionOptions): Promise<void> {
+    if (Platform.OS === "android") {
+      await BluetoothLE.setConnectionOptions(options);
+    }
+  },
+
+  // Returns the connection attempts statistics of the peripheral, or undefined
+  // if no connection was requested. Android only.
+  async getPeripheralConnectionStatistics(
+    peripheral: PeripheralOrSystemId
+  ): Promise<NativeConnectionStatistics | undefined> {
+    if (Platform.OS !== "android") {
+      throw new Errors.BluetoothLEError(
+        "Connection statistics are Android only"
+      );
+    }
+    return (
+      (await BluetoothLE.getPeripheralConnectionStatistics(
+        _getSystemId(peripheral)
+      )) ?? undefined
+    );
+  },
+
   async releasePeripheral(peripheral: PeripheralOrSystemId): Promise<void> {
     const pInf = _getPeripheralInfo(peripheral);
     await BluetoothLE.releasePeripheral(pInf.scannedPeripheral.systemId);
@@ -799,6 +1264,34 @@ export const Central = {
     return await BluetoothLE.getPeripheralMtu(_getSystemId(peripheral));
   },
 
+  // Requests high connection priority, 2M PHY and the max MTU to speed up
+  // transfers, and returns the parameters obtained. Android only.
+  async startHighThroughputSession(
+    peripheral: PeripheralOrSystemId
+  ): Promise<NativeThroughputParameters> {
+    if (Platform.OS !== "android") {
+      throw new Errors.BluetoothLEError(
+        "High throughput sessions are Android only"
+      );
+    }
+    return await BluetoothLE.startHighThroughputSession(
+      _getSystemId(peripheral)
+    );
+  },
+
+  // Reverts the connection priority to balanced, or low power. Android only.
+  async stopHighThroughputSession(
+    peripheral: PeripheralOrSystemId,
+    options?: { lowPower?: boolean }
+  ): Promise<void> {
+    if (Platform.OS === "android") {
+      await BluetoothLE.stopHighThroughputSession(
+        _getSystemId(peripheral),
+        options?.lowPower ?? false
+      );
+    }
+  },
+
   async readPeripheralRssi(
     peripheral: PeripheralOrSystemId,
     _timeoutMs = Constants.defaultRequestTimeout // TODO unused
@@ -840,6 +1333,34 @@ export const Central = {
     );
   },
 
+  // Sets for how long a read value is returned by later reads of the same
+  // characteristic without reading it again, zero to disable caching.
+  // A write to the characteristic drops its cached value. Android only.
+  async setCharacteristicReadCacheDuration(
+    peripheral: PeripheralOrSystemId,
+    durationMs: number
+  ): Promise<void> {
+    if (Platform.OS === "android") {
+      await BluetoothLE.setCharacteristicReadCacheDuration(
+        _getSystemId(peripheral),
+        durationMs
+      );
+    }
+  },
+
+  // Returns the number of writes waiting to be sent and their wait times
+  // for each priority class. Android only.
+  async getPeripheralQueueStatistics(
+    peripheral: PeripheralOrSystemId
+  ): Promise<Record<NativeRequestPriority, NativeQueueStatistics>> {
+    if (Platform.OS !== "android") {
+      throw new Errors.BluetoothLEError("Queue statistics are Android only");
+    }
+    return await BluetoothLE.getPeripheralQueueStatistics(
+      _getSystemId(peripheral)
+    );
+  },
+
   async readCharacteristic(
     peripheral: PeripheralOrSystemId,
     serviceUuid: string,
@@ -849,6 +1370,43 @@ export const Central = {
       timeoutMs?: number; // TODO unused => Constants.defaultRequestTimeout
     }
   ): Promise<Uint8Array> {
+    if (Platform.OS === "android") {
+      const instanceIndex = options?.instanceIndex ?? 0;
+      const handle = _getCharacteristicHandle(
+        peripheral,
+        serviceUuid,
+        characteristicUuid,
+        instanceIndex
+      );
+      if (handle !== undefined) {
+        try {
+          return toByteArray(
+            await BluetoothLE.readCharacteristicByHandle(
+              _getSystemId(peripheral),
+              handle
+            )
+          );
+        } catch (error) {
+          _checkCharacteristicHandle(
+            peripheral,
+            serviceUuid,
+            characteristicUuid,
+            instanceIndex,
+            error
+          );
+          throw error;
+        }
+      }
+      // Avoid marshalling each byte
+      return toByteArray(
+        await BluetoothLE.readCharacteristicBase64(
+          _getSystemId(peripheral),
+          serviceUuid,
+          characteristicUuid,
+          instanceIndex
+        )
+      );
+    }
     return new Uint8Array(
       (await BluetoothLE.readCharacteristic(
         _getSystemId(peripheral),
@@ -868,20 +1426,251 @@ export const Central = {
       withoutResponse?: boolean;
       instanceIndex?: number;
       timeoutMs?: number; // TODO unused => Constants.defaultRequestTimeout
+      // Android only, the write replaces the not yet sent write with the same
+      // key (which then rejects with ERROR_CANCELLED) so only the latest value
+      // is sent, for example when following a slider. Only one write per key
+      // is sent at a time, with or without response.
+      coalescingKey?: string;
+      // Android only, waiting writes are sent in order of priority
+      priority?: NativeRequestPriority;
     }
   ): Promise<void> {
-    await BluetoothLE.writeCharacteristic(
-      _getSystemId(peripheral),
+    if (Platform.OS === "android") {
+      const instanceIndex = options?.instanceIndex ?? 0;
+      const handle = _getCharacteristicHandle(
+        peripheral,
+        serviceUuid,
+        characteristicUuid,
+        instanceIndex
+      );
+      // Avoid marshalling each byte
+      const dataBase64 = fromByteArray(new Uint8Array(data));
+      if (handle !== undefined) {
+        try {
+          await BluetoothLE.writeCharacteristicByHandle(
+            _getSystemId(peripheral),
+            handle,
+            dataBase64,
+            options?.withoutResponse ?? false,
+            options?.coalescingKey,
+            options?.priority
+          );
+        } catch (error) {
+          _checkCharacteristicHandle(
+            peripheral,
+            serviceUuid,
+            characteristicUuid,
+            instanceIndex,
+            error
+          );
+          throw error;
+        }
+      } else {
+        await BluetoothLE.writeCharacteristicBase64(
+          _getSystemId(peripheral),
+          serviceUuid,
+          characteristicUuid,
+          instanceIndex,
+          dataBase64,
+          options?.withoutResponse ?? false,
+          options?.coalescingKey,
+          options?.priority
+        );
+      }
+    } else {
+      await BluetoothLE.writeCharacteristic(
+        _getSystemId(peripheral),
+        serviceUuid,
+        characteristicUuid,
+        options?.instanceIndex ?? 0,
+        [...new Uint8Array(data)],
+        options?.withoutResponse ?? false
+      );
+    }
+  },
+
+  // Writes data and waits for a response notified by another characteristic
+  // of the same service, which must be subscribed. The response is the first
+  // notification which first byte is the given response type.
+  // The wait is done natively so there is a single bridge round trip,
+  // and other requests of the peripheral are processed in the meantime.
+  // Android only.
+  async writeCharacteristicAndWaitForResponse(
+    peripheral: PeripheralOrSystemId,
+    serviceUuid: string,
+    characteristicUuid: string,
+    data: ArrayBuffer,
+    notifyCharacteristicUuid: string,
+    responseType: number,
+    options?: {
+      withoutResponse?: boolean;
+      instanceIndex?: number;
+      notifyInstanceIndex?: number;
+      timeoutMs?: number;
+    }
+  ): Promise<Uint8Array> {
+    if (Platform.OS !== "android") {
+      throw new Errors.BluetoothLEError(
+        "Writing and waiting for a response is Android only"
+      );
+    }
+    const instanceIndex = options?.instanceIndex ?? 0;
+    const notifyInstanceIndex = options?.notifyInstanceIndex ?? 0;
+    const dataBase64 = fromByteArray(new Uint8Array(data));
+    const timeoutMs = options?.timeoutMs ?? Constants.defaultRequestTimeout;
+    const handle = _getCharacteristicHandle(
+      peripheral,
       serviceUuid,
       characteristicUuid,
-      options?.instanceIndex ?? 0,
-      [...new Uint8Array(data)],
-      options?.withoutResponse ?? false
+      instanceIndex
+    );
+    const notifyHandle = _getCharacteristicHandle(
+      peripheral,
+      serviceUuid,
+      notifyCharacteristicUuid,
+      notifyInstanceIndex
+    );
+    if (handle !== undefined && notifyHandle !== undefined) {
+      try {
+        return toByteArray(
+          await BluetoothLE.writeCharacteristicAndWaitForResponseByHandle(
+            _getSystemId(peripheral),
+            handle,
+            dataBase64,
+            options?.withoutResponse ?? false,
+            notifyHandle,
+            responseType,
+            timeoutMs
+          )
+        );
+      } catch (error) {
+        _checkCharacteristicHandle(
+          peripheral,
+          serviceUuid,
+          characteristicUuid,
+          instanceIndex,
+          error
+        );
+        _checkCharacteristicHandle(
+          peripheral,
+          serviceUuid,
+          notifyCharacteristicUuid,
+          notifyInstanceIndex,
+          error
+        );
+        throw error;
+      }
+    }
+    return toByteArray(
+      await BluetoothLE.writeCharacteristicAndWaitForResponse(
+        _getSystemId(peripheral),
+        serviceUuid,
+        characteristicUuid,
+        instanceIndex,
+        dataBase64,
+        options?.withoutResponse ?? false,
+        notifyCharacteristicUuid,
+        notifyInstanceIndex,
+        responseType,
+        timeoutMs
+      )
     );
   },
 
+  // Writes data of any size, split in packets that fit the MTU.
+  // On Android the packets are sent natively and the promise resolves
+  // once all of them are written.
+  async writeCharacteristicBulk(
+    peripheral: PeripheralOrSystemId,
+    serviceUuid: string,
+    characteristicUuid: string,
+    data: ArrayBuffer,
+    options?: {
+      withoutResponse?: boolean;
+      instanceIndex?: number;
+      onProgress?: (bytesSent: number, totalBytes: number) => void;
+    }
+  ): Promise<void> {
+    const sysId = _getSystemId(peripheral);
+    const withoutResponse = options?.withoutResponse ?? false;
+    const instanceIndex = options?.instanceIndex ?? 0;
+    const onProgress = options?.onProgress;
+    if (Platform.OS === "android") {
+      const transferId = onProgress ? ++_lastTransferId : 0;
+      const subs = onProgress
+        ? _addNativeListener("writeProgress", (ev) => {
+            if (ev.transferId === transferId) {
+              onProgress(ev.bytesSent, ev.totalBytes);
+            }
+          })
+        : undefined;
+      try {
+        const handle = _getCharacteristicHandle(
+          peripheral,
+          serviceUuid,
+          characteristicUuid,
+          instanceIndex
+        );
+        if (handle !== undefined) {
+          try {
+            await BluetoothLE.writeCharacteristicBulkByHandle(
+              sysId,
+              handle,
+              fromByteArray(new Uint8Array(data)),
+              withoutResponse,
+              transferId
+            );
+          } catch (error) {
+            _checkCharacteristicHandle(
+              peripheral,
+              serviceUuid,
+              characteristicUuid,
+              instanceIndex,
+              error
+            );
+            throw error;
+          }
+        } else {
+          await BluetoothLE.writeCharacteristicBulk(
+            sysId,
+            serviceUuid,
+            characteristicUuid,
+            instanceIndex,
+            fromByteArray(new Uint8Array(data)),
+            withoutResponse,
+            transferId
+          );
+        }
+      } finally {
+        subs?.remove();
+      }
+    } else {
+      // Send one packet at a time
+      const mtu = await BluetoothLE.getPeripheralMtu(sysId);
+      const packetSize = Math.max(mtu, Constants.minMtu) - 3;
+      const totalBytes = data.byteLength;
+      let offset = 0;
+      do {
+        const packet = data.slice(offset, offset + packetSize);
+        await BluetoothLE.writeCharacteristic(
+          sysId,
+          serviceUuid,
+          characteristicUuid,
+          instanceIndex,
+          [...new Uint8Array(packet)],
+          withoutResponse
+        );
+        offset += packet.byteLength;
+        onProgress?.(offset, totalBytes);
+      } while (offset < totalBytes);
+    }
+  },
+
   // Notes:
-  // Only one subscription (a new subscription will replace the previous one)
+  // Several callbacks may subscribe to the same characteristic, the framing
+  // of the first subscription applies to all of them and later framing
+  // options are ignored. Notifications are only enabled by the first
+  // subscription (Android).
   // Will be unsubscribed on disconnect
   async subscribeCharacteristic(
     peripheral: PeripheralOrSystemId,
@@ -891,6 +1680,14 @@ export const Central = {
     options?: {
       instanceIndex?: number;
       timeoutMs?: number; // TODO unused => Constants.defaultRequestTimeout
+      // Android only, buffers notifications natively for up to the given
+      // duration (in ms) or count, to reduce the number of bridge calls.
+      // Buffered values are forwarded in order with their timestamp.
+      coalescingInterval?: number;
+      coalescingCount?: number;
+      // Android only, reassembles messages sent over several notifications
+      // so onValueChanged is only called with complete messages.
+      framing?: NativeFraming;
     }
   ): Promise<void> {
     const pInf = _getPeripheralInfo(peripheral);
@@ -898,14 +1695,25 @@ export const Central = {
       _getSystemId(peripheral),
       serviceUuid,
       characteristicUuid,
-      options?.instanceIndex ?? 0
+      options?.instanceIndex ?? 0,
+      {
+        coalescingInterval: options?.coalescingInterval,
+        coalescingCount: options?.coalescingCount,
+        framing: options?.framing,
+        base64: true, // Avoid marshalling each byte (Android only)
+      }
     );
     const key = getCharacteristicKey(
       serviceUuid,
       characteristicUuid,
       options?.instanceIndex ?? 0
     );
-    pInf.valueChangedCallbacks.set(key, onValueChanged);
+    const callbacks = pInf.valueChangedCallbacks.get(key);
+    if (callbacks) {
+      callbacks.add(onValueChanged);
+    } else {
+      pInf.valueChangedCallbacks.set(key, new Set([onValueChanged]));
+    }
   },
 
   async unsubscribeCharacteristic(
@@ -915,6 +1723,9 @@ export const Central = {
     options?: {
       instanceIndex?: number;
       timeoutMs?: number; // TODO unused => Constants.defaultRequestTimeout
+      // Only removes this callback, notifications stay enabled
+      // if the characteristic has other subscribed callbacks
+      onValueChanged?: (ev: PeripheralCharacteristicValueChangedEvent) => void;
     }
   ): Promise<void> {
     const pInf = _getPeripheralInfo(peripheral);
@@ -923,6 +1734,13 @@ export const Central = {
       characteristicUuid,
       options?.instanceIndex ?? 0
     );
+    const callbacks = pInf.valueChangedCallbacks.get(key);
+    if (options?.onValueChanged && callbacks) {
+      callbacks.delete(options.onValueChanged);
+      if (callbacks.size) {
+        return;
+      }
+    }
     pInf.valueChangedCallbacks.delete(key);
     await BluetoothLE.unsubscribeCharacteristic(
       _getSystemId(peripheral),
@@ -18,16 +18,72 @@ export type ScanResult = Readonly<{
 
 export type BleScanResultEvent = ScanResult | Readonly<{ error: string }>;
 
+export type BleScanResultBatchEvent = readonly ScanResult[];
+
+// Scan events for a scan session have a session id
+type ScanSessionId = Readonly<{ sessionId?: number }>;
+
+export type BleScanPresenceEvent = ScanSessionId &
+  (
+    | (ScanResult & Readonly<{ presence: "found" }>)
+    | Readonly<{ device: Device; presence: "lost" }>
+  );
+
+export type BleScanThrottleEvent = ScanSessionId &
+  Readonly<{
+    throttled: boolean;
+    delay: number; // Delay in milliseconds before the scan is started
+    startsCount: number; // Number of scans started over the last 30 seconds
+  }>;
+
+export type ScanMode = "lowPower" | "balanced" | "lowLatency";
+
+export type ScanModeStatistics = Readonly<{
+  time: number; // Time spent in the scan mode, in milliseconds
+  newDevices: number; // Number of devices discovered in the scan mode
+  changes: number; // Number of advertisement changes seen in the scan mode
+  discoveryRate: number; // New devices and changes per minute
+}>;
+
+export type BleScanModeEvent = ScanSessionId &
+  Readonly<{
+    mode: ScanMode;
+    modes: Readonly<{ [mode in ScanMode]: ScanModeStatistics }>;
+  }>;
+
+export type BleScanSessionResultsEvent = Readonly<{ sessionId: number }> &
+  (Readonly<{ results: readonly ScanResult[] }> | Readonly<{ error: string }>);
+
 export type BleConnectionEvent = Readonly<{
   device: Device;
   connectionStatus: ConnectionStatus;
   reason: ConnectionEventReason;
 }>;
 
+// Values are sent as base64 strings when subscribing with the base64 option
+export type BleCharacteristicData =
+  | Readonly<{ data: readonly number[] }>
+  | Readonly<{ dataBase64: string }>;
+
 export type BleCharacteristicValueChangedEvent = Readonly<{
   device: Device;
   characteristic: Characteristic;
-  data: readonly number[];
+}> &
+  BleCharacteristicData;
+
+export type BleWriteProgressEvent = Readonly<{
+  transferId: number;
+  bytesSent: number;
+  totalBytes: number;
+}>;
+
+export type BleCharacteristicValuesChangedEvent = Readonly<{
+  device: Device;
+  characteristic: Characteristic;
+  values: readonly (BleCharacteristicData &
+    Readonly<{
+      timestamp: number; // Milliseconds since epoch
+    }>)[];
 }>;
 
 /**
@@ -39,8 +95,15 @@ export type BleCharacteristicValueChangedEvent = Readonly<{
 export type BleEventMap = Readonly<{
   bluetoothState: BleBluetoothStateEvent;
   scanResult: BleScanResultEvent;
+  scanResultBatch: BleScanResultBatchEvent;
+  scanPresence: BleScanPresenceEvent;
+  scanThrottle: BleScanThrottleEvent;
+  scanMode: BleScanModeEvent;
+  scanSessionResults: BleScanSessionResultsEvent;
   connectionEvent: BleConnectionEvent;
   characteristicValueChanged: BleCharacteristicValueChangedEvent;
+  characteristicValuesChanged: BleCharacteristicValuesChangedEvent;
+  writeProgress: BleWriteProgressEvent;
 }>;
 
 export type BleEvents = keyof BleEventMap;
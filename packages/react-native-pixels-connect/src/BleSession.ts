@@ -5,7 +5,10 @@ import {
 import {
   Central,
   CentralEventMap,
+  getNativeErrorCode,
+  PeripheralCharacteristicValueChangedEvent,
 } from "@systemic-games/react-native-bluetooth-le";
+import { Platform } from "react-native";
 
 import { ScannedDevicesRegistry } from "./ScannedDevicesRegistry";
 
@@ -34,6 +37,11 @@ export default class BleSession extends PixelSession {
       this.setConnectionEventListener(undefined);
       Central.removePeripheralConnectionListener(this.systemId, onConnection);
     };
+    if (Platform.OS === "android") {
+      // Wait for responses natively
+      this.writeValueAndWaitForResponse = (data, responseType, timeoutMs) =>
+        this._writeValueAndWaitForResponse(data, responseType, timeoutMs);
+    }
   }
 
   dispose(): void {
@@ -52,19 +60,22 @@ export default class BleSession extends PixelSession {
 
   async subscribe(listener: (dataView: DataView) => void): Promise<() => void> {
     const { service, notifyCharacteristic } = this.getBleUuids();
+    const onValueChanged = (ev: PeripheralCharacteristicValueChangedEvent) =>
+      ev.value?.length &&
+      listener(new DataView(new Uint8Array(ev.value).buffer));
     await Central.subscribeCharacteristic(
       this.systemId,
       service,
       notifyCharacteristic,
-      (ev) =>
-        ev.value?.length &&
-        listener(new DataView(new Uint8Array(ev.value).buffer))
+      onValueChanged
     );
     return () => {
+      // Other listeners of the characteristic stay subscribed
       Central.unsubscribeCharacteristic(
         this.systemId,
         service,
-        notifyCharacteristic
+        notifyCharacteristic,
+        { onValueChanged }
       ).catch(() => {});
       // TODO (e) => this.log(`Error unsubscribing characteristic: ${e}`));
     };
@@ -85,6 +96,36 @@ export default class BleSession extends PixelSession {
     );
   }
 
+  private async _writeValueAndWaitForResponse(
+    data: ArrayBuffer,
+    responseType: number,
+    timeoutMs: number
+  ): Promise<DataView | undefined> {
+    const { service, writeCharacteristic, notifyCharacteristic } =
+      this.getBleUuids();
+    try {
+      const response = await Central.writeCharacteristicAndWaitForResponse(
+        this.systemId,
+        service,
+        writeCharacteristic,
+        data,
+        notifyCharacteristic,
+        responseType,
+        { timeoutMs }
+      );
+      return new DataView(
+        response.buffer,
+        response.byteOffset,
+        response.byteLength
+      );
+    } catch (error) {
+      if (getNativeErrorCode(error) === "ERROR_TIMEOUT") {
+        return undefined;
+      }
+      throw error;
+    }
+  }
+
   private getBleUuids(): typeof PixelsBluetoothIds.die {
     switch (this.type) {
       case "die":
@@ -13,6 +13,7 @@ import {
   CentralEventMap,
   ScanStatus,
 } from "@systemic-games/react-native-bluetooth-le";
+import { Platform } from "react-native";
 
 import { ScannedBootloader } from "./ScannedBootloader";
 import { ScannedCharger } from "./ScannedCharger";
@@ -111,11 +112,13 @@ export class PixelScanner {
   private _notifyTimeoutId?: ReturnType<typeof setTimeout>;
   private _keepAliveDuration = 7000;
   private _pruneTimeoutId?: ReturnType<typeof setTimeout>;
+  private _nativePresence = false; // Whether lost devices are reported by native code
   private _lastUpdateMs = 0;
   private readonly _touched = new Set<string>(); // string = type+pixelId
   private _onBluetoothState?: (ev: { state: BluetoothState }) => void;
   private readonly _onScannedCb = this._onScannedPeripheral.bind(this);
   private readonly _onStatusCb = this._onScanStatus.bind(this);
+  private readonly _onPresenceCb = this._onPeripheralPresence.bind(this);
 
   /**
    * Whether a scan may be started.
@@ -230,6 +233,8 @@ export class PixelScanner {
   set keepAliveDuration(duration: number) {
     if (this._keepAliveDuration !== duration) {
       this._keepAliveDuration = duration;
+      // The native presence timeout can't be changed while scanning
+      this._nativePresence = false;
       this._pruneOutdated();
     }
   }
@@ -295,8 +300,8 @@ export class PixelScanner {
    * @remarks
    * Calls to the async methods of this class are queued and executed in order.
    *
-   * On Android, BLE scanning will fail without error when started more than 5 times
-   * over the last 30 seconds.
+   * On Android, the OS fails without error the scans started more than 5 times
+   * over the last 30 seconds, so the scan start is delayed in such a case.
    */
   startAsync(): Promise<void> {
     return PixelScanner._sharedQueue.run(() => {
@@ -305,6 +310,13 @@ export class PixelScanner {
       if (this._status === "stopped" && !this._startPromise) {
         Central.addListener("scannedPeripheral", this._onScannedCb);
         Central.addListener("scanStatus", this._onStatusCb);
+        // On Android, let native code report the devices that stopped advertising
+        const nativePresence =
+          Platform.OS === "android" && this._keepAliveDuration > 0;
+        if (nativePresence) {
+          Central.addListener("peripheralPresence", this._onPresenceCb);
+        }
+        this._nativePresence = nativePresence;
         this._startPromise = (async () => {
           try {
             await Central.startScan(
@@ -315,7 +327,24 @@ export class PixelScanner {
                 PixelsBluetoothIds.mpc.service,
                 toFullUuid(PixelsBluetoothIds.dfuService),
               ],
-              this
+              this,
+              // Let native code drop the advertisements that we would
+              // throttle anyways, decode the others and send them in batches
+              {
+                coalescingInterval: this._minNotifyInterval,
+                batchResults: true,
+                decodePixelsData: true,
+                // Idle dice keep sending the same data, make sure they
+                // are still reported often enough to not be pruned
+                filterUnchanged: true,
+                heartbeatInterval:
+                  this._keepAliveDuration > 0
+                    ? Math.ceil(this._keepAliveDuration / 3)
+                    : undefined,
+                presenceTimeout: nativePresence
+                  ? this._keepAliveDuration
+                  : undefined,
+              }
             );
           } finally {
             this._startPromise = undefined;
@@ -458,6 +487,29 @@ export class PixelScanner {
     if (status === "stopped") {
       Central.removeListener("scannedPeripheral", this._onScannedCb);
       Central.removeListener("scanStatus", this._onStatusCb);
+      Central.removeListener("peripheralPresence", this._onPresenceCb);
+      this._nativePresence = false;
+    }
+  }
+
+  private _onPeripheralPresence({
+    peripheral,
+    present,
+    context,
+  }: CentralEventMap["peripheralPresence"]): void {
+    // Ignore events from a scan that was not started by this instance
+    if (context !== this || !this._nativePresence || present) {
+      return;
+    }
+    // Remove lost device
+    const index = this._devices.findIndex(
+      ({ systemId }) => systemId === peripheral.systemId
+    );
+    if (index >= 0) {
+      const { pixelId, type } = this._devices[index];
+      this._devices.splice(index, 1);
+      this._touchDevice(pixelId, type);
+      this._scheduleNotify();
     }
   }
 
@@ -482,7 +534,11 @@ export class PixelScanner {
       this._touchDevice(sp.pixelId, sp.type);
       this._scheduleNotify();
       // Start pruning if needed
-      if (this._keepAliveDuration > 0 && !this._pruneTimeoutId) {
+      if (
+        this._keepAliveDuration > 0 &&
+        !this._nativePresence &&
+        !this._pruneTimeoutId
+      ) {
         this._pruneOutdated();
       }
     }
@@ -559,7 +615,8 @@ export class PixelScanner {
       clearTimeout(this._pruneTimeoutId);
       this._pruneTimeoutId = undefined;
     }
-    if (this._keepAliveDuration > 0) {
+    // Lost devices are reported by native code when tracking presence
+    if (this._keepAliveDuration > 0 && !this._nativePresence) {
       const now = Date.now();
       // Find expired advertisements
       const expired = this._devices.filter(
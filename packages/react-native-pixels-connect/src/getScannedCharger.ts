@@ -18,12 +18,26 @@ export function getScannedCharger(
   // Use local name if available (which is the most up-to-date)
   const name = advData.localName ?? peripheral.name;
 
+  // The values we want to read
+  let pixelId: number;
+  let firmwareDate: Date;
+  let batteryLevel: number;
+  let isCharging: boolean;
+  const ledCount = 3;
+
   // Get the first manufacturer and service data
   const manufacturerData = advData.manufacturersData?.[0];
   const serviceData = advData.servicesData?.[0];
 
   // Check the manufacturers data
-  if (
+  const pixelsData = advData.pixelsData;
+  if (pixelsData) {
+    // Advertisement data already decoded by the native code
+    pixelId = pixelsData.pixelId;
+    firmwareDate = new Date(pixelsData.firmwareTime);
+    batteryLevel = pixelsData.batteryLevel;
+    isCharging = pixelsData.isCharging;
+  } else if (
     manufacturerData &&
     // manufacturerData.data?.length >= 1 &&
     serviceData &&
@@ -42,40 +56,18 @@ export function getScannedCharger(
     );
 
     // Read the advertised values from the service data
-    const pixelId = serviceReader.readU32();
-    const firmwareDate = new Date(1000 * serviceReader.readU32());
+    pixelId = serviceReader.readU32();
+    firmwareDate = new Date(1000 * serviceReader.readU32());
 
     // Read the advertised values from the manufacturer data
-    const ledCount = 3;
     const battery = manufBuffer.byteLength ? manufReader.readU8() : 0;
     if (!manufBuffer.byteLength) {
       // This happens for unknown reason...
       console.warn(`Charger ${name}: Received empty manufacturer data`);
     }
     // MSB is battery charging
-    const batteryLevel = battery & 0x7f;
-    const isCharging = (battery & 0x80) > 0;
-
-    if (pixelId) {
-      const systemId = peripheral.systemId;
-      const scannedCharger = {
-        type: "charger" as "charger",
-        systemId,
-        pixelId,
-        address: peripheral.address,
-        name,
-        ledCount,
-        firmwareDate,
-        rssi: advData.rssi,
-        batteryLevel,
-        isCharging,
-        timestamp: new Date(advData.timestamp),
-      };
-      ScannedDevicesRegistry.store(scannedCharger);
-      return scannedCharger;
-    } else {
-      console.error(`Pixel ${name}: Received invalid advertising data`);
-    }
+    batteryLevel = battery & 0x7f;
+    isCharging = (battery & 0x80) > 0;
   } else {
     console.error(
       `Charger ${
@@ -84,5 +76,27 @@ export function getScannedCharger(
         manufacturerData?.data.length ?? -1
       } bytes, serviceData: ${serviceData?.data.length ?? -1} bytes)`
     );
+    return;
+  }
+
+  if (pixelId) {
+    const systemId = peripheral.systemId;
+    const scannedCharger = {
+      type: "charger" as "charger",
+      systemId,
+      pixelId,
+      address: peripheral.address,
+      name,
+      ledCount,
+      firmwareDate,
+      rssi: advData.rssi,
+      batteryLevel,
+      isCharging,
+      timestamp: new Date(advData.timestamp),
+    };
+    ScannedDevicesRegistry.store(scannedCharger);
+    return scannedCharger;
+  } else {
+    console.error(`Pixel ${name}: Received invalid advertising data`);
   }
 }
@@ -18,12 +18,21 @@ export function getScannedMPC(
   // Use local name if available (which is the most up-to-date)
   const name = advData.localName ?? peripheral.name;
 
+  // The values we want to read
+  let pixelId: number;
+  let firmwareDate: Date;
+
   // Get the first manufacturer and service data
   const manufacturerData = advData.manufacturersData?.[0];
   const serviceData = advData.servicesData?.[0];
 
   // Check the manufacturers data
-  if (serviceData && serviceData.data.length >= 8) {
+  const pixelsData = advData.pixelsData;
+  if (pixelsData) {
+    // Advertisement data already decoded by the native code
+    pixelId = pixelsData.pixelId;
+    firmwareDate = new Date(pixelsData.firmwareTime);
+  } else if (serviceData && serviceData.data.length >= 8) {
     // Create data reader for the service data
     const serviceBuffer = new Uint8Array(serviceData.data);
     const serviceReader = new SequentialDataReader(
@@ -31,34 +40,35 @@ export function getScannedMPC(
     );
 
     // Read the advertised values from the service data
-    const pixelId = serviceReader.readU32();
-    const firmwareDate = new Date(1000 * serviceReader.readU32());
-
-    if (pixelId) {
-      const systemId = peripheral.systemId;
-      const scannedMPC = {
-        type: "mpc" as "mpc",
-        systemId,
-        pixelId,
-        address: peripheral.address,
-        name,
-        ledCount: 32,
-        firmwareDate,
-        rssi: advData.rssi,
-        batteryLevel: 0,
-        isCharging: false,
-        timestamp: new Date(advData.timestamp),
-      };
-      ScannedDevicesRegistry.store(scannedMPC);
-      return scannedMPC;
-    } else {
-      console.error(`Pixel ${name}: Received invalid advertising data`);
-    }
+    pixelId = serviceReader.readU32();
+    firmwareDate = new Date(1000 * serviceReader.readU32());
   } else {
     console.error(
       `MPC ${name}: Received unsupported advertising data (manufacturerData: ${
         manufacturerData?.data.length ?? -1
       } bytes, serviceData: ${serviceData?.data.length ?? -1} bytes)`
     );
+    return;
+  }
+
+  if (pixelId) {
+    const systemId = peripheral.systemId;
+    const scannedMPC = {
+      type: "mpc" as "mpc",
+      systemId,
+      pixelId,
+      address: peripheral.address,
+      name,
+      ledCount: 32,
+      firmwareDate,
+      rssi: advData.rssi,
+      batteryLevel: 0,
+      isCharging: false,
+      timestamp: new Date(advData.timestamp),
+    };
+    ScannedDevicesRegistry.store(scannedMPC);
+    return scannedMPC;
+  } else {
+    console.error(`Pixel ${name}: Received invalid advertising data`);
   }
 }
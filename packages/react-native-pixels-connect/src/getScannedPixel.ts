@@ -33,6 +33,17 @@ export function getScannedPixel(
   // Use local name if available (which is the most up-to-date)
   const name = advData.localName ?? peripheral.name;
 
+  // The values we want to read
+  let pixelId: number;
+  let ledCount: number;
+  let colorwayValue: number;
+  let dieTypeValue: number;
+  let firmwareDate: Date;
+  let batteryLevel: number;
+  let isCharging = false;
+  let rollStateValue: number;
+  let faceIndex: number;
+
   // Get the first manufacturer and service data
   const manufacturerData = advData.manufacturersData?.[0];
   const serviceData = advData.servicesData?.[0];
@@ -40,22 +51,23 @@ export function getScannedPixel(
   // Check the service data
   const hasServiceData = serviceData && serviceData.data.length >= 8;
   const isOldAdv = !serviceData && manufacturerData?.data.length === 7;
-  if (
+  const pixelsData = advData.pixelsData;
+  if (pixelsData) {
+    // Advertisement data already decoded by the native code
+    pixelId = pixelsData.pixelId;
+    ledCount = pixelsData.ledCount;
+    colorwayValue = pixelsData.colorway;
+    dieTypeValue = pixelsData.dieType;
+    firmwareDate = new Date(pixelsData.firmwareTime);
+    batteryLevel = pixelsData.batteryLevel;
+    isCharging = pixelsData.isCharging;
+    rollStateValue = pixelsData.rollState;
+    faceIndex = pixelsData.faceIndex;
+  } else if (
     (isOldAdv || hasServiceData) &&
     manufacturerData &&
     manufacturerData.data?.length >= 5
   ) {
-    // The values we want to read
-    let pixelId: number;
-    let ledCount: number;
-    let colorwayValue: number;
-    let dieTypeValue: number;
-    let firmwareDate: Date;
-    let batteryLevel: number;
-    let isCharging = false;
-    let rollStateValue: number;
-    let faceIndex: number;
-
     // Create data reader for the manufacturer data
     const manufBuffer = new Uint8Array(manufacturerData.data);
     const manufReader = new SequentialDataReader(
@@ -103,55 +115,58 @@ export function getScannedPixel(
 
       firmwareDate = new Date(1656633600000); // 2022-07-01 UTC
     }
-
-    if (pixelId) {
-      const systemId = peripheral.systemId;
-      const colorway =
-        getValueKeyName(colorwayValue, PixelColorwayValues) ?? "unknown";
-      const dieType = dieTypeValue
-        ? (getValueKeyName(dieTypeValue, PixelDieTypeValues) ?? "unknown")
-        : DiceUtils.estimateDieType(ledCount);
-      const rollState =
-        getValueKeyName(rollStateValue, PixelRollStateValues) ?? "unknown";
-      const currentFace = DiceUtils.faceFromIndex(
-        faceIndex,
-        dieType,
-        firmwareDate.getTime()
-      );
-      const scannedPixel = {
-        type: "die" as "die",
-        systemId,
-        pixelId,
-        address: peripheral.address,
-        name,
-        ledCount,
-        colorway,
-        dieType,
-        firmwareDate,
-        rssi: advData.rssi,
-        batteryLevel,
-        isCharging,
-        rollState,
-        currentFace,
-        currentFaceIndex: faceIndex,
-        timestamp: new Date(advData.timestamp),
-      };
-      ScannedDevicesRegistry.store(
-        scannedPixel,
-        customPixelService ? "custom" : "legacy"
+  } else {
+    if (!hasServiceData) {
+      // After a reboot we may receive a onetime advertisement payload without the manufacturer data
+      console.error(
+        `Pixel ${
+          name
+        }: Received unsupported advertising data (manufacturerData: ${
+          manufacturerData?.data.length ?? -1
+        } bytes, serviceData: ${serviceData?.data.length ?? -1} bytes)`
       );
-      return scannedPixel;
-    } else {
-      console.error(`Pixel ${name}: Received invalid advertising data`);
     }
-  } else if (!hasServiceData) {
-    // After a reboot we may receive a onetime advertisement payload without the manufacturer data
-    console.error(
-      `Pixel ${
-        name
-      }: Received unsupported advertising data (manufacturerData: ${
-        manufacturerData?.data.length ?? -1
-      } bytes, serviceData: ${serviceData?.data.length ?? -1} bytes)`
+    return;
+  }
+
+  if (pixelId) {
+    const systemId = peripheral.systemId;
+    const colorway =
+      getValueKeyName(colorwayValue, PixelColorwayValues) ?? "unknown";
+    const dieType = dieTypeValue
+      ? (getValueKeyName(dieTypeValue, PixelDieTypeValues) ?? "unknown")
+      : DiceUtils.estimateDieType(ledCount);
+    const rollState =
+      getValueKeyName(rollStateValue, PixelRollStateValues) ?? "unknown";
+    const currentFace = DiceUtils.faceFromIndex(
+      faceIndex,
+      dieType,
+      firmwareDate.getTime()
+    );
+    const scannedPixel = {
+      type: "die" as "die",
+      systemId,
+      pixelId,
+      address: peripheral.address,
+      name,
+      ledCount,
+      colorway,
+      dieType,
+      firmwareDate,
+      rssi: advData.rssi,
+      batteryLevel,
+      isCharging,
+      rollState,
+      currentFace,
+      currentFaceIndex: faceIndex,
+      timestamp: new Date(advData.timestamp),
+    };
+    ScannedDevicesRegistry.store(
+      scannedPixel,
+      customPixelService ? "custom" : "legacy"
     );
+    return scannedPixel;
+  } else {
+    console.error(`Pixel ${name}: Received invalid advertising data`);
   }
 }